@@ -86,6 +86,18 @@ public final class MidiDispatcher extends MidiReceiver {
         }
     }
 
+    @Override
+    public void onSendBatch(int[] messages, long[] timestamps, int offset, int count) throws IOException {
+       for (MidiReceiver receiver : mReceivers) {
+            try {
+                receiver.sendBatch(messages, timestamps, offset, count);
+            } catch (IOException e) {
+                // if the receiver fails we remove the receiver but do not propagate the exception
+                mReceivers.remove(receiver);
+            }
+        }
+    }
+
     @Override
     public void flush() throws IOException {
        for (MidiReceiver receiver : mReceivers) {
@@ -26,7 +26,7 @@ import java.io.IOException;
 public class MidiEventScheduler extends EventScheduler {
     private static final String TAG = "MidiEventScheduler";
     // Maintain a pool of scheduled events to reduce memory allocation.
-    // This pool increases performance by about 14%.
+    // Its effect is measured by MidiMessagePathBenchmark in midi-benchmark.
     private final static int POOL_EVENT_SIZE = 16;
     private MidiReceiver mReceiver = new SchedulingReceiver();
 
@@ -44,6 +44,23 @@ public class MidiEventScheduler extends EventScheduler {
                 add(event);
             }
         }
+
+        /**
+         * Store each packed message as an event.
+         */
+        @Override
+        public void onSendBatch(int[] messages, long[] timestamps, int offset, int count)
+                throws IOException {
+            for (int i = offset; i < offset + count; i++) {
+                MidiEvent event = (MidiEvent) removeEventfromPool();
+                if (event == null) {
+                    event = new MidiEvent(POOL_EVENT_SIZE);
+                }
+                event.count = unpackMessage(messages[i], event.data);
+                event.setTimestamp(timestamps[i]);
+                add(event);
+            }
+        }
     }
 
     public static class MidiEvent extends SchedulableEvent {
@@ -108,4 +108,34 @@ public class MidiFramer extends MidiReceiver {
         }
     }
 
+    /*
+     * Packed messages are already framed, so the batch is passed on as is.
+     * The state is updated as if the bytes had been sent, so bytes sent
+     * afterwards use the Running Status of the batch, and any partial
+     * message is discarded.
+     * @see android.midi.MidiReceiver#onSendBatch(int[], long[], int, int)
+     */
+    @Override
+    public void onSendBatch(int[] messages, long[] timestamps, int offset, int count)
+            throws IOException {
+        for (int i = offset; i < offset + count; i++) {
+            final byte status = (byte) (messages[i] >> 16);
+            final int statusInt = status & 0xFF;
+            if (statusInt < 0x80 || statusInt >= 0xF8) {
+                // real-time messages don't change the state
+                continue;
+            }
+            if (statusInt < 0xF0) { // channel message?
+                mRunningStatus = status;
+            } else {
+                mBuffer[0] = status;
+                mRunningStatus = 0;
+            }
+            mCount = 1;
+            mNeeded = MidiConstants.getBytesPerMessage(status) - 1;
+            mInSysEx = false;
+        }
+        mReceiver.sendBatch(messages, timestamps, offset, count);
+    }
+
 }
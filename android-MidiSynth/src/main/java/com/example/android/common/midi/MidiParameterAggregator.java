@@ -0,0 +1,238 @@
+package com.example.android.common.midi;
+
+import android.media.midi.MidiReceiver;
+
+import java.io.IOException;
+
+/**
+ * Aggregate the Control Change messages of RPN and NRPN into parameter changes.
+ *
+ * The parameter number (CC 101/100 or 99/98) and the Data Entry (CC 6/38), Data Increment
+ * and Data Decrement messages are consumed, and reported as one 14-bit change to the listener.
+ * Successive changes of the same parameter within one call are coalesced into the last one,
+ * so a sweep costs one change per call instead of one per Control Change.
+ * A pending change is reported before any other message of the same channel is passed on.
+ * All the other messages are passed on to the receiver.
+ *
+ * Expects framed messages, as sent by {@link MidiFramer}, or packed messages.
+ */
+public class MidiParameterAggregator extends MidiReceiver {
+    private static final int CHANNELS = 16;
+    private static final int NO_PARAMETER = -1;
+
+    private static final int CONTROL_DATA_ENTRY_MSB = 6;
+    private static final int CONTROL_DATA_ENTRY_LSB = 38;
+    private static final int CONTROL_DATA_INCREMENT = 96;
+    private static final int CONTROL_DATA_DECREMENT = 97;
+    private static final int CONTROL_NRPN_LSB = 98;
+    private static final int CONTROL_NRPN_MSB = 99;
+    private static final int CONTROL_RPN_LSB = 100;
+    private static final int CONTROL_RPN_MSB = 101;
+
+    /**
+     * Interface for receiving the parameter changes.
+     */
+    public interface OnParameterChangeListener {
+        /**
+         * Called when a parameter has changed.
+         *
+         * @param channel the channel, from 0 to 15
+         * @param registered true for an RPN, false for an NRPN
+         * @param parameter the 14-bit parameter number
+         * @param value the 14-bit value
+         * @param timestamp the timestamp of the last message of the change
+         */
+        void onParameterChanged(int channel, boolean registered, int parameter, int value, long timestamp);
+    }
+
+    private final MidiReceiver mReceiver;
+    private final OnParameterChangeListener mListener;
+
+    // The selected parameter of each channel, and its value.
+    private final boolean[] mRegistered = new boolean[CHANNELS];
+    private final int[] mParameterMsb = new int[CHANNELS];
+    private final int[] mParameterLsb = new int[CHANNELS];
+    private final int[] mValue = new int[CHANNELS];
+    private final boolean[] mPending = new boolean[CHANNELS];
+    private final long[] mPendingTimestamp = new long[CHANNELS];
+    private int mPendingCount;
+
+    // The messages of a batch passed on to the receiver.
+    private int[] mBatchMessages = new int[64];
+    private long[] mBatchTimestamps = new long[64];
+    private int mBatchCount;
+
+    /**
+     * @param receiver the receiver of the other messages
+     * @param listener the listener of the parameter changes
+     */
+    public MidiParameterAggregator(MidiReceiver receiver, OnParameterChangeListener listener) {
+        mReceiver = receiver;
+        mListener = listener;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            mParameterMsb[channel] = NO_PARAMETER;
+            mParameterLsb[channel] = NO_PARAMETER;
+        }
+    }
+
+    @Override
+    public void onSend(byte[] data, int offset, int count, long timestamp)
+            throws IOException {
+        int status = data[offset] & 0xFF;
+        if (count != 3 || !consume(status, data[offset + 1], data[offset + 2], timestamp)) {
+            reportPending(status);
+            mReceiver.send(data, offset, count, timestamp);
+        }
+        reportAllPending();
+    }
+
+    @Override
+    public void onSendBatch(int[] messages, long[] timestamps, int offset, int count)
+            throws IOException {
+        mBatchCount = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int message = messages[i];
+            int status = (message >> 16) & 0xFF;
+            if (consume(status, message >> 8, message, timestamps[i])) {
+                continue;
+            }
+            if (isPending(status)) {
+                // The change comes before the message.
+                sendBatch();
+                reportPending(status);
+            }
+            if (mBatchCount == mBatchMessages.length) {
+                growBatch();
+            }
+            mBatchMessages[mBatchCount] = message;
+            mBatchTimestamps[mBatchCount] = timestamps[i];
+            mBatchCount++;
+        }
+        sendBatch();
+        reportAllPending();
+    }
+
+    /**
+     * Forget the selected parameters.
+     */
+    @Override
+    public void onFlush() throws IOException {
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            mParameterMsb[channel] = NO_PARAMETER;
+            mParameterLsb[channel] = NO_PARAMETER;
+            mPending[channel] = false;
+        }
+        mPendingCount = 0;
+        mReceiver.flush();
+    }
+
+    /**
+     * @return true if the message is a part of a parameter change
+     */
+    private boolean consume(int status, int control, int value, long timestamp) {
+        if ((status & 0xF0) != (MidiConstants.STATUS_CONTROL_CHANGE & 0xFF)) {
+            return false;
+        }
+        int channel = status & 0x0F;
+        control &= 0x7F;
+        value &= 0x7F;
+        switch (control) {
+        case CONTROL_RPN_MSB:
+        case CONTROL_NRPN_MSB:
+            select(channel, control == CONTROL_RPN_MSB, true, value);
+            return true;
+        case CONTROL_RPN_LSB:
+        case CONTROL_NRPN_LSB:
+            select(channel, control == CONTROL_RPN_LSB, false, value);
+            return true;
+        case CONTROL_DATA_ENTRY_MSB:
+            return change(channel, value << 7, timestamp);
+        case CONTROL_DATA_ENTRY_LSB:
+            return change(channel, (mValue[channel] & 0x3F80) | value, timestamp);
+        case CONTROL_DATA_INCREMENT:
+            return change(channel, Math.min(mValue[channel] + 1, 0x3FFF), timestamp);
+        case CONTROL_DATA_DECREMENT:
+            return change(channel, Math.max(mValue[channel] - 1, 0), timestamp);
+        default:
+            return false;
+        }
+    }
+
+    private void select(int channel, boolean registered, boolean msb, int value) {
+        if (mPending[channel]) {
+            report(channel);
+        }
+        if (registered != mRegistered[channel]) {
+            // Switching between RPN and NRPN starts a new parameter number.
+            mParameterMsb[channel] = NO_PARAMETER;
+            mParameterLsb[channel] = NO_PARAMETER;
+            mRegistered[channel] = registered;
+        }
+        if (msb) {
+            mParameterMsb[channel] = value;
+        } else {
+            mParameterLsb[channel] = value;
+        }
+        mValue[channel] = 0;
+    }
+
+    private boolean change(int channel, int value, long timestamp) {
+        if (mParameterMsb[channel] == NO_PARAMETER || mParameterLsb[channel] == NO_PARAMETER) {
+            // Data Entry without a parameter is passed on.
+            return false;
+        }
+        if (mRegistered[channel] && mParameterMsb[channel] == 0x7F && mParameterLsb[channel] == 0x7F) {
+            // RPN Null
+            return true;
+        }
+        mValue[channel] = value;
+        mPendingTimestamp[channel] = timestamp;
+        if (!mPending[channel]) {
+            mPending[channel] = true;
+            mPendingCount++;
+        }
+        return true;
+    }
+
+    private boolean isPending(int status) {
+        return status >= 0x80 && status < 0xF0 && mPending[status & 0x0F];
+    }
+
+    private void reportPending(int status) {
+        if (isPending(status)) {
+            report(status & 0x0F);
+        }
+    }
+
+    private void reportAllPending() {
+        for (int channel = 0; mPendingCount > 0 && channel < CHANNELS; channel++) {
+            if (mPending[channel]) {
+                report(channel);
+            }
+        }
+    }
+
+    private void report(int channel) {
+        mPending[channel] = false;
+        mPendingCount--;
+        mListener.onParameterChanged(channel, mRegistered[channel],
+                mParameterMsb[channel] << 7 | mParameterLsb[channel],
+                mValue[channel], mPendingTimestamp[channel]);
+    }
+
+    private void sendBatch() throws IOException {
+        if (mBatchCount > 0) {
+            mReceiver.sendBatch(mBatchMessages, mBatchTimestamps, 0, mBatchCount);
+            mBatchCount = 0;
+        }
+    }
+
+    private void growBatch() {
+        int[] messages = new int[mBatchMessages.length * 2];
+        long[] timestamps = new long[mBatchTimestamps.length * 2];
+        System.arraycopy(mBatchMessages, 0, messages, 0, mBatchCount);
+        System.arraycopy(mBatchTimestamps, 0, timestamps, 0, mBatchCount);
+        mBatchMessages = messages;
+        mBatchTimestamps = timestamps;
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.android.common.midi;
+
+import android.media.midi.MidiReceiver;
+
+import java.io.IOException;
+
+/**
+ * Schedule MIDI data without an object per event.
+ *
+ * A short message is stored as a word packed by {@link MidiReceiver#packMessage},
+ * with its timestamp, in a binary heap of primitive arrays: 16 bytes per queued event.
+ * Other data, such as SysEx, is copied into a byte array referenced by the heap.
+ * Events with the same timestamp are processed in the order they were added.
+ *
+ * Only one Thread can write into the scheduler.
+ * And only one Thread can read from the scheduler.
+ */
+public class PackedMidiEventScheduler {
+    private static final long NANOS_PER_MILLI = 1000000;
+    private static final int INITIAL_CAPACITY = 256;
+    // A word with this bit set is the index of a byte array, not a packed message.
+    private static final int DATA_REFERENCE = 0x80000000;
+
+    private final Object lock = new Object();
+    // The heap, ordered by timestamp and then by sequence number.
+    private int[] mMessages = new int[INITIAL_CAPACITY];
+    private long[] mTimestamps = new long[INITIAL_CAPACITY];
+    private int[] mSequences = new int[INITIAL_CAPACITY];
+    private int mSize;
+    private int mNextSequence;
+
+    // The byte arrays referenced by the heap, and the free indexes.
+    private byte[][] mData = new byte[0][];
+    private int[] mFreeData = new int[0];
+    private int mFreeDataCount;
+
+    // Used only by the reading thread, outside of the lock.
+    private int[] mBatchMessages = new int[INITIAL_CAPACITY];
+    private long[] mBatchTimestamps = new long[INITIAL_CAPACITY];
+    private byte[][] mBatchData = new byte[INITIAL_CAPACITY][];
+
+    private MidiReceiver mReceiver = new SchedulingReceiver();
+
+    private class SchedulingReceiver extends MidiReceiver {
+        /**
+         * Store these bytes in the scheduler to be delivered at the specified
+         * time.
+         */
+        @Override
+        public void onSend(byte[] msg, int offset, int count, long timestamp)
+                throws IOException {
+            int status = msg[offset] & 0xFF;
+            if (count <= 3 && status != 0xF0 && status != 0xF7
+                    && MidiConstants.getBytesPerMessage(msg[offset]) == count) {
+                int data1 = count > 1 ? msg[offset + 1] : 0;
+                int data2 = count > 2 ? msg[offset + 2] : 0;
+                add(MidiReceiver.packMessage(status, data1, data2), timestamp);
+            } else {
+                byte[] data = new byte[count];
+                System.arraycopy(msg, offset, data, 0, count);
+                add(data, timestamp);
+            }
+        }
+
+        /**
+         * Store the whole batch at once.
+         */
+        @Override
+        public void onSendBatch(int[] messages, long[] timestamps, int offset, int count)
+                throws IOException {
+            synchronized (lock) {
+                for (int i = offset; i < offset + count; i++) {
+                    addLocked(messages[i] & ~DATA_REFERENCE, timestamps[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * This MidiReceiver will write data to the scheduler.
+     * @return the MidiReceiver
+     */
+    public MidiReceiver getReceiver() {
+        return mReceiver;
+    }
+
+    /**
+     * @return the number of events in the scheduler
+     */
+    public int size() {
+        synchronized (lock) {
+            return mSize;
+        }
+    }
+
+    private void add(int message, long timestamp) {
+        synchronized (lock) {
+            addLocked(message, timestamp);
+        }
+    }
+
+    private void add(byte[] data, long timestamp) {
+        synchronized (lock) {
+            int index;
+            if (mFreeDataCount > 0) {
+                index = mFreeData[--mFreeDataCount];
+            } else {
+                index = mData.length;
+                byte[][] grown = new byte[Math.max(4, index * 2)][];
+                System.arraycopy(mData, 0, grown, 0, index);
+                mData = grown;
+                mFreeData = new int[grown.length];
+                for (int i = grown.length - 1; i > index; i--) {
+                    mFreeData[mFreeDataCount++] = i;
+                }
+            }
+            mData[index] = data;
+            addLocked(index | DATA_REFERENCE, timestamp);
+        }
+    }
+
+    // Caller must synchronize on lock before calling.
+    private void addLocked(int message, long timestamp) {
+        if (mSize == mMessages.length) {
+            grow();
+        }
+        boolean earliest = mSize == 0 || timestamp < mTimestamps[0];
+        siftUp(mSize++, message, timestamp, mNextSequence++);
+        // If the event we added is earlier than the previous earliest
+        // event then notify any threads waiting for the next event.
+        if (earliest) {
+            lock.notify();
+        }
+    }
+
+    private void grow() {
+        int capacity = mMessages.length * 2;
+        int[] messages = new int[capacity];
+        long[] timestamps = new long[capacity];
+        int[] sequences = new int[capacity];
+        System.arraycopy(mMessages, 0, messages, 0, mSize);
+        System.arraycopy(mTimestamps, 0, timestamps, 0, mSize);
+        System.arraycopy(mSequences, 0, sequences, 0, mSize);
+        mMessages = messages;
+        mTimestamps = timestamps;
+        mSequences = sequences;
+    }
+
+    // The sequence numbers may wrap around, so they are compared by their difference.
+    private boolean isBefore(long timestamp, int sequence, int index) {
+        return timestamp < mTimestamps[index]
+                || (timestamp == mTimestamps[index] && sequence - mSequences[index] < 0);
+    }
+
+    private void siftUp(int index, int message, long timestamp, int sequence) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isBefore(timestamp, sequence, parent)) {
+                break;
+            }
+            set(index, parent);
+            index = parent;
+        }
+        mMessages[index] = message;
+        mTimestamps[index] = timestamp;
+        mSequences[index] = sequence;
+    }
+
+    private void siftDown(int index, int message, long timestamp, int sequence) {
+        int half = mSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < mSize && isBefore(mTimestamps[right], mSequences[right], child)) {
+                child = right;
+            }
+            if (isBefore(timestamp, sequence, child)) {
+                break;
+            }
+            set(index, child);
+            index = child;
+        }
+        mMessages[index] = message;
+        mTimestamps[index] = timestamp;
+        mSequences[index] = sequence;
+    }
+
+    private void set(int index, int from) {
+        mMessages[index] = mMessages[from];
+        mTimestamps[index] = mTimestamps[from];
+        mSequences[index] = mSequences[from];
+    }
+
+    // Caller must synchronize on lock before calling.
+    private void removeFirstLocked() {
+        int last = --mSize;
+        if (last > 0) {
+            siftDown(0, mMessages[last], mTimestamps[last], mSequences[last]);
+        }
+    }
+
+    /**
+     * Take the events ready to be processed into the batch buffers.
+     *
+     * @return the number of events taken
+     */
+    private int takeEvents(long time) {
+        synchronized (lock) {
+            int count = 0;
+            while (mSize > 0 && mTimestamps[0] <= time && count < mBatchMessages.length) {
+                int message = mMessages[0];
+                mBatchMessages[count] = message;
+                mBatchTimestamps[count] = mTimestamps[0];
+                if ((message & DATA_REFERENCE) != 0) {
+                    int index = message & ~DATA_REFERENCE;
+                    mBatchData[count] = mData[index];
+                    mData[index] = null;
+                    mFreeData[mFreeDataCount++] = index;
+                }
+                count++;
+                removeFirstLocked();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Send the events ready to be processed to the receiver, in order.
+     * Consecutive short messages are sent with {@link MidiReceiver#sendBatch},
+     * other data with {@link MidiReceiver#send}.
+     *
+     * @param time the current time, based on System.nanoTime()
+     * @param receiver the receiver
+     * @return the number of events sent
+     * @throws IOException
+     */
+    public int processEvents(long time, MidiReceiver receiver) throws IOException {
+        int total = 0;
+        int count = takeEvents(time);
+        while (count > 0) {
+            int batchStart = 0;
+            for (int i = 0; i < count; i++) {
+                if ((mBatchMessages[i] & DATA_REFERENCE) != 0) {
+                    if (i > batchStart) {
+                        receiver.sendBatch(mBatchMessages, mBatchTimestamps, batchStart, i - batchStart);
+                    }
+                    byte[] data = mBatchData[i];
+                    mBatchData[i] = null;
+                    receiver.send(data, 0, data.length, mBatchTimestamps[i]);
+                    batchStart = i + 1;
+                }
+            }
+            if (count > batchStart) {
+                receiver.sendBatch(mBatchMessages, mBatchTimestamps, batchStart, count - batchStart);
+            }
+            total += count;
+            count = takeEvents(time);
+        }
+        return total;
+    }
+
+    /**
+     * Wait until an event is ready to be processed, then send the events
+     * ready to the receiver. This method assumes that the timestamps are in
+     * nanoseconds and that the current time is System.nanoTime().
+     *
+     * @param receiver the receiver
+     * @return the number of events sent
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public int waitAndProcessEvents(MidiReceiver receiver)
+            throws InterruptedException, IOException {
+        synchronized (lock) {
+            while (true) {
+                long millisToWait = Integer.MAX_VALUE;
+                if (mSize > 0) {
+                    long nanosToWait = mTimestamps[0] - System.nanoTime();
+                    if (nanosToWait <= 0) {
+                        break;
+                    }
+                    // Add 1 millisecond so we don't wake up before it is
+                    // ready.
+                    millisToWait = Math.min(1 + (nanosToWait / NANOS_PER_MILLI), Integer.MAX_VALUE);
+                }
+                lock.wait(millisToWait);
+            }
+        }
+        return processEvents(System.nanoTime(), receiver);
+    }
+}
@@ -20,9 +20,9 @@ import android.media.midi.MidiReceiver;
 import android.util.Log;
 
 import com.example.android.common.midi.MidiConstants;
-import com.example.android.common.midi.MidiEventScheduler;
-import com.example.android.common.midi.MidiEventScheduler.MidiEvent;
 import com.example.android.common.midi.MidiFramer;
+import com.example.android.common.midi.MidiParameterAggregator;
+import com.example.android.common.midi.PackedMidiEventScheduler;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -40,6 +40,7 @@ public class SynthEngine extends MidiReceiver {
     public static final int FRAME_RATE = 48000;
     private static final int FRAMES_PER_BUFFER = 240;
     private static final int SAMPLES_PER_FRAME = 2;
+    private static final int RPN_PITCH_BEND_SENSITIVITY = 0;
 
     private boolean go;
     private Thread mThread;
@@ -51,7 +52,7 @@ public class SynthEngine extends MidiReceiver {
     private ArrayList<SynthVoice> mFreeVoices = new ArrayList<SynthVoice>();
     private Hashtable<Integer, SynthVoice>
             mVoices = new Hashtable<Integer, SynthVoice>();
-    private MidiEventScheduler mEventScheduler;
+    private PackedMidiEventScheduler mEventScheduler;
     private MidiFramer mFramer;
     private MidiReceiver mReceiver = new MyReceiver();
     private SimpleAudioOutput mAudioOutput;
@@ -62,7 +63,15 @@ public class SynthEngine extends MidiReceiver {
 
     public SynthEngine(SimpleAudioOutput audioOutput) {
         mReceiver = new MyReceiver();
-        mFramer = new MidiFramer(mReceiver);
+        // RPN and NRPN reach the synthesizer as one change each.
+        mFramer = new MidiFramer(new MidiParameterAggregator(mReceiver,
+                new MidiParameterAggregator.OnParameterChangeListener() {
+                    @Override
+                    public void onParameterChanged(int channel, boolean registered,
+                            int parameter, int value, long timestamp) {
+                        parameterChange(channel, registered, parameter, value);
+                    }
+                }));
         mAudioOutput = audioOutput;
     }
 
@@ -77,30 +86,71 @@ public class SynthEngine extends MidiReceiver {
         }
     }
 
+    @Override
+    public void onSendBatch(int[] messages, long[] timestamps, int offset, int count)
+            throws IOException {
+        if (mEventScheduler != null) {
+            for (int i = offset; i < offset + count; i++) {
+                if ((messages[i] >> 16) == (MidiConstants.STATUS_ACTIVE_SENSING & 0xFF)) {
+                    // filtered one by one
+                    super.onSendBatch(messages, timestamps, offset, count);
+                    return;
+                }
+            }
+            mEventScheduler.getReceiver().sendBatch(messages, timestamps, offset, count);
+        }
+    }
+
     private class MyReceiver extends MidiReceiver {
+        private final byte[] mBatchBuffer = new byte[3];
+
         @Override
         public void onSend(byte[] data, int offset, int count, long timestamp)
                 throws IOException {
-            byte command = (byte) (data[0] & MidiConstants.STATUS_COMMAND_MASK);
-            int channel = (byte) (data[0] & MidiConstants.STATUS_CHANNEL_MASK);
+            byte data1 = data.length > 1 ? data[1] : 0;
+            byte data2 = data.length > 2 ? data[2] : 0;
+            if (!handleMessage(data[0], data1, data2)) {
+                logMidiMessage(data, offset, count);
+            }
+        }
+
+        /**
+         * Handle the packed messages without copying them into byte arrays.
+         */
+        @Override
+        public void onSendBatch(int[] messages, long[] timestamps, int offset, int count)
+                throws IOException {
+            for (int i = offset; i < offset + count; i++) {
+                int message = messages[i];
+                if (!handleMessage((byte) (message >> 16), (byte) (message >> 8), (byte) message)) {
+                    logMidiMessage(mBatchBuffer, 0, unpackMessage(message, mBatchBuffer));
+                }
+            }
+        }
+
+        /**
+         * @return false if the message is not handled by the synthesizer
+         */
+        private boolean handleMessage(byte status, byte data1, byte data2) {
+            byte command = (byte) (status & MidiConstants.STATUS_COMMAND_MASK);
+            int channel = (byte) (status & MidiConstants.STATUS_CHANNEL_MASK);
             switch (command) {
             case MidiConstants.STATUS_NOTE_OFF:
-                noteOff(channel, data[1], data[2]);
-                break;
+                noteOff(channel, data1, data2);
+                return true;
             case MidiConstants.STATUS_NOTE_ON:
-                noteOn(channel, data[1], data[2]);
-                break;
+                noteOn(channel, data1, data2);
+                return true;
             case MidiConstants.STATUS_PITCH_BEND:
-                int bend = (data[2] << 7) + data[1];
+                int bend = (data2 << 7) + data1;
                 pitchBend(channel, bend);
-                break;
+                return true;
             case MidiConstants.STATUS_PROGRAM_CHANGE:
-                mProgram = data[1];
+                mProgram = data1;
                 mFreeVoices.clear();
-                break;
+                return true;
             default:
-                logMidiMessage(data, offset, count);
-                break;
+                return false;
             }
         }
     }
@@ -167,12 +217,8 @@ public class SynthEngine extends MidiReceiver {
      */
     private void processMidiEvents() throws IOException {
         long now = System.nanoTime(); // TODO use audio presentation time
-        MidiEvent event = (MidiEvent) mEventScheduler.getNextEvent(now);
-        while (event != null) {
-            mFramer.send(event.data, 0, event.count, event.getTimestamp());
-            mEventScheduler.addEventToPool(event);
-            event = (MidiEvent) mEventScheduler.getNextEvent(now);
-        }
+        // Short messages arrive packed and bypass the framing.
+        mEventScheduler.processEvents(now, mFramer);
     }
 
     /**
@@ -254,6 +300,21 @@ public class SynthEngine extends MidiReceiver {
         }
     }
 
+    /**
+     * Handle an RPN or NRPN change.
+     *
+     * @param channel
+     * @param registered true for an RPN
+     * @param parameter the 14-bit parameter number
+     * @param value the 14-bit value
+     */
+    public void parameterChange(int channel, boolean registered, int parameter, int value) {
+        if (registered && parameter == RPN_PITCH_BEND_SENSITIVITY) {
+            // semitones in the MSB, cents in the LSB
+            mBendRange = (value >> 7) + (value & 0x7F) / 100.0f;
+        }
+    }
+
     /**
      * Start the synthesizer.
      */
@@ -261,7 +322,7 @@ public class SynthEngine extends MidiReceiver {
         stop();
         go = true;
         mThread = new Thread(new MyRunnable());
-        mEventScheduler = new MidiEventScheduler();
+        mEventScheduler = new PackedMidiEventScheduler();
         mThread.start();
     }
 
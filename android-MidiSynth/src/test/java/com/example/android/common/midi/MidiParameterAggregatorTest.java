@@ -0,0 +1,159 @@
+package com.example.android.common.midi;
+
+import android.media.midi.MidiReceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class MidiParameterAggregatorTest {
+    private static final long TIMESTAMP = 12345L;
+
+    // The parameter changes and the messages passed on, in order.
+    private final List<String> mEvents = new ArrayList<String>();
+    private MidiParameterAggregator mAggregator;
+
+    @Before
+    public void setUp() {
+        MidiReceiver receiver = new MidiReceiver() {
+            @Override
+            public void onSend(byte[] data, int offset, int count, long timestamp) {
+                StringBuilder builder = new StringBuilder("send");
+                for (int i = offset; i < offset + count; i++) {
+                    builder.append(String.format(" %02X", data[i] & 0xFF));
+                }
+                mEvents.add(builder.toString());
+            }
+        };
+        mAggregator = new MidiParameterAggregator(receiver,
+                new MidiParameterAggregator.OnParameterChangeListener() {
+                    @Override
+                    public void onParameterChanged(int channel, boolean registered,
+                            int parameter, int value, long timestamp) {
+                        mEvents.add(String.format("%s ch%d %04X=%04X",
+                                registered ? "RPN" : "NRPN", channel, parameter, value));
+                    }
+                });
+    }
+
+    private void send(int... values) throws IOException {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        mAggregator.send(data, 0, data.length, TIMESTAMP);
+    }
+
+    private void sendBatch(int... controlChanges) throws IOException {
+        int count = controlChanges.length / 3;
+        int[] messages = new int[count];
+        long[] timestamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            messages[i] = MidiReceiver.packMessage(controlChanges[i * 3],
+                    controlChanges[i * 3 + 1], controlChanges[i * 3 + 2]);
+            timestamps[i] = TIMESTAMP;
+        }
+        mAggregator.sendBatch(messages, timestamps, 0, count);
+    }
+
+    private void assertEvents(String... expected) {
+        assertArrayEquals(expected, mEvents.toArray(new String[mEvents.size()]));
+    }
+
+    @Test
+    public void dataEntryMsbAndLsb() throws IOException {
+        send(0xB0, 101, 0);
+        send(0xB0, 100, 0);
+        send(0xB0, 6, 12);
+        send(0xB0, 38, 5);
+        assertEvents("RPN ch0 0000=0600", "RPN ch0 0000=0605");
+    }
+
+    @Test
+    public void nrpn() throws IOException {
+        send(0xB3, 99, 1);
+        send(0xB3, 98, 8);
+        send(0xB3, 6, 64);
+        assertEvents("NRPN ch3 0088=2000");
+    }
+
+    @Test
+    public void dataIncrementAndDecrement() throws IOException {
+        send(0xB0, 101, 0);
+        send(0xB0, 100, 1);
+        send(0xB0, 6, 64);
+        send(0xB0, 96, 0);
+        send(0xB0, 96, 0);
+        send(0xB0, 97, 0);
+        assertEvents("RPN ch0 0001=2000", "RPN ch0 0001=2001",
+                "RPN ch0 0001=2002", "RPN ch0 0001=2001");
+    }
+
+    @Test
+    public void dataDecrementStopsAtZero() throws IOException {
+        send(0xB0, 101, 0);
+        send(0xB0, 100, 2);
+        send(0xB0, 97, 0);
+        assertEvents("RPN ch0 0002=0000");
+    }
+
+    @Test
+    public void rpnNullIgnoresDataEntry() throws IOException {
+        send(0xB0, 101, 0);
+        send(0xB0, 100, 0);
+        send(0xB0, 6, 2);
+        send(0xB0, 101, 0x7F);
+        send(0xB0, 100, 0x7F);
+        send(0xB0, 6, 12);
+        send(0xB0, 96, 0);
+        assertEvents("RPN ch0 0000=0100");
+    }
+
+    @Test
+    public void dataEntryWithoutParameterIsPassedOn() throws IOException {
+        send(0xB0, 6, 12);
+        assertEvents("send B0 06 0C");
+    }
+
+    @Test
+    public void otherMessagesArePassedOn() throws IOException {
+        send(0x90, 0x3C, 0x40);
+        send(0xB0, 7, 100);
+        assertEvents("send 90 3C 40", "send B0 07 64");
+    }
+
+    @Test
+    public void batchCoalescesSweep() throws IOException {
+        sendBatch(0xB0, 101, 0,
+                0xB0, 100, 0,
+                0xB0, 6, 1,
+                0xB0, 6, 2,
+                0xB0, 6, 3);
+        assertEvents("RPN ch0 0000=0180");
+    }
+
+    @Test
+    public void pendingChangeIsReportedBeforeMessageOfSameChannel() throws IOException {
+        sendBatch(0xB0, 101, 0,
+                0xB0, 100, 0,
+                0xB0, 6, 2,
+                0x91, 0x3C, 0x40,
+                0x90, 0x3C, 0x40,
+                0xB0, 6, 3);
+        assertEvents("send 91 3C 40", "RPN ch0 0000=0100", "send 90 3C 40", "RPN ch0 0000=0180");
+    }
+
+    @Test
+    public void flushForgetsParameter() throws IOException {
+        send(0xB0, 101, 0);
+        send(0xB0, 100, 0);
+        mAggregator.flush();
+        send(0xB0, 6, 12);
+        assertEvents("send B0 06 0C");
+    }
+}
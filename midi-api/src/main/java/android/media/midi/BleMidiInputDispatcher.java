@@ -0,0 +1,133 @@
+package android.media.midi;
+
+import jp.kshoji.blemidi.device.MidiInputDevice;
+
+/**
+ * Receives the MIDI events of a BLE MIDI device, and passes them to the receivers.
+ * A BLE MIDI device has one cable.
+ * The BLE MIDI driver doesn't expose the packet timestamp to the listener, so messages carry the callback time.
+ */
+/* package */ final class BleMidiInputDispatcher extends MidiInputDispatcher {
+    private final MidiInputDevice bleMidiInputDevice;
+
+    /**
+     * @param bleMidiInputDevice the device
+     */
+    BleMidiInputDispatcher(final MidiInputDevice bleMidiInputDevice) {
+        super(1);
+        this.bleMidiInputDevice = bleMidiInputDevice;
+    }
+
+    @Override
+    void attach() {
+        bleMidiInputDevice.setOnMidiInputEventListener(bleMidiInputEventListener);
+    }
+
+    @Override
+    void detach() {
+        bleMidiInputDevice.setOnMidiInputEventListener(null);
+    }
+
+    private final jp.kshoji.blemidi.listener.OnMidiInputEventListener bleMidiInputEventListener = new jp.kshoji.blemidi.listener.OnMidiInputEventListener() {
+
+        @Override
+        public void onMidiSystemExclusive(final MidiInputDevice midiInputDevice, final byte[] bytes) {
+            sendMidiMessage(0, bytes);
+        }
+
+        @Override
+        public void onMidiNoteOff(final MidiInputDevice midiInputDevice, final int channel, final int note, final int velocity) {
+            sendMidiMessage(0, channel | 0x80, note, velocity);
+        }
+
+        @Override
+        public void onMidiNoteOn(final MidiInputDevice midiInputDevice, final int channel, final int note, final int velocity) {
+            sendMidiMessage(0, channel | 0x90, note, velocity);
+        }
+
+        @Override
+        public void onMidiPolyphonicAftertouch(final MidiInputDevice midiInputDevice, final int channel, final int note, final int pressure) {
+            sendMidiMessage(0, channel | 0xa0, note, pressure);
+        }
+
+        @Override
+        public void onMidiControlChange(final MidiInputDevice midiInputDevice, final int channel, final int function, final int value) {
+            sendMidiMessage(0, channel | 0xb0, function, value);
+        }
+
+        @Override
+        public void onMidiProgramChange(final MidiInputDevice midiInputDevice, final int channel, final int program) {
+            sendMidiMessage(0, channel | 0xc0, program);
+        }
+
+        @Override
+        public void onMidiChannelAftertouch(final MidiInputDevice midiInputDevice, final int channel, final int pressure) {
+            sendMidiMessage(0, channel | 0xd0, pressure);
+        }
+
+        @Override
+        public void onMidiPitchWheel(final MidiInputDevice midiInputDevice, final int channel, final int amount) {
+            sendMidiMessage(0, channel | 0xe0, amount & 0x7f, amount >> 7);
+        }
+
+        @Override
+        public void onMidiTimeCodeQuarterFrame(final MidiInputDevice midiInputDevice, final int timing) {
+            sendMidiMessage(0, 0xf1, timing);
+        }
+
+        @Override
+        public void onMidiSongSelect(final MidiInputDevice midiInputDevice, final int song) {
+            sendMidiMessage(0, 0xf3, song);
+        }
+
+        @Override
+        public void onMidiSongPositionPointer(final MidiInputDevice midiInputDevice, final int position) {
+            sendMidiMessage(0, 0xf2, position & 0x7f, position >> 7);
+        }
+
+        @Override
+        public void onMidiTuneRequest(final MidiInputDevice midiInputDevice) {
+            sendMidiMessage(0, 0xf6);
+        }
+
+        @Override
+        public void onMidiTimingClock(final MidiInputDevice midiInputDevice) {
+            sendMidiMessage(0, 0xf8);
+        }
+
+        @Override
+        public void onMidiStart(final MidiInputDevice midiInputDevice) {
+            sendMidiMessage(0, 0xfa);
+        }
+
+        @Override
+        public void onMidiContinue(final MidiInputDevice midiInputDevice) {
+            sendMidiMessage(0, 0xfb);
+        }
+
+        @Override
+        public void onMidiStop(final MidiInputDevice midiInputDevice) {
+            sendMidiMessage(0, 0xfc);
+        }
+
+        @Override
+        public void onMidiActiveSensing(final MidiInputDevice midiInputDevice) {
+            sendMidiMessage(0, 0xfe);
+        }
+
+        @Override
+        public void onMidiReset(final MidiInputDevice midiInputDevice) {
+            sendMidiMessage(0, 0xff);
+        }
+
+        @Override
+        public void onRPNMessage(final MidiInputDevice midiInputDevice, final int i, final int i1, final int i2) {
+            // ignore this method
+        }
+
+        @Override
+        public void onNRPNMessage(final MidiInputDevice midiInputDevice, final int i, final int i1, final int i2) {
+            // ignore this method
+        }
+    };
+}
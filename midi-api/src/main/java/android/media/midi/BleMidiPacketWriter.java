@@ -0,0 +1,115 @@
+package android.media.midi;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import jp.kshoji.blemidi.device.MidiOutputDevice;
+
+/**
+ * Writes MIDI messages to a BLE MIDI device as BLE-MIDI packets.
+ *
+ * A packet starts with a header byte holding the upper 6 bits of the 13-bit millisecond timestamp,
+ * and each message is preceded by a timestamp byte holding the lower 7 bits.
+ * Consecutive channel messages with the same status use Running Status, so they cost only the timestamp byte and the data bytes.
+ *
+ * Each message is written in its own packet, unless coalescing is enabled:
+ * then the messages are held for up to one connection interval ({@link #MAX_DELAY_NANOS}), or until the packet is full,
+ * so a packet carries several messages instead of one. Coalescing delays a message by up to that interval,
+ * so it is disabled by default.
+ */
+/* package */ final class BleMidiPacketWriter extends MidiCoalescingPacketWriter {
+    /** The shortest connection interval allowed by Bluetooth LE */
+    static final long MAX_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(7500);
+    // default ATT MTU(23) - ATT header(3)
+    private static final int MAX_PACKET_SIZE = 20;
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final MidiOutputDevice bleMidiOutputDevice;
+
+    private final byte[] packet = new byte[MAX_PACKET_SIZE];
+    private int packetLength;
+    private long lastMillis;
+    private int runningStatus;
+
+    /**
+     * @param bleMidiOutputDevice the device
+     * @param threadName the name of the thread which writes the held packets at the deadline
+     */
+    BleMidiPacketWriter(final MidiOutputDevice bleMidiOutputDevice, final String threadName) {
+        super(threadName, MAX_DELAY_NANOS);
+        this.bleMidiOutputDevice = bleMidiOutputDevice;
+    }
+
+    @Override
+    boolean appendLocked(final byte[] message, final int count, final long timestamp) {
+        final int status = message[0] & 0xff;
+        switch (status) {
+            case 0xf4: // (Undefined MIDI System Common)
+            case 0xf5: // (Undefined MIDI System Common / Bus Select?)
+            case 0xf9: // (Undefined MIDI System Real-time)
+            case 0xfd: // (Undefined MIDI System Real-time)
+                // ignored
+                return true;
+            default:
+                break;
+        }
+
+        long millis = (timestamp == 0 ? System.nanoTime() : timestamp) / NANOS_PER_MILLI;
+        if (packetLength > 0) {
+            if (millis < lastMillis) {
+                // timestamps within a packet must not go backwards
+                millis = lastMillis;
+            } else if (millis - lastMillis >= 0x80) {
+                // the lower 7 bits can't express the gap
+                return false;
+            }
+        }
+
+        final boolean useRunningStatus = packetLength > 0 && status < 0xf0 && status == runningStatus;
+        final int length = 1 + (useRunningStatus ? count - 1 : count);
+        if ((packetLength == 0 ? 1 : packetLength) + length > packet.length) {
+            return false;
+        }
+
+        if (packetLength == 0) {
+            packet[packetLength++] = (byte) (0x80 | (millis >> 7) & 0x3f);
+        }
+        packet[packetLength++] = (byte) (0x80 | millis & 0x7f);
+        if (!useRunningStatus) {
+            packet[packetLength++] = message[0];
+        }
+        for (int i = 1; i < count; i++) {
+            packet[packetLength++] = (byte) (message[i] & 0x7f);
+        }
+
+        // System messages cancel Running Status
+        runningStatus = status < 0xf0 ? status : 0;
+        lastMillis = millis;
+        return true;
+    }
+
+    @Override
+    boolean isFullLocked() {
+        // the shortest message takes a timestamp byte and a byte
+        return packetLength + 2 > packet.length;
+    }
+
+    @Override
+    boolean hasPendingPacketsLocked() {
+        return packetLength > 0;
+    }
+
+    @Override
+    void writePendingPacketsLocked() {
+        if (packetLength > 0) {
+            bleMidiOutputDevice.transferData(Arrays.copyOf(packet, packetLength));
+        }
+        packetLength = 0;
+        runningStatus = 0;
+    }
+
+    @Override
+    void writeSystemExclusiveLocked(final byte[] systemExclusive) {
+        bleMidiOutputDevice.sendMidiSystemExclusive(systemExclusive);
+    }
+}
@@ -0,0 +1,174 @@
+package android.media.midi;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.kshoji.blemidi.device.MidiInputDevice;
+import jp.kshoji.blemidi.device.MidiOutputDevice;
+import jp.kshoji.blemidi.listener.OnMidiDeviceAttachedListener;
+import jp.kshoji.blemidi.listener.OnMidiDeviceDetachedListener;
+import jp.kshoji.blemidi.service.BleMidiCentralService;
+import jp.kshoji.blemidi.service.BleMidiPeripheralService;
+import jp.kshoji.blemidi.util.BleUtils;
+
+/**
+ * The BLE MIDI devices, reported by the {@link BleMidiCentralService} or the {@link BleMidiPeripheralService} of the BLE MIDI driver
+ */
+/* package */ final class BleMidiTransport extends MidiTransport {
+    private final Context context;
+    private final boolean peripheral;
+    // the devices reported, by driver object
+    private final Map<Object, BleMidiTransportDevice> devices = new HashMap<Object, BleMidiTransportDevice>();
+    private Listener listener;
+    private BleMidiCentralService bleMidiCentralService;
+    private BleMidiPeripheralService bleMidiPeripheralService;
+
+    /**
+     * @param context the context binding the service
+     * @param peripheral true to advertise this device as a BLE MIDI peripheral, false to connect to the peripherals
+     */
+    BleMidiTransport(final Context context, final boolean peripheral) {
+        this.context = context;
+        this.peripheral = peripheral;
+    }
+
+    @Override
+    int getTransport() {
+        return peripheral ? MidiManager.TRANSPORT_BLE_PERIPHERAL : MidiManager.TRANSPORT_BLE_CENTRAL;
+    }
+
+    @Override
+    boolean isAvailable() {
+        if (!BleUtils.isBleSupported(context) || !BleUtils.isBluetoothEnabled(context)) {
+            return false;
+        }
+        return !peripheral || BleUtils.isBlePeripheralSupported(context);
+    }
+
+    @Override
+    synchronized void start(final Listener listener) {
+        this.listener = listener;
+        final Intent intent = new Intent(context, peripheral ? BleMidiPeripheralService.class : BleMidiCentralService.class);
+        context.startService(intent);
+        context.bindService(intent, serviceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    /**
+     * Stops the service, and reports all the devices as detached
+     */
+    @Override
+    void stop() {
+        final List<BleMidiTransportDevice> detachedDevices;
+        final Listener currentListener;
+        synchronized (this) {
+            if (bleMidiCentralService != null) {
+                bleMidiCentralService.setOnMidiDeviceAttachedListener(null);
+                bleMidiCentralService.setOnMidiDeviceDetachedListener(null);
+                bleMidiCentralService = null;
+            }
+            if (bleMidiPeripheralService != null) {
+                bleMidiPeripheralService.setOnMidiDeviceAttachedListener(null);
+                bleMidiPeripheralService.setOnMidiDeviceDetachedListener(null);
+                bleMidiPeripheralService = null;
+            }
+            context.unbindService(serviceConnection);
+            context.stopService(new Intent(context, peripheral ? BleMidiPeripheralService.class : BleMidiCentralService.class));
+
+            detachedDevices = new ArrayList<BleMidiTransportDevice>(devices.values());
+            devices.clear();
+            currentListener = listener;
+            listener = null;
+        }
+
+        if (currentListener != null) {
+            for (final BleMidiTransportDevice device : detachedDevices) {
+                currentListener.onDeviceDetached(device);
+            }
+        }
+    }
+
+    private void attached(final Object driver, final BleMidiTransportDevice device) {
+        final Listener currentListener;
+        synchronized (this) {
+            if (listener == null) {
+                // stopped
+                return;
+            }
+            devices.put(driver, device);
+            currentListener = listener;
+        }
+        currentListener.onDeviceAttached(device);
+    }
+
+    private void detached(final Object driver) {
+        final BleMidiTransportDevice device;
+        final Listener currentListener;
+        synchronized (this) {
+            device = devices.remove(driver);
+            currentListener = listener;
+        }
+        if (device != null && currentListener != null) {
+            currentListener.onDeviceDetached(device);
+        }
+    }
+
+    private final OnMidiDeviceAttachedListener bleMidiDeviceAttachedListener = new OnMidiDeviceAttachedListener() {
+        @Override
+        public synchronized void onMidiInputDeviceAttached(final MidiInputDevice midiInputDevice) {
+            attached(midiInputDevice, new BleMidiTransportDevice(midiInputDevice));
+        }
+
+        @Override
+        public synchronized void onMidiOutputDeviceAttached(final MidiOutputDevice midiOutputDevice) {
+            attached(midiOutputDevice, new BleMidiTransportDevice(midiOutputDevice));
+        }
+    };
+
+    private final OnMidiDeviceDetachedListener bleMidiDeviceDetachedListener = new OnMidiDeviceDetachedListener() {
+        @Override
+        public synchronized void onMidiInputDeviceDetached(final MidiInputDevice midiInputDevice) {
+            detached(midiInputDevice);
+        }
+
+        @Override
+        public synchronized void onMidiOutputDeviceDetached(final MidiOutputDevice midiOutputDevice) {
+            detached(midiOutputDevice);
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(final ComponentName name, final IBinder service) {
+            final Listener currentListener;
+            synchronized (BleMidiTransport.this) {
+                if (peripheral) {
+                    bleMidiPeripheralService = ((BleMidiPeripheralService.LocalBinder)service).getService();
+                    bleMidiPeripheralService.setOnMidiDeviceAttachedListener(bleMidiDeviceAttachedListener);
+                    bleMidiPeripheralService.setOnMidiDeviceDetachedListener(bleMidiDeviceDetachedListener);
+                } else {
+                    bleMidiCentralService = ((BleMidiCentralService.LocalBinder)service).getService();
+                    bleMidiCentralService.setOnMidiDeviceAttachedListener(bleMidiDeviceAttachedListener);
+                    bleMidiCentralService.setOnMidiDeviceDetachedListener(bleMidiDeviceDetachedListener);
+                }
+                currentListener = listener;
+            }
+            currentListener.onTransportStarted(BleMidiTransport.this);
+        }
+
+        @Override
+        public void onServiceDisconnected(final ComponentName name) {
+            synchronized (BleMidiTransport.this) {
+                bleMidiCentralService = null;
+                bleMidiPeripheralService = null;
+            }
+        }
+    };
+}
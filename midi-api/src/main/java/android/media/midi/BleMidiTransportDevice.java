@@ -0,0 +1,59 @@
+package android.media.midi;
+
+import jp.kshoji.blemidi.device.MidiInputDevice;
+import jp.kshoji.blemidi.device.MidiOutputDevice;
+
+/**
+ * A BLE MIDI device, which has one port.
+ * The BLE MIDI driver reports the input and the output of a device as separate devices with the same address.
+ */
+/* package */ final class BleMidiTransportDevice extends MidiTransportDevice {
+    private final MidiInputDevice bleMidiInputDevice;
+    private final MidiOutputDevice bleMidiOutputDevice;
+
+    /**
+     * @param bleMidiInputDevice the device sending the data, which comes out of the output port
+     */
+    BleMidiTransportDevice(final MidiInputDevice bleMidiInputDevice) {
+        this.bleMidiInputDevice = bleMidiInputDevice;
+        this.bleMidiOutputDevice = null;
+    }
+
+    /**
+     * @param bleMidiOutputDevice the device receiving the data, which goes into the input port
+     */
+    BleMidiTransportDevice(final MidiOutputDevice bleMidiOutputDevice) {
+        this.bleMidiInputDevice = null;
+        this.bleMidiOutputDevice = bleMidiOutputDevice;
+    }
+
+    @Override
+    int getType() {
+        return MidiDeviceInfo.TYPE_BLUETOOTH;
+    }
+
+    @Override
+    String getAddress() {
+        return bleMidiInputDevice != null ? bleMidiInputDevice.getDeviceAddress() : bleMidiOutputDevice.getDeviceAddress();
+    }
+
+    @Override
+    int getInputPortCount() {
+        return bleMidiOutputDevice != null ? 1 : 0;
+    }
+
+    @Override
+    int getOutputPortCount() {
+        return bleMidiInputDevice != null ? 1 : 0;
+    }
+
+    @Override
+    MidiInputDispatcher createInputDispatcher(final int outputPortCount) {
+        return bleMidiInputDevice != null ? new BleMidiInputDispatcher(bleMidiInputDevice) : null;
+    }
+
+    @Override
+    MidiPacketWriter createPacketWriter(final int portNumber, final String threadName) {
+        return bleMidiOutputDevice != null ? new BleMidiPacketWriter(bleMidiOutputDevice, threadName) : null;
+    }
+}
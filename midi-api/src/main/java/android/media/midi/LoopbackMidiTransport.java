@@ -0,0 +1,67 @@
+package android.media.midi;
+
+/**
+ * A transport of in-memory {@link LoopbackMidiTransportDevice}s, attached when the transport is started, and detached when it is stopped.
+ * It needs no driver, so it runs anywhere, and is meant for load tests and benchmarks.
+ */
+/* package */ final class LoopbackMidiTransport extends MidiTransport {
+    private final LoopbackMidiTransportDevice[] devices;
+    // not null while started
+    private Listener listener;
+
+    /**
+     * @param deviceCount the number of devices
+     * @param portCount the number of input ports, and of output ports, of each device
+     */
+    LoopbackMidiTransport(final int deviceCount, final int portCount) {
+        devices = new LoopbackMidiTransportDevice[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            devices[i] = new LoopbackMidiTransportDevice("loopback " + i, portCount);
+        }
+    }
+
+    @Override
+    int getTransport() {
+        return MidiManager.TRANSPORT_VIRTUAL;
+    }
+
+    @Override
+    void start(final Listener listener) {
+        final boolean attach;
+        synchronized (this) {
+            attach = this.listener == null;
+            this.listener = listener;
+        }
+
+        if (attach) {
+            for (final LoopbackMidiTransportDevice device : devices) {
+                listener.onDeviceAttached(device);
+            }
+        }
+        listener.onTransportStarted(this);
+    }
+
+    @Override
+    void stop() {
+        final Listener currentListener;
+        synchronized (this) {
+            currentListener = listener;
+            listener = null;
+        }
+
+        if (currentListener != null) {
+            for (final LoopbackMidiTransportDevice device : devices) {
+                currentListener.onDeviceDetached(device);
+            }
+        }
+    }
+
+    /**
+     * Returns the devices of the transport
+     *
+     * @return the devices
+     */
+    LoopbackMidiTransportDevice[] getDevices() {
+        return devices.clone();
+    }
+}
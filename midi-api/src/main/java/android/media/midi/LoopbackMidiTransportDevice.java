@@ -0,0 +1,96 @@
+package android.media.midi;
+
+import java.io.IOException;
+
+/**
+ * An in-memory device, whose input port of each number is looped back to the output port of the same number.
+ * It stands in for the hardware, so the ports can be load-tested and benchmarked on a plain JVM.
+ * The data is passed as sent, with its timestamp; it isn't copied, nor parsed.
+ */
+/* package */ final class LoopbackMidiTransportDevice extends MidiTransportDevice {
+    private final String address;
+    private final int portCount;
+    private final MidiReceiver[] inputPortReceivers;
+    private volatile MidiInputDispatcher inputDispatcher;
+
+    /**
+     * @param address the address of the device
+     * @param portCount the number of input ports, and of output ports
+     */
+    LoopbackMidiTransportDevice(final String address, final int portCount) {
+        this.address = address;
+        this.portCount = portCount;
+        inputPortReceivers = new MidiReceiver[portCount];
+        for (int portNumber = 0; portNumber < portCount; portNumber++) {
+            inputPortReceivers[portNumber] = new LoopbackReceiver(portNumber);
+        }
+    }
+
+    @Override
+    int getType() {
+        return MidiDeviceInfo.TYPE_VIRTUAL;
+    }
+
+    @Override
+    String getAddress() {
+        return address;
+    }
+
+    @Override
+    int getInputPortCount() {
+        return portCount;
+    }
+
+    @Override
+    int getOutputPortCount() {
+        return portCount;
+    }
+
+    @Override
+    MidiInputDispatcher createInputDispatcher(final int outputPortCount) {
+        final MidiInputDispatcher dispatcher = new MidiInputDispatcher(outputPortCount) {
+            @Override
+            void attach() {
+                // the receivers are looked up for each message
+            }
+
+            @Override
+            void detach() {
+                // do nothing
+            }
+        };
+        inputDispatcher = dispatcher;
+        return dispatcher;
+    }
+
+    @Override
+    boolean hasInputPortReceivers() {
+        return true;
+    }
+
+    @Override
+    MidiReceiver getInputPortReceiver(final int portNumber) {
+        return portNumber >= 0 && portNumber < portCount ? inputPortReceivers[portNumber] : null;
+    }
+
+    @Override
+    void close() {
+        inputDispatcher = null;
+    }
+
+    private final class LoopbackReceiver extends MidiReceiver {
+        private final int portNumber;
+
+        LoopbackReceiver(final int portNumber) {
+            this.portNumber = portNumber;
+        }
+
+        @Override
+        public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+            final MidiInputDispatcher dispatcher = inputDispatcher;
+            if (dispatcher != null) {
+                dispatcher.sendMidiMessage(portNumber, msg, offset, count, timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package android.media.midi;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Packs MIDI messages into the transport packets of a device.
+ *
+ * Coalescing is disabled initially, so every message is written as soon as it arrives.
+ * With coalescing enabled the messages are held until the packet is full,
+ * until the max delay has elapsed since the first held message, or until {@link #sendPendingPackets} is called.
+ * The held packets are written by a thread, which is started when the first message is held.
+ */
+/* package */ abstract class MidiCoalescingPacketWriter extends MidiPacketWriter {
+    private final String threadName;
+    private final long maxDelayNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition packetsPending = lock.newCondition();
+    private long deadline;
+    private boolean coalescingEnabled;
+    private Thread flushThread;
+    private boolean closed;
+
+    /**
+     * @param threadName the name of the thread which writes the held packets at the deadline
+     * @param maxDelayNanos how long a message may be held
+     */
+    MidiCoalescingPacketWriter(final String threadName, final long maxDelayNanos) {
+        this.threadName = threadName;
+        this.maxDelayNanos = maxDelayNanos;
+    }
+
+    /**
+     * Appends the message to the pending packets. Called with the lock held.
+     *
+     * @param message the message
+     * @param count the length of the message, 1 to 3
+     * @param timestamp the timestamp of the message, 0 if none
+     * @return false if the message doesn't fit the pending packets
+     */
+    abstract boolean appendLocked(byte[] message, int count, long timestamp);
+
+    /**
+     * Called with the lock held.
+     *
+     * @return true if no more message can be appended
+     */
+    abstract boolean isFullLocked();
+
+    /**
+     * Called with the lock held.
+     *
+     * @return true if some messages are held
+     */
+    abstract boolean hasPendingPacketsLocked();
+
+    /**
+     * Writes the pending packets to the device, and empties them. Called with the lock held.
+     */
+    abstract void writePendingPacketsLocked();
+
+    /**
+     * Writes a System Exclusive message to the device. Called with the lock held, after the pending packets were written.
+     *
+     * @param systemExclusive the message, from 0xf0 to 0xf7
+     */
+    abstract void writeSystemExclusiveLocked(byte[] systemExclusive);
+
+    /**
+     * Enables or disables coalescing. The held packets are written when disabled.
+     *
+     * @param enabled true to hold the packets
+     */
+    @Override
+    final void setCoalescingEnabled(final boolean enabled) {
+        lock.lock();
+        try {
+            coalescingEnabled = enabled;
+            if (!enabled) {
+                writePendingPacketsLocked();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a channel, system common or system real-time message
+     *
+     * @param message the message
+     * @param count the length of the message, 1 to 3
+     * @param timestamp the timestamp of the message, 0 if none
+     */
+    @Override
+    final void write(final byte[] message, final int count, final long timestamp) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            boolean wasEmpty = !hasPendingPacketsLocked();
+            if (!appendLocked(message, count, timestamp)) {
+                writePendingPacketsLocked();
+                wasEmpty = true;
+                if (!appendLocked(message, count, timestamp)) {
+                    return;
+                }
+            }
+
+            if (!coalescingEnabled || isFullLocked()) {
+                writePendingPacketsLocked();
+            } else if (wasEmpty) {
+                deadline = System.nanoTime() + maxDelayNanos;
+                if (flushThread == null) {
+                    flushThread = new FlushThread();
+                    flushThread.start();
+                } else {
+                    packetsPending.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a System Exclusive message, after the held packets
+     *
+     * @param systemExclusive the message, from 0xf0 to 0xf7
+     */
+    @Override
+    final void writeSystemExclusive(final byte[] systemExclusive) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            writePendingPacketsLocked();
+            writeSystemExclusiveLocked(systemExclusive);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the held packets now
+     */
+    @Override
+    final void sendPendingPackets() {
+        lock.lock();
+        try {
+            writePendingPacketsLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the held packets, and stops the thread
+     */
+    @Override
+    final void close() {
+        final Thread thread;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writePendingPacketsLocked();
+            thread = flushThread;
+            flushThread = null;
+        } finally {
+            lock.unlock();
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+
+    private final class FlushThread extends Thread {
+        FlushThread() {
+            super(threadName);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            lock.lock();
+            try {
+                while (!closed) {
+                    if (!hasPendingPacketsLocked()) {
+                        packetsPending.await();
+                        continue;
+                    }
+
+                    final long nanosToWait = deadline - System.nanoTime();
+                    if (nanosToWait > 0) {
+                        packetsPending.awaitNanos(nanosToWait);
+                        continue;
+                    }
+                    writePendingPacketsLocked();
+                }
+            } catch (final InterruptedException ignored) {
+                // closed
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -2,25 +2,30 @@ package android.media.midi;
 
 import android.annotation.SuppressLint;
 
+import android.util.Log;
+
 import java.io.Closeable;
 import java.io.IOException;
-
-import jp.kshoji.driver.midi.device.MidiInputDevice;
-import jp.kshoji.driver.midi.device.MidiOutputDevice;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class is used for sending and receiving data to and from a MIDI device
  * Instances of this class are created by {@link MidiManager#openDevice}.
+ *
+ * All the instances opened for the same device share its driver resources:
+ * the output ports share one listener on the driver, and the input ports of the same port number share one writer.
+ * Closing the device closes all the ports opened through it.
+ * A device, port or connection which becomes unreachable without being closed is closed with a warning.
  */
 public final class MidiDevice implements Closeable {
     private static final String TAG = "MidiDevice";
 
     private final MidiDeviceInfo mDeviceInfo;
-
-    private final MidiInputDevice usbMidiInputDevice;
-    private final MidiOutputDevice usbMidiOutputDevice;
-    private final jp.kshoji.blemidi.device.MidiInputDevice bleMidiInputDevice;
-    private final jp.kshoji.blemidi.device.MidiOutputDevice bleMidiOutputDevice;
+    private final SharedMidiDevice sharedDevice;
+    // the cleanables of the ports opened through this device, not the ports themselves
+    private final List<MidiLeakTracker.Cleanable> portCleanables = new ArrayList<MidiLeakTracker.Cleanable>();
+    private final MidiLeakTracker.Cleanable cleanable;
 
     /**
      * This class represents a connection between the output port of one device
@@ -31,65 +36,83 @@ public final class MidiDevice implements Closeable {
         private final MidiInputPort midiInputPort;
         private final MidiOutputPort midiOutputPort;
 
+        private final MidiLeakTracker.Cleanable cleanable;
+
         MidiConnection(final MidiOutputPort outputPortToken, final MidiInputPort inputPort) {
             midiInputPort = inputPort;
             midiOutputPort = outputPortToken;
+            cleanable = MidiLeakTracker.track(this, "MidiConnection", new ConnectionCleanup(outputPortToken, inputPort));
         }
 
+        /**
+         * Closes the connection, and both of its ports. Closing twice has no effect.
+         */
         @SuppressLint("NewApi")
         @Override
         public void close() throws IOException {
-            // close input port
-            midiInputPort.close();
-            // close output port
-            midiOutputPort.close();
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * Closes the ports of a connection
+     */
+    private static final class ConnectionCleanup implements Runnable {
+        private final MidiOutputPort midiOutputPort;
+        private final MidiInputPort midiInputPort;
+
+        ConnectionCleanup(final MidiOutputPort midiOutputPort, final MidiInputPort midiInputPort) {
+            this.midiOutputPort = midiOutputPort;
+            this.midiInputPort = midiInputPort;
         }
 
         @SuppressLint("NewApi")
         @Override
-        protected void finalize() throws Throwable {
+        public void run() {
             try {
-                close();
-            } finally {
-                super.finalize();
+                // close input port
+                midiInputPort.close();
+            } catch (final IOException e) {
+                Log.w(TAG, "failed to close the input port", e);
+            }
+            if (midiOutputPort != null) {
+                try {
+                    // close output port
+                    midiOutputPort.close();
+                } catch (final IOException e) {
+                    Log.w(TAG, "failed to close the output port", e);
+                }
             }
         }
     }
 
-    /* package */ MidiDevice(final MidiDeviceInfo deviceInfo, final MidiInputDevice midiInputDevice) {
-        mDeviceInfo = deviceInfo;
-
-        usbMidiInputDevice = midiInputDevice;
-        usbMidiOutputDevice = null;
-        bleMidiInputDevice = null;
-        bleMidiOutputDevice = null;
-    }
-
-    /* package */ MidiDevice(final MidiDeviceInfo deviceInfo, final MidiOutputDevice midiOutputDevice) {
-            mDeviceInfo = deviceInfo;
-
-        usbMidiInputDevice = null;
-        usbMidiOutputDevice = midiOutputDevice;
-        bleMidiInputDevice = null;
-        bleMidiOutputDevice = null;
-    }
+    /**
+     * Closes the ports opened through a device
+     */
+    private static final class DeviceCleanup implements Runnable {
+        private final List<MidiLeakTracker.Cleanable> portCleanables;
 
-    /* package */ MidiDevice(final MidiDeviceInfo deviceInfo, final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-        mDeviceInfo = deviceInfo;
+        DeviceCleanup(final List<MidiLeakTracker.Cleanable> portCleanables) {
+            this.portCleanables = portCleanables;
+        }
 
-        usbMidiInputDevice = null;
-        usbMidiOutputDevice = null;
-        bleMidiInputDevice = midiInputDevice;
-        bleMidiOutputDevice = null;
+        @Override
+        public void run() {
+            final MidiLeakTracker.Cleanable[] cleanables;
+            synchronized (portCleanables) {
+                cleanables = portCleanables.toArray(new MidiLeakTracker.Cleanable[portCleanables.size()]);
+                portCleanables.clear();
+            }
+            for (final MidiLeakTracker.Cleanable portCleanable : cleanables) {
+                portCleanable.clean();
+            }
+        }
     }
 
-    /* package */ MidiDevice(final MidiDeviceInfo deviceInfo, final jp.kshoji.blemidi.device.MidiOutputDevice midiOutputDevice) {
+    /* package */ MidiDevice(final MidiDeviceInfo deviceInfo, final SharedMidiDevice sharedDevice) {
         mDeviceInfo = deviceInfo;
-
-        usbMidiInputDevice = null;
-        usbMidiOutputDevice = null;
-        bleMidiInputDevice = null;
-        bleMidiOutputDevice = midiOutputDevice;
+        this.sharedDevice = sharedDevice;
+        cleanable = MidiLeakTracker.track(this, "MidiDevice[" + deviceInfo.getId() + "]", new DeviceCleanup(portCleanables));
     }
 
     /**
@@ -113,12 +136,15 @@ public final class MidiDevice implements Closeable {
      *         or null in case of failure.
      */
     public MidiInputPort openInputPort(final int portNumber) {
-        if (usbMidiOutputDevice != null) {
-            return new MidiInputPort(usbMidiOutputDevice);
-        } else if (bleMidiOutputDevice != null) {
-            return new MidiInputPort(bleMidiOutputDevice);
+        if (portNumber < 0 || portNumber >= mDeviceInfo.getInputPortCount()) {
+            return null;
+        }
+
+        final MidiInputPort inputPort = MidiInputPort.open(sharedDevice, portNumber);
+        if (inputPort != null && !addPortCleanable(inputPort.getCleanable())) {
+            return null;
         }
-        return null;
+        return inputPort;
     }
 
     /**
@@ -131,12 +157,38 @@ public final class MidiDevice implements Closeable {
      *         or null in case of failure.
      */
     public MidiOutputPort openOutputPort(final int portNumber) {
-        if (usbMidiInputDevice != null) {
-            return new MidiOutputPort(usbMidiInputDevice);
-        } else if (bleMidiInputDevice != null) {
-            return new MidiOutputPort(bleMidiInputDevice);
+        if (portNumber < 0 || portNumber >= mDeviceInfo.getOutputPortCount()) {
+            return null;
         }
-        return null;
+
+        final MidiOutputPort outputPort = MidiOutputPort.open(sharedDevice, portNumber);
+        if (outputPort != null && !addPortCleanable(outputPort.getCleanable())) {
+            return null;
+        }
+        return outputPort;
+    }
+
+    /**
+     * Adds the cleanable of a port opened through this device, and forgets the ones already closed
+     *
+     * @param portCleanable the cleanable of the port
+     * @return false if the device is closed; the port is closed then
+     */
+    private boolean addPortCleanable(final MidiLeakTracker.Cleanable portCleanable) {
+        synchronized (portCleanables) {
+            if (!cleanable.isCleaned()) {
+                for (int i = portCleanables.size() - 1; i >= 0; i--) {
+                    if (portCleanables.get(i).isCleaned()) {
+                        portCleanables.remove(i);
+                    }
+                }
+                portCleanables.add(portCleanable);
+                return true;
+            }
+        }
+
+        portCleanable.clean();
+        return false;
     }
 
     /**
@@ -165,19 +217,14 @@ public final class MidiDevice implements Closeable {
         return new MidiConnection(midiOutputPort, inputPort);
     }
 
+    /**
+     * Closes the device, and all the ports opened through it.
+     * The driver resources are released when the last client closes its ports, or when the device is detached.
+     * Closing twice has no effect.
+     */
     @Override
     public void close() throws IOException {
-        // close usbMidiInputDevice, usbMidiOutputDevice, bleMidiInputDevice, bleMidiOutputDevice
-    }
-
-    @SuppressLint("NewApi")
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            close();
-        } finally {
-            super.finalize();
-        }
+        cleanable.clean();
     }
 
     @SuppressLint("NewApi")
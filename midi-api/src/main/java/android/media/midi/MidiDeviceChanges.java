@@ -0,0 +1,67 @@
+package android.media.midi;
+
+import android.annotation.SuppressLint;
+
+/**
+ * This is an immutable class that summarizes the device changes delivered at once to a {@link MidiManager.DeviceCallback}.
+ *
+ * A device added and removed within the same delivery appears in neither list,
+ * and only the latest status of each device is kept.
+ */
+public final class MidiDeviceChanges {
+    private final MidiDeviceInfo[] addedDevices;
+    private final MidiDeviceInfo[] removedDevices;
+    private final MidiDeviceStatus[] deviceStatuses;
+
+    /**
+     * @hide
+     */
+    public MidiDeviceChanges(final MidiDeviceInfo[] addedDevices, final MidiDeviceInfo[] removedDevices, final MidiDeviceStatus[] deviceStatuses) {
+        // the elements are immutable so we can share references
+        this.addedDevices = addedDevices.clone();
+        this.removedDevices = removedDevices.clone();
+        this.deviceStatuses = deviceStatuses.clone();
+    }
+
+    /**
+     * Returns the devices added, in the order they were added.
+     *
+     * @return a copy of the added devices
+     */
+    public MidiDeviceInfo[] getAddedDevices() {
+        return addedDevices.clone();
+    }
+
+    /**
+     * Returns the devices removed, in the order they were removed.
+     *
+     * @return a copy of the removed devices
+     */
+    public MidiDeviceInfo[] getRemovedDevices() {
+        return removedDevices.clone();
+    }
+
+    /**
+     * Returns the latest status of each device whose status has changed.
+     *
+     * @return a copy of the statuses
+     */
+    public MidiDeviceStatus[] getDeviceStatuses() {
+        return deviceStatuses.clone();
+    }
+
+    /**
+     * Returns the number of changes summarized
+     *
+     * @return the number of added devices, removed devices and statuses
+     */
+    public int size() {
+        return addedDevices.length + removedDevices.length + deviceStatuses.length;
+    }
+
+    @SuppressLint("NewApi")
+    @Override
+    public String toString() {
+        return "added=" + addedDevices.length + " removed=" + removedDevices.length + " statusChanged=" + deviceStatuses.length;
+    }
+}
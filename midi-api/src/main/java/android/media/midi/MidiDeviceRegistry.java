@@ -0,0 +1,274 @@
+package android.media.midi;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The connected MIDI devices, indexed by device id, by transport device and by device address.
+ *
+ * Lookups don't lock, and can run on any thread while the driver threads add and remove devices.
+ * {@link #getDeviceInfos()} returns the same array until the next change.
+ * The status of a device is reported whenever one of its ports is opened or closed.
+ */
+/* package */ final class MidiDeviceRegistry {
+    private static final MidiDeviceInfo[] EMPTY_DEVICE_INFOS = new MidiDeviceInfo[0];
+    private static final Entry[] EMPTY_ENTRIES = new Entry[0];
+
+    /**
+     * Listener for the status of the devices
+     */
+    interface OnDeviceStatusChangedListener {
+        /**
+         * Called when a port of the device is opened or closed
+         *
+         * @param status the status of the device
+         */
+        void onDeviceStatusChanged(MidiDeviceStatus status);
+    }
+
+    /**
+     * A connected device
+     */
+    static final class Entry implements SharedMidiDevice.OnPortOpenCountChangedListener {
+        final MidiDeviceInfo deviceInfo;
+        final MidiTransportDevice device;
+        final String deviceAddress;
+
+        private final OnDeviceStatusChangedListener onDeviceStatusChangedListener;
+        private SharedMidiDevice sharedDevice;
+        private boolean closed;
+
+        Entry(final MidiDeviceInfo deviceInfo, final MidiTransportDevice device, final String deviceAddress, final OnDeviceStatusChangedListener onDeviceStatusChangedListener) {
+            this.deviceInfo = deviceInfo;
+            this.device = device;
+            this.deviceAddress = deviceAddress;
+            this.onDeviceStatusChangedListener = onDeviceStatusChangedListener;
+        }
+
+        @Override
+        public void onPortOpenCountChanged(final int[] inputPortOpenCounts, final int[] outputPortOpenCounts) {
+            final boolean[] inputPortOpen = new boolean[deviceInfo.getInputPortCount()];
+            for (int i = 0; i < inputPortOpen.length && i < inputPortOpenCounts.length; i++) {
+                inputPortOpen[i] = inputPortOpenCounts[i] > 0;
+            }
+            final int[] outputPortOpenCount = new int[deviceInfo.getOutputPortCount()];
+            System.arraycopy(outputPortOpenCounts, 0, outputPortOpenCount, 0, Math.min(outputPortOpenCount.length, outputPortOpenCounts.length));
+
+            onDeviceStatusChangedListener.onDeviceStatusChanged(new MidiDeviceStatus(deviceInfo, inputPortOpen, outputPortOpenCount));
+        }
+
+        /**
+         * Returns the transport resources shared by all the clients which opened the device, creating them at the first call
+         *
+         * @return the shared device, null if the device has been removed
+         */
+        synchronized SharedMidiDevice getSharedDevice() {
+            if (closed) {
+                return null;
+            }
+            if (sharedDevice == null) {
+                sharedDevice = new SharedMidiDevice(device, deviceInfo.getInputPortCount(), deviceInfo.getOutputPortCount(), this);
+            }
+            return sharedDevice;
+        }
+
+        /**
+         * Releases the transport resources, keeping the device. The next open creates them again.
+         */
+        synchronized void releaseSharedDevice() {
+            if (sharedDevice != null) {
+                sharedDevice.close();
+                sharedDevice = null;
+            }
+        }
+
+        /**
+         * Releases the transport resources
+         */
+        synchronized void close() {
+            closed = true;
+            if (sharedDevice != null) {
+                sharedDevice.close();
+                sharedDevice = null;
+            }
+        }
+    }
+
+    private final Map<Integer, Entry> entriesById = new ConcurrentHashMap<Integer, Entry>();
+    private final Map<MidiTransportDevice, Entry> entriesByDevice = new ConcurrentHashMap<MidiTransportDevice, Entry>();
+    // a device may have an input and an output transport device with the same address
+    private final Map<String, Entry[]> entriesByAddress = new ConcurrentHashMap<String, Entry[]>();
+
+    private final OnDeviceStatusChangedListener onDeviceStatusChangedListener;
+    private final Object lock = new Object();
+    private int nextId;
+    private volatile MidiDeviceInfo[] deviceInfos = EMPTY_DEVICE_INFOS;
+
+    /**
+     * @param onDeviceStatusChangedListener the listener for the status of the devices
+     */
+    MidiDeviceRegistry(final OnDeviceStatusChangedListener onDeviceStatusChangedListener) {
+        this.onDeviceStatusChangedListener = onDeviceStatusChangedListener;
+    }
+
+    /**
+     * Allocates an id for a new device
+     *
+     * @return the id, unique within this registry
+     */
+    int allocateId() {
+        synchronized (lock) {
+            return nextId++;
+        }
+    }
+
+    /**
+     * Adds a device
+     *
+     * @param deviceInfo the device information
+     * @param device the transport device
+     * @param deviceAddress the address of the device, may be null
+     */
+    void add(final MidiDeviceInfo deviceInfo, final MidiTransportDevice device, final String deviceAddress) {
+        final Entry entry = new Entry(deviceInfo, device, deviceAddress, onDeviceStatusChangedListener);
+        final Entry previous;
+        synchronized (lock) {
+            previous = entriesByDevice.put(device, entry);
+            if (previous != null) {
+                removeIndexesLocked(previous);
+            }
+            entriesById.put(deviceInfo.getId(), entry);
+            if (deviceAddress != null) {
+                final Entry[] entries = entriesByAddress.get(deviceAddress);
+                entriesByAddress.put(deviceAddress, append(entries == null ? EMPTY_ENTRIES : entries, entry));
+            }
+            changedLocked();
+        }
+
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Removes a device, and releases its transport resources
+     *
+     * @param device the transport device
+     * @return the removed device, null if not found
+     */
+    Entry remove(final MidiTransportDevice device) {
+        final Entry entry;
+        synchronized (lock) {
+            entry = entriesByDevice.remove(device);
+            if (entry == null) {
+                return null;
+            }
+            removeIndexesLocked(entry);
+            changedLocked();
+        }
+
+        entry.close();
+        return entry;
+    }
+
+    /**
+     * @param id the device id
+     * @return the device, null if not found
+     */
+    Entry getById(final int id) {
+        return entriesById.get(id);
+    }
+
+    /**
+     * @param device the transport device
+     * @return the device, null if not found
+     */
+    Entry getByDevice(final MidiTransportDevice device) {
+        return entriesByDevice.get(device);
+    }
+
+    /**
+     * @param deviceAddress the address of the device
+     * @return the devices with the address, empty if not found
+     */
+    Entry[] getByAddress(final String deviceAddress) {
+        final Entry[] entries = entriesByAddress.get(deviceAddress);
+        return entries == null ? EMPTY_ENTRIES : entries;
+    }
+
+    /**
+     * Returns the connected devices.
+     * The array is shared by all the callers until the next change, and must not be modified nor passed to the applications.
+     *
+     * @return the devices
+     */
+    MidiDeviceInfo[] getDeviceInfos() {
+        final MidiDeviceInfo[] result = deviceInfos;
+        if (result != null) {
+            return result;
+        }
+
+        synchronized (lock) {
+            if (deviceInfos == null) {
+                deviceInfos = entriesById.isEmpty() ? EMPTY_DEVICE_INFOS : collectDeviceInfosLocked();
+            }
+            return deviceInfos;
+        }
+    }
+
+    /**
+     * Returns the number of connected devices, without collecting them
+     *
+     * @return the number of devices
+     */
+    int getDeviceCount() {
+        return entriesById.size();
+    }
+
+    private MidiDeviceInfo[] collectDeviceInfosLocked() {
+        final MidiDeviceInfo[] result = new MidiDeviceInfo[entriesById.size()];
+        int index = 0;
+        for (final Entry entry : entriesById.values()) {
+            result[index++] = entry.deviceInfo;
+        }
+        return result;
+    }
+
+    private void removeIndexesLocked(final Entry entry) {
+        entriesById.remove(entry.deviceInfo.getId());
+        if (entry.deviceAddress != null) {
+            final Entry[] entries = entriesByAddress.get(entry.deviceAddress);
+            if (entries != null) {
+                final Entry[] removed = remove(entries, entry);
+                if (removed.length == 0) {
+                    entriesByAddress.remove(entry.deviceAddress);
+                } else {
+                    entriesByAddress.put(entry.deviceAddress, removed);
+                }
+            }
+        }
+    }
+
+    private void changedLocked() {
+        deviceInfos = null;
+    }
+
+    private static Entry[] append(final Entry[] entries, final Entry entry) {
+        final Entry[] result = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, result, 0, entries.length);
+        result[entries.length] = entry;
+        return result;
+    }
+
+    private static Entry[] remove(final Entry[] entries, final Entry entry) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == entry) {
+                final Entry[] result = new Entry[entries.length - 1];
+                System.arraycopy(entries, 0, result, 0, i);
+                System.arraycopy(entries, i + 1, result, i, entries.length - i - 1);
+                return result;
+            }
+        }
+        return entries;
+    }
+}
@@ -3,28 +3,19 @@ package android.media.midi;
 import android.annotation.SuppressLint;
 import android.app.Service;
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
-import android.content.ServiceConnection;
-import android.hardware.usb.UsbDevice;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.util.Log;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 
-import jp.kshoji.blemidi.service.BleMidiCentralService;
-import jp.kshoji.blemidi.service.BleMidiPeripheralService;
-import jp.kshoji.blemidi.util.BleUtils;
-import jp.kshoji.driver.midi.device.MidiInputDevice;
-import jp.kshoji.driver.midi.device.MidiOutputDevice;
-import jp.kshoji.driver.midi.listener.OnMidiDeviceAttachedListener;
-import jp.kshoji.driver.midi.listener.OnMidiDeviceDetachedListener;
-import jp.kshoji.driver.midi.service.MultipleMidiService;
-
 /**
  * A service that implements a virtual MIDI device.
  * Subclasses must implement the {@link #onGetInputPortReceivers} method to provide a
@@ -45,150 +36,374 @@ import jp.kshoji.driver.midi.service.MultipleMidiService;
  *           &lt;meta-data android:name="android.media.midi.MidiDeviceService"
  android:resource="@xml/device_info" />
  * &lt;/service></pre>
+ *
+ * <p>The declared device is listed by {@link MidiManager#getDevices()} of this application.
+ * Its ports, opened through {@link MidiManager#openDevice}, call the receivers of this service directly, without any copy.</p>
  */
 public abstract class MidiDeviceService extends Service {
     private static final String TAG = "MidiDeviceService";
 
     public static final String SERVICE_INTERFACE = "android.media.midi.MidiDeviceService";
 
-    private MultipleMidiService usbMidiService;
-    private BleMidiCentralService bleMidiCentralService;
-    private BleMidiPeripheralService bleMidiPeripheralService;
+    private MidiTransportConnector transportConnector;
 
-    private final Collection<MidiInputDevice> usbMidiInputDevices = new HashSet<MidiInputDevice>();
-    private final Collection<jp.kshoji.blemidi.device.MidiInputDevice> bleMidiInputDevices = new HashSet<jp.kshoji.blemidi.device.MidiInputDevice>();
+    private final Map<MidiTransportDevice, MidiInputPort> outputPortReceivers = new HashMap<MidiTransportDevice, MidiInputPort>();
+    // the ports of the attached output devices, fed by our output port 0 when the output ports are declared
+    private volatile MidiInputPort[] outputDevicePorts = new MidiInputPort[0];
 
-    private final Map<Object, MidiReceiver> outputPortReceivers = new HashMap<Object, MidiReceiver>();
+    // the ports of the attached input devices, connected to our input ports
+    private final Map<MidiTransportDevice, MidiOutputPort[]> inputPortSenders = new HashMap<MidiTransportDevice, MidiOutputPort[]>();
+    private final Map<MidiTransportDevice, SharedMidiDevice> inputPortSenderDevices = new HashMap<MidiTransportDevice, SharedMidiDevice>();
 
-    private final Collection<MidiReceiver> inputPortReceivers = new HashSet<MidiReceiver>();
+    // guards the ports and their open counts
+    private final Object portLock = new Object();
+    private MidiReceiver[] inputPortReceivers = new MidiReceiver[0];
+    private int[] inputPortOpenCounts = new int[0];
+    private int[] outputPortOpenCounts = new int[0];
+    private MidiReceiver[] declaredOutputPortReceivers = new MidiReceiver[0];
+    // the dispatchers of the output ports opened in this process, copied on write
+    private volatile MidiInputDispatcher[] outputPortDispatchers = new MidiInputDispatcher[0];
+    private MidiDeviceInfo deviceInfo;
 
-    private final OnMidiDeviceAttachedListener usbMidiDeviceAttachedListener = new OnMidiDeviceAttachedListener() {
+    private final MidiTransport.Listener transportListener = new MidiTransport.Listener() {
         @Override
-        public void onDeviceAttached(final UsbDevice usbDevice) {
+        public void onTransportStarted(final MidiTransport transport) {
             // do nothing
         }
 
         @Override
-        public synchronized void onMidiInputDeviceAttached(final MidiInputDevice midiInputDevice) {
-            usbMidiInputDevices.add(midiInputDevice);
+        public synchronized void onDeviceAttached(final MidiTransportDevice device) {
+            if (device.getOutputPortCount() > 0) {
+                addInputPortSender(device, device.getOutputPortCount());
+            }
+            if (device.getInputPortCount() > 0) {
+                addOutputPortReceiver(device);
+            }
         }
 
         @Override
-        public synchronized void onMidiOutputDeviceAttached(final MidiOutputDevice midiOutputDevice) {
-            outputPortReceivers.put(midiOutputDevice, new MidiInputPort(midiOutputDevice));
+        public synchronized void onDeviceDetached(final MidiTransportDevice device) {
+            removeInputPortSender(device);
+            removeOutputPortReceiver(device);
         }
-    };
 
-    private final OnMidiDeviceDetachedListener usbMidiDeviceDetachedListener = new OnMidiDeviceDetachedListener() {
         @Override
-        public void onDeviceDetached(final UsbDevice usbDevice) {
+        public void onDeviceReset(final MidiTransportDevice device) {
             // do nothing
         }
+    };
 
-        @Override
-        public synchronized void onMidiInputDeviceDetached(final MidiInputDevice midiInputDevice) {
-            usbMidiInputDevices.remove(midiInputDevice);
+    /**
+     * Opens the first port of an attached device, to send the data out of our output ports
+     *
+     * @param device the transport device
+     */
+    private void addOutputPortReceiver(final MidiTransportDevice device) {
+        final MidiInputPort midiInputPort = MidiInputPort.open(new SharedMidiDevice(device, 1, 0, null), 0);
+        if (midiInputPort != null) {
+            synchronized (outputPortReceivers) {
+                outputPortReceivers.put(device, midiInputPort);
+                final Collection<MidiInputPort> ports = outputPortReceivers.values();
+                outputDevicePorts = ports.toArray(new MidiInputPort[ports.size()]);
+            }
+            outputDevicesChanged(1);
         }
+    }
 
-        @Override
-        public synchronized void onMidiOutputDeviceDetached(final MidiOutputDevice midiOutputDevice) {
-            outputPortReceivers.remove(midiOutputDevice);
+    /**
+     * Closes the port of a detached device
+     *
+     * @param device the transport device
+     */
+    private void removeOutputPortReceiver(final MidiTransportDevice device) {
+        final MidiInputPort midiInputPort;
+        synchronized (outputPortReceivers) {
+            midiInputPort = outputPortReceivers.remove(device);
+            final Collection<MidiInputPort> ports = outputPortReceivers.values();
+            outputDevicePorts = ports.toArray(new MidiInputPort[ports.size()]);
         }
-    };
+        if (midiInputPort != null) {
+            try {
+                midiInputPort.close();
+            } catch (final IOException ignored) {
+                // do nothing
+            }
+            outputDevicesChanged(-1);
+        }
+    }
 
-    private final jp.kshoji.blemidi.listener.OnMidiDeviceAttachedListener bleMidiDeviceAttachedListener = new jp.kshoji.blemidi.listener.OnMidiDeviceAttachedListener() {
-        @Override
-        public synchronized void onMidiInputDeviceAttached(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            bleMidiInputDevices.add(midiInputDevice);
+    /**
+     * Counts the attached output devices as clients of our output port 0, when the output ports are declared
+     *
+     * @param delta the number of devices attached, negative if detached
+     */
+    private void outputDevicesChanged(final int delta) {
+        final MidiDeviceStatus status;
+        synchronized (portLock) {
+            if (outputPortOpenCounts.length == 0) {
+                return;
+            }
+            outputPortOpenCounts[0] += delta;
+            status = getCurrentDeviceStatus();
         }
 
-        @Override
-        public synchronized void onMidiOutputDeviceAttached(final jp.kshoji.blemidi.device.MidiOutputDevice midiOutputDevice) {
-            outputPortReceivers.put(midiOutputDevice, new MidiInputPort(midiOutputDevice));
+        onDeviceStatusChanged(status);
+    }
+
+    /**
+     * Connects each cable of an attached device to our input port of the same number.
+     * The device counts as a client of the input ports it is connected to.
+     *
+     * @param device the transport device
+     * @param cableCount the number of cables of the device
+     */
+    private void addInputPortSender(final MidiTransportDevice device, final int cableCount) {
+        final SharedMidiDevice sharedDevice = new SharedMidiDevice(device, 0, cableCount, null);
+        final MidiDeviceStatus status;
+        synchronized (portLock) {
+            final MidiOutputPort[] senders = new MidiOutputPort[Math.min(cableCount, inputPortReceivers.length)];
+            for (int portNumber = 0; portNumber < senders.length; portNumber++) {
+                senders[portNumber] = MidiOutputPort.open(sharedDevice, portNumber);
+                if (senders[portNumber] != null) {
+                    senders[portNumber].connect(inputPortReceivers[portNumber]);
+                    inputPortOpenCounts[portNumber]++;
+                }
+            }
+            inputPortSenders.put(device, senders);
+            inputPortSenderDevices.put(device, sharedDevice);
+            status = getCurrentDeviceStatus();
         }
-    };
 
-    private final jp.kshoji.blemidi.listener.OnMidiDeviceDetachedListener bleMidiDeviceDetachedListener = new jp.kshoji.blemidi.listener.OnMidiDeviceDetachedListener() {
-        @Override
-        public synchronized void onMidiInputDeviceDetached(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            bleMidiInputDevices.remove(midiInputDevice);
+        onDeviceStatusChanged(status);
+    }
+
+    /**
+     * Disconnects a detached device from our input ports
+     *
+     * @param device the transport device
+     */
+    private void removeInputPortSender(final MidiTransportDevice device) {
+        final MidiDeviceStatus status;
+        synchronized (portLock) {
+            final MidiOutputPort[] senders = inputPortSenders.remove(device);
+            final SharedMidiDevice sharedDevice = inputPortSenderDevices.remove(device);
+            if (senders == null) {
+                return;
+            }
+
+            for (int portNumber = 0; portNumber < senders.length; portNumber++) {
+                if (senders[portNumber] != null) {
+                    try {
+                        senders[portNumber].close();
+                    } catch (final IOException ignored) {
+                        // do nothing
+                    }
+                    inputPortOpenCounts[portNumber]--;
+                }
+            }
+            sharedDevice.close();
+            status = getCurrentDeviceStatus();
         }
 
-        @Override
-        public synchronized void onMidiOutputDeviceDetached(final jp.kshoji.blemidi.device.MidiOutputDevice midiOutputDevice) {
-            outputPortReceivers.remove(midiOutputDevice);
+        onDeviceStatusChanged(status);
+    }
+
+    @SuppressLint("NewApi")
+    @Override
+    public void onCreate() {
+        transportConnector = new MidiTransportConnector(MidiTransportConnector.createDriverTransports(this), transportListener);
+        transportConnector.setEnabledTransports(onGetEnabledTransports());
+
+        final MidiReceiver[] midiReceivers = onGetInputPortReceivers();
+        final MidiDeviceInfo declaredDeviceInfo = loadDeclaredDeviceInfo();
+        synchronized (portLock) {
+            inputPortReceivers = midiReceivers == null ? new MidiReceiver[0] : midiReceivers.clone();
+            inputPortOpenCounts = new int[inputPortReceivers.length];
+            if (declaredDeviceInfo == null) {
+                deviceInfo = new MidiDeviceInfo(MidiDeviceInfo.TYPE_VIRTUAL, 0, inputPortReceivers.length, 0, new String[inputPortReceivers.length], new String[] {}, new Bundle(), true);
+            } else {
+                if (declaredDeviceInfo.getInputPortCount() != inputPortReceivers.length) {
+                    Log.w(TAG, "the meta-data declares " + declaredDeviceInfo.getInputPortCount() + " input ports, but onGetInputPortReceivers returned " + inputPortReceivers.length);
+                }
+                final String[] inputPortNames = new String[inputPortReceivers.length];
+                final String[] outputPortNames = new String[declaredDeviceInfo.getOutputPortCount()];
+                for (final MidiDeviceInfo.PortInfo portInfo : declaredDeviceInfo.getPorts()) {
+                    if (portInfo.getType() == MidiDeviceInfo.PortInfo.TYPE_INPUT) {
+                        if (portInfo.getPortNumber() < inputPortNames.length) {
+                            inputPortNames[portInfo.getPortNumber()] = portInfo.getName();
+                        }
+                    } else {
+                        outputPortNames[portInfo.getPortNumber()] = portInfo.getName();
+                    }
+                }
+                deviceInfo = new MidiDeviceInfo(MidiDeviceInfo.TYPE_VIRTUAL, 0, inputPortReceivers.length, outputPortNames.length,
+                        inputPortNames, outputPortNames, declaredDeviceInfo.getProperties(), declaredDeviceInfo.isPrivate());
+            }
+
+            outputPortOpenCounts = new int[deviceInfo.getOutputPortCount()];
+            declaredOutputPortReceivers = new MidiReceiver[deviceInfo.getOutputPortCount()];
+            for (int portNumber = 0; portNumber < declaredOutputPortReceivers.length; portNumber++) {
+                declaredOutputPortReceivers[portNumber] = new OutputPortReceiver(portNumber);
+            }
         }
-    };
 
-    private final ServiceConnection usbMidiServiceConnection = new ServiceConnection() {
-        @Override
-        public void onServiceConnected(final ComponentName name, final IBinder service) {
-            usbMidiService = ((MultipleMidiService.LocalBinder)service).getService();
-            usbMidiService.setOnMidiDeviceAttachedListener(usbMidiDeviceAttachedListener);
-            usbMidiService.setOnMidiDeviceDetachedListener(usbMidiDeviceDetachedListener);
+        if (inputPortReceivers.length > 0) {
+            // the attached devices send the data to our input ports
+            transportConnector.start(MidiManager.TRANSPORT_ALL);
         }
+    }
 
-        @Override
-        public void onServiceDisconnected(final ComponentName name) {
-            usbMidiService = null;
+    @Override
+    public void onDestroy() {
+        transportConnector.stop();
+
+        final MidiTransportDevice[] inputDevices;
+        synchronized (portLock) {
+            inputDevices = inputPortSenders.keySet().toArray(new MidiTransportDevice[inputPortSenders.size()]);
+        }
+        for (final MidiTransportDevice device : inputDevices) {
+            removeInputPortSender(device);
+        }
+        final MidiTransportDevice[] outputDevices;
+        synchronized (outputPortReceivers) {
+            outputDevices = outputPortReceivers.keySet().toArray(new MidiTransportDevice[outputPortReceivers.size()]);
+        }
+        for (final MidiTransportDevice device : outputDevices) {
+            removeOutputPortReceiver(device);
         }
-    };
 
-    private final ServiceConnection bleMidiCentralServiceConnection = new ServiceConnection() {
-        @Override
-        public void onServiceConnected(final ComponentName name, final IBinder service) {
-            bleMidiCentralService = ((BleMidiCentralService.LocalBinder)service).getService();
-            bleMidiCentralService.setOnMidiDeviceAttachedListener(bleMidiDeviceAttachedListener);
-            bleMidiCentralService.setOnMidiDeviceDetachedListener(bleMidiDeviceDetachedListener);
+        super.onDestroy();
+    }
+
+    /**
+     * Reads the device declared by the meta-data of this service
+     *
+     * @return the device, null if not declared
+     */
+    private MidiDeviceInfo loadDeclaredDeviceInfo() {
+        final ServiceInfo serviceInfo;
+        try {
+            serviceInfo = getPackageManager().getServiceInfo(new ComponentName(this, getClass()), PackageManager.GET_META_DATA);
+        } catch (final PackageManager.NameNotFoundException e) {
+            return null;
         }
+        return VirtualMidiDeviceInfoParser.parse(this, serviceInfo, 0);
+    }
 
-        @Override
-        public void onServiceDisconnected(final ComponentName name) {
-            bleMidiCentralService = null;
+    /**
+     * Sends the data of a declared output port to the clients in this process, and to the attached devices for the port 0
+     */
+    private final class OutputPortReceiver extends MidiReceiver {
+        private final int portNumber;
+
+        OutputPortReceiver(final int portNumber) {
+            this.portNumber = portNumber;
         }
-    };
 
-    private final ServiceConnection bleMidiPeripheralServiceConnection = new ServiceConnection() {
         @Override
-        public void onServiceConnected(final ComponentName name, final IBinder service) {
-            bleMidiPeripheralService = ((BleMidiPeripheralService.LocalBinder)service).getService();
-            bleMidiPeripheralService.setOnMidiDeviceAttachedListener(bleMidiDeviceAttachedListener);
-            bleMidiPeripheralService.setOnMidiDeviceDetachedListener(bleMidiDeviceDetachedListener);
+        public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+            for (final MidiInputDispatcher outputPortDispatcher : outputPortDispatchers) {
+                outputPortDispatcher.sendMidiMessage(portNumber, msg, offset, count, timestamp);
+            }
+
+            if (portNumber == 0) {
+                for (final MidiInputPort outputDevicePort : outputDevicePorts) {
+                    outputDevicePort.send(msg, offset, count, timestamp);
+                }
+            }
         }
+    }
 
-        @Override
-        public void onServiceDisconnected(final ComponentName name) {
-            bleMidiPeripheralService = null;
+    /**
+     * Returns the receiver of the input port, for a client in this process
+     *
+     * @param portNumber the port number
+     * @return the receiver, null if no such port
+     */
+    /* package */ MidiReceiver getInputPortReceiver(final int portNumber) {
+        synchronized (portLock) {
+            return portNumber >= 0 && portNumber < inputPortReceivers.length ? inputPortReceivers[portNumber] : null;
         }
-    };
+    }
 
-    @SuppressLint("NewApi")
-    @Override
-    public void onCreate() {
-        Intent intent = new Intent(this, MultipleMidiService.class);
-        startService(intent);
-        bindService(intent, usbMidiServiceConnection, Context.BIND_AUTO_CREATE);
-
-        if (BleUtils.isBleSupported(this) && BleUtils.isBluetoothEnabled(this)) {
-            intent = new Intent(this, BleMidiCentralService.class);
-            startService(intent);
-            bindService(intent, bleMidiCentralServiceConnection, Context.BIND_AUTO_CREATE);
-
-            if (BleUtils.isBlePeripheralSupported(this)) {
-                intent = new Intent(this, BleMidiPeripheralService.class);
-                startService(intent);
-                bindService(intent, bleMidiPeripheralServiceConnection, Context.BIND_AUTO_CREATE);
-            }
+    /**
+     * Called when a client in this process opens or closes an input port
+     *
+     * @param portNumber the port number
+     * @param delta the number of clients opened, negative if closed
+     */
+    /* package */ void onInputPortOpenCountChanged(final int portNumber, final int delta) {
+        final MidiDeviceStatus status;
+        synchronized (portLock) {
+            inputPortOpenCounts[portNumber] += delta;
+            status = getCurrentDeviceStatus();
         }
 
-        final MidiReceiver[] midiReceivers = onGetInputPortReceivers();
-        if (midiReceivers != null) {
-            for (final MidiReceiver midiReceiver : midiReceivers) {
-                inputPortReceivers.add(midiReceiver);
+        onDeviceStatusChanged(status);
+    }
+
+    /**
+     * Called when a client in this process opens or closes an output port
+     *
+     * @param portNumber the port number
+     * @param delta the number of clients opened, negative if closed
+     */
+    /* package */ void onOutputPortOpenCountChanged(final int portNumber, final int delta) {
+        final MidiDeviceStatus status;
+        synchronized (portLock) {
+            outputPortOpenCounts[portNumber] += delta;
+            status = getCurrentDeviceStatus();
+        }
+
+        onDeviceStatusChanged(status);
+    }
+
+    /**
+     * Starts passing the data of the output ports to the dispatcher
+     *
+     * @param outputPortDispatcher the dispatcher of a device opened in this process
+     */
+    /* package */ void addOutputPortDispatcher(final MidiInputDispatcher outputPortDispatcher) {
+        synchronized (portLock) {
+            final MidiInputDispatcher[] added = new MidiInputDispatcher[outputPortDispatchers.length + 1];
+            System.arraycopy(outputPortDispatchers, 0, added, 0, outputPortDispatchers.length);
+            added[outputPortDispatchers.length] = outputPortDispatcher;
+            outputPortDispatchers = added;
+        }
+    }
+
+    /**
+     * Stops passing the data of the output ports to the dispatcher
+     *
+     * @param outputPortDispatcher the dispatcher passed to {@link #addOutputPortDispatcher}
+     */
+    /* package */ void removeOutputPortDispatcher(final MidiInputDispatcher outputPortDispatcher) {
+        synchronized (portLock) {
+            final MidiInputDispatcher[] current = outputPortDispatchers;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == outputPortDispatcher) {
+                    final MidiInputDispatcher[] removed = new MidiInputDispatcher[current.length - 1];
+                    System.arraycopy(current, 0, removed, 0, i);
+                    System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+                    outputPortDispatchers = removed;
+                    return;
+                }
             }
         }
     }
 
+    /**
+     * Returns the transports whose devices are connected to the device's ports.
+     * Subclasses can override this to bring up only the transports they use. All the transports by default.
+     * The transports are started when the service is created if the device has input ports,
+     * or else at the first call of {@link #getOutputPortReceivers}.
+     *
+     * @return the combination of MidiManager.TRANSPORT_* flags
+     */
+    public int onGetEnabledTransports() {
+        return MidiManager.TRANSPORT_ALL;
+    }
+
     private final IBinder binder = new LocalBinder();
     public class LocalBinder extends Binder {
         LocalBinder() {
@@ -216,11 +431,23 @@ public abstract class MidiDeviceService extends Service {
     /**
      * Returns an array of {@link MidiReceiver} for the device's output ports.
      * These can be used to send data out the device's output ports.
+     * The first call starts the transports, so the receivers of the devices appear as they are attached.
+     * If the meta-data declares output ports, there is one receiver for each of them, reaching the clients in this process,
+     * and the attached devices are fed by the port 0.
+     * Otherwise there is one receiver for each attached device.
      * @return array of MidiReceivers
      */
     public final MidiReceiver[] getOutputPortReceivers() {
-        final Collection<MidiReceiver> receivers = outputPortReceivers.values();
-        return receivers.toArray(new MidiReceiver[receivers.size()]);
+        transportConnector.start(MidiManager.TRANSPORT_ALL);
+        synchronized (portLock) {
+            if (declaredOutputPortReceivers.length > 0) {
+                return declaredOutputPortReceivers.clone();
+            }
+        }
+        synchronized (outputPortReceivers) {
+            final Collection<MidiInputPort> receivers = outputPortReceivers.values();
+            return receivers.toArray(new MidiReceiver[receivers.size()]);
+        }
     }
 
     /**
@@ -228,13 +455,29 @@ public abstract class MidiDeviceService extends Service {
      * @return our MidiDeviceInfo
      */
     public final MidiDeviceInfo getDeviceInfo() {
-        // returns empty MidiDeviceInfo
-        return new MidiDeviceInfo(MidiDeviceInfo.TYPE_VIRTUAL, 0, 0, 0, new String[] {}, new String[] {}, new Bundle(), true);
+        synchronized (portLock) {
+            return deviceInfo;
+        }
+    }
+
+    /**
+     * returns the current {@link MidiDeviceStatus} for this service
+     * @return the status, with an attached device counting as a client of each port it is connected to
+     */
+    public final MidiDeviceStatus getCurrentDeviceStatus() {
+        synchronized (portLock) {
+            final boolean[] inputPortOpen = new boolean[inputPortOpenCounts.length];
+            for (int i = 0; i < inputPortOpen.length; i++) {
+                inputPortOpen[i] = inputPortOpenCounts[i] > 0;
+            }
+            return new MidiDeviceStatus(deviceInfo, inputPortOpen, outputPortOpenCounts);
+        }
     }
 
     /**
-     * Called to notify when an our {@link MidiDeviceStatus} has changed
-     * @param status the number of the port that was opened
+     * Called to notify when an our {@link MidiDeviceStatus} has changed,
+     * when a client connects to or disconnects from one of our ports
+     * @param status the current status of the device
      */
     public void onDeviceStatusChanged(final MidiDeviceStatus status) {
     }
@@ -0,0 +1,210 @@
+package android.media.midi;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Receives the MIDI events of a device from its driver, and passes them to the receivers of the cable.
+ *
+ * One driver listener serves all the cables of the device, and all the ports opened for each cable;
+ * the receivers are looked up by the cable number, so each cable has its own path and adding cables doesn't slow down the others.
+ * The listener is set to the driver while at least one port has its receivers added.
+ * Every message is delivered with the {@link System#nanoTime} at which the driver callback received it.
+ */
+/* package */ abstract class MidiInputDispatcher {
+    private static final MidiReceiverList[] NO_RECEIVERS = new MidiReceiverList[0];
+
+    // the receivers of each port opened for the cable, copied on write
+    private final AtomicReferenceArray<MidiReceiverList[]> cableReceivers;
+    private int receiversCount;
+    private boolean closed;
+
+    /**
+     * Scratch buffer for short messages, one per driver callback thread.
+     * Receivers must not retain the msg array beyond {@link MidiReceiver#onSend}, so it is reused for every message.
+     */
+    private final ThreadLocal<byte[]> messageBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[3];
+        }
+    };
+
+    /**
+     * @param cableCount the number of cables of the device
+     */
+    MidiInputDispatcher(final int cableCount) {
+        cableReceivers = new AtomicReferenceArray<MidiReceiverList[]>(cableCount);
+        for (int cable = 0; cable < cableCount; cable++) {
+            cableReceivers.set(cable, NO_RECEIVERS);
+        }
+    }
+
+    /**
+     * Returns the number of cables of the device
+     *
+     * @return the number of cables
+     */
+    final int getCableCount() {
+        return cableReceivers.length();
+    }
+
+    /**
+     * Adds the receivers of a port opened for the cable.
+     * The listener is set to the driver when the first receivers are added.
+     *
+     * @param cable the cable number
+     * @param receivers the receivers
+     */
+    final synchronized void addReceivers(final int cable, final MidiReceiverList receivers) {
+        if (closed) {
+            return;
+        }
+
+        final MidiReceiverList[] current = cableReceivers.get(cable);
+        final MidiReceiverList[] added = new MidiReceiverList[current.length + 1];
+        System.arraycopy(current, 0, added, 0, current.length);
+        added[current.length] = receivers;
+        cableReceivers.set(cable, added);
+
+        if (receiversCount++ == 0) {
+            attach();
+        }
+    }
+
+    /**
+     * Removes the receivers of a port opened for the cable.
+     * The listener is removed from the driver when the last receivers are removed.
+     *
+     * @param cable the cable number
+     * @param receivers the receivers passed to {@link #addReceivers}
+     */
+    final synchronized void removeReceivers(final int cable, final MidiReceiverList receivers) {
+        final MidiReceiverList[] current = cableReceivers.get(cable);
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == receivers) {
+                final MidiReceiverList[] removed = new MidiReceiverList[current.length - 1];
+                System.arraycopy(current, 0, removed, 0, i);
+                System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+                cableReceivers.set(cable, removed);
+
+                if (--receiversCount == 0) {
+                    detach();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes all the receivers, and the listener from the driver
+     */
+    final synchronized void close() {
+        closed = true;
+        for (int cable = 0; cable < cableReceivers.length(); cable++) {
+            cableReceivers.set(cable, NO_RECEIVERS);
+        }
+        if (receiversCount > 0) {
+            receiversCount = 0;
+            detach();
+        }
+    }
+
+    /**
+     * Sets the listener to the driver
+     */
+    abstract void attach();
+
+    /**
+     * Removes the listener from the driver
+     */
+    abstract void detach();
+
+    /**
+     * send 1 byte MIDI message to receivers
+     *
+     * @param cable the cable number
+     * @param byte1 the status byte
+     */
+    final void sendMidiMessage(final int cable, final int byte1) {
+        final long timestamp = System.nanoTime();
+        final byte[] message = messageBuffer.get();
+        message[0] = (byte) byte1;
+        dispatch(cable, message, 0, 1, timestamp, timestamp);
+    }
+
+    /**
+     * send 2 bytes MIDI message to receivers
+     *
+     * @param cable the cable number
+     * @param byte1 the status byte
+     * @param byte2 the first data byte
+     */
+    final void sendMidiMessage(final int cable, final int byte1, final int byte2) {
+        final long timestamp = System.nanoTime();
+        final byte[] message = messageBuffer.get();
+        message[0] = (byte) byte1;
+        message[1] = (byte) byte2;
+        dispatch(cable, message, 0, 2, timestamp, timestamp);
+    }
+
+    /**
+     * send 3 bytes MIDI message to receivers
+     *
+     * @param cable the cable number
+     * @param byte1 the status byte
+     * @param byte2 the first data byte
+     * @param byte3 the second data byte
+     */
+    final void sendMidiMessage(final int cable, final int byte1, final int byte2, final int byte3) {
+        final long timestamp = System.nanoTime();
+        final byte[] message = messageBuffer.get();
+        message[0] = (byte) byte1;
+        message[1] = (byte) byte2;
+        message[2] = (byte) byte3;
+        dispatch(cable, message, 0, 3, timestamp, timestamp);
+    }
+
+    /**
+     * send MIDI message to receivers
+     *
+     * @param cable the cable number
+     * @param message the raw MIDI message
+     */
+    final void sendMidiMessage(final int cable, final byte[] message) {
+        final long timestamp = System.nanoTime();
+        dispatch(cable, message, 0, message.length, timestamp, timestamp);
+    }
+
+    /**
+     * send MIDI message to receivers
+     *
+     * @param cable the cable number
+     * @param message the raw MIDI message, may be a scratch buffer longer than the message
+     * @param offset the offset of the message
+     * @param count the number of bytes of the message
+     * @param timestamp the timestamp of the message given by the sender, based on {@link java.lang.System#nanoTime}
+     */
+    final void sendMidiMessage(final int cable, final byte[] message, final int offset, final int count, final long timestamp) {
+        dispatch(cable, message, offset, count, timestamp, System.nanoTime());
+    }
+
+    /**
+     * send MIDI message to receivers
+     *
+     * @param cable the cable number
+     * @param message the raw MIDI message, may be a scratch buffer longer than the message
+     * @param offset the offset of the message
+     * @param count the number of bytes of the message
+     * @param timestamp the timestamp passed to the receivers
+     * @param captureNanos the {@link java.lang.System#nanoTime} at which the message was received, the start of its latency
+     */
+    private void dispatch(final int cable, final byte[] message, final int offset, final int count, final long timestamp, final long captureNanos) {
+        if (cable < 0 || cable >= cableReceivers.length()) {
+            return;
+        }
+
+        for (final MidiReceiverList receivers : cableReceivers.get(cable)) {
+            receivers.send(message, offset, count, timestamp, captureNanos);
+        }
+    }
+}
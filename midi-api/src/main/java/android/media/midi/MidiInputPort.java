@@ -5,31 +5,73 @@ import android.annotation.SuppressLint;
 import java.io.Closeable;
 import java.io.IOException;
 
-import jp.kshoji.driver.midi.device.MidiOutputDevice;
-
 /**
  * This class is used for sending data to a port on a MIDI device
+ *
+ * A port of a {@link MidiDeviceService} in this process calls the receiver of the service directly:
+ * the data is neither copied nor parsed, and is passed with its timestamp on the sending thread.
  */
 @SuppressLint("NewApi")
 public final class MidiInputPort extends MidiReceiver implements Closeable {
     private static final String TAG = "MidiInputPort";
 
-    private static volatile int portNumber = 0;
-
     private final int myPortNumber;
-    private final MidiOutputDevice usbMidiOutputDevice;
-    private final jp.kshoji.blemidi.device.MidiOutputDevice bleMidiOutputDevice;
+    private final SharedMidiDevice sharedDevice;
+    // null for a port of a MidiDeviceService
+    private final MidiPacketWriter packetWriter;
+    private final MidiMessageScheduler messageScheduler;
+    private final MidiMessageParser messageParser;
+    // null for a port of a MidiDeviceService
+    private final PacketWriterListener packetWriterListener;
+    // the receiver of a MidiDeviceService, null for a port of a USB or BLE MIDI device
+    private final MidiReceiver serviceReceiver;
+    private final MidiLeakTracker.Cleanable cleanable;
+    private volatile MidiPortStatsRecorder statsRecorder;
+
+    /**
+     * Opens an input port of the device
+     *
+     * @param sharedDevice the device
+     * @param portNumber the port number, which is the cable number of a USB MIDI device
+     * @return the port, null if the device is closed or has no such port
+     */
+    /* package */ static MidiInputPort open(final SharedMidiDevice sharedDevice, final int portNumber) {
+        if (sharedDevice.hasInputPortReceivers()) {
+            final MidiReceiver serviceReceiver = sharedDevice.acquireInputPortReceiver(portNumber);
+            if (serviceReceiver == null) {
+                return null;
+            }
+            return new MidiInputPort(sharedDevice, serviceReceiver, portNumber);
+        }
+
+        final MidiPacketWriter packetWriter = sharedDevice.acquirePacketWriter(portNumber);
+        if (packetWriter == null) {
+            return null;
+        }
+        return new MidiInputPort(sharedDevice, packetWriter, portNumber);
+    }
 
-    /* package */ MidiInputPort(MidiOutputDevice usbMidiInputDevice) {
-        usbMidiOutputDevice = usbMidiInputDevice;
-        bleMidiOutputDevice = null;
-        myPortNumber = portNumber++;
+    private MidiInputPort(final SharedMidiDevice sharedDevice, final MidiPacketWriter packetWriter, final int portNumber) {
+        this.sharedDevice = sharedDevice;
+        this.packetWriter = packetWriter;
+        myPortNumber = portNumber;
+        packetWriterListener = new PacketWriterListener(packetWriter);
+        messageScheduler = new MidiMessageScheduler(packetWriterListener, "MidiInputPort[" + myPortNumber + "].Scheduler");
+        messageParser = new MidiMessageParser(messageScheduler);
+        serviceReceiver = null;
+        cleanable = MidiLeakTracker.track(this, "MidiInputPort[" + myPortNumber + "]", new Cleanup(sharedDevice, messageScheduler, portNumber));
     }
 
-    /* package */ MidiInputPort(jp.kshoji.blemidi.device.MidiOutputDevice bleMidiInputDevice) {
-        usbMidiOutputDevice = null;
-        bleMidiOutputDevice = bleMidiInputDevice;
-        myPortNumber = portNumber++;
+    private MidiInputPort(final SharedMidiDevice sharedDevice, final MidiReceiver serviceReceiver, final int portNumber) {
+        super(serviceReceiver.getMaxMessageSize(), serviceReceiver.getSplitMode());
+        this.sharedDevice = sharedDevice;
+        this.serviceReceiver = serviceReceiver;
+        myPortNumber = portNumber;
+        packetWriter = null;
+        messageScheduler = null;
+        messageParser = null;
+        packetWriterListener = null;
+        cleanable = MidiLeakTracker.track(this, "MidiInputPort[" + myPortNumber + "]", new ServiceReceiverCleanup(sharedDevice, portNumber));
     }
 
     /**
@@ -41,212 +83,235 @@ public final class MidiInputPort extends MidiReceiver implements Closeable {
         return myPortNumber;
     }
 
+    /**
+     * Enables or disables packet coalescing.
+     * While enabled, the messages are packed into as few transport packets as possible:
+     * they are held until a packet is full, for a short time, or until {@link #sendPendingPackets()} is called.
+     * For a USB MIDI device, messages are never held: the USB MIDI driver queues them for its own writer thread,
+     * which packs the queued packets into one bulk transfer.
+     * For a BLE MIDI device, messages are held for up to one connection interval and packed into one BLE-MIDI packet.
+     * Disabled by default. The setting is shared by all the ports opened for the same port number.
+     *
+     * @param enabled true to enable packet coalescing
+     */
+    public void setPacketCoalescingEnabled(boolean enabled) {
+        if (packetWriter != null) {
+            packetWriter.setCoalescingEnabled(enabled);
+        }
+    }
+
+    /**
+     * Sends the messages held by packet coalescing to the device now.
+     * {@link #flush()} discards only the messages waiting for their timestamp; the held packets are still sent.
+     */
+    public void sendPendingPackets() {
+        if (packetWriter != null) {
+            packetWriter.sendPendingPackets();
+        }
+    }
+
+    /**
+     * Enables or disables the statistics of this port. Disabled by default.
+     * Enabling them again starts new counters.
+     *
+     * @param enabled true to count the messages sent and their latencies
+     */
+    public synchronized void setStatsEnabled(final boolean enabled) {
+        final MidiPortStatsRecorder recorder = enabled ? new MidiPortStatsRecorder(MidiDeviceInfo.PortInfo.TYPE_INPUT, myPortNumber) : null;
+        statsRecorder = recorder;
+        if (packetWriterListener != null) {
+            packetWriterListener.statsRecorder = recorder;
+        }
+    }
+
+    /**
+     * Returns the statistics of this port
+     *
+     * @return the statistics, null if disabled
+     */
+    public MidiPortStats getStats() {
+        final MidiPortStatsRecorder recorder = statsRecorder;
+        return recorder == null ? null : recorder.snapshot();
+    }
+
+    /**
+     * Sends the data to the device.
+     * The data may contain any number of messages, with Running Status and interleaved System Real-Time messages,
+     * and messages may be split across calls.
+     * Messages with a future timestamp are held, and sent to the device at their timestamp.
+     *
+     * @throws IOException if the port is closed
+     */
     @SuppressLint("Override")
     @Override
     public void onSend(byte[] msg, int offset, int count, long timestamp) throws IOException {
         if (offset < 0 || count < 0 || msg == null || offset + count > msg.length) {
             throw new IllegalArgumentException("offset or count out of range");
         }
+        final MidiPortStatsRecorder recorder = statsRecorder;
+        if (cleanable.isCleaned()) {
+            if (recorder != null) {
+                recorder.recordDropped();
+            }
+            throw new IOException("MidiInputPort is closed");
+        }
 
-        if (usbMidiOutputDevice != null) {
-            if ((msg[0] & 0xff) == 0xf0) {
-                // sysex
-                usbMidiOutputDevice.sendMidiSystemExclusive(0, msg);
-            } else {
-                sendMidiMessage(msg[0], msg[1], msg[2]);
+        if (serviceReceiver != null) {
+            if (recorder == null) {
+                serviceReceiver.send(msg, offset, count, timestamp);
+                return;
+            }
+
+            final long startNanos = System.nanoTime();
+            try {
+                serviceReceiver.send(msg, offset, count, timestamp);
+            } catch (final IOException e) {
+                recorder.recordFailed();
+                throw e;
             }
+            recorder.record(count, System.nanoTime() - startNanos);
+            return;
         }
-        if (bleMidiOutputDevice != null) {
-            if ((msg[0] & 0xff) == 0xf0) {
-                // sysex
-                bleMidiOutputDevice.sendMidiSystemExclusive(msg);
-            } else {
-                sendMidiMessage(msg[0], msg[1], msg[2]);
+
+        synchronized (messageParser) {
+            if (recorder != null) {
+                packetWriterListener.sendStartNanos = System.nanoTime();
             }
+            messageParser.parse(msg, offset, count, timestamp);
         }
     }
 
     /**
-     * Send a MIDI message with 3 bytes raw MIDI data
+     * Sends the batch of messages to the device.
+     * A port of a {@link MidiDeviceService} in this process passes the batch to the receiver of the service as is.
      *
-     * @param byte1 the first byte
-     * @param byte2 the second byte: ignored when 1 byte message
-     * @param byte3 the third byte: ignored when 1-2 byte message
+     * @throws IOException if the port is closed
      */
-    private void sendMidiMessage(final int byte1, final int byte2, final int byte3) {
-        switch (byte1 & 0xf0) {
-            case 0x80: // Note Off
-                if (usbMidiOutputDevice != null) {
-                    usbMidiOutputDevice.sendMidiNoteOff(0, byte1, byte2, byte3);
-                }
-                if (bleMidiOutputDevice != null) {
-                    bleMidiOutputDevice.sendMidiNoteOff(byte1, byte2, byte3);
-                }
-                break;
-            case 0x90: // Note On
-                if (usbMidiOutputDevice != null) {
-                    usbMidiOutputDevice.sendMidiNoteOn(0, byte1, byte2, byte3);
-                }
-                if (bleMidiOutputDevice != null) {
-                    bleMidiOutputDevice.sendMidiNoteOn(byte1, byte2, byte3);
-                }
-                break;
-            case 0xa0: // Poly Pressure
-                if (usbMidiOutputDevice != null) {
-                    usbMidiOutputDevice.sendMidiPolyphonicAftertouch(0, byte1, byte2, byte3);
-                }
-                if (bleMidiOutputDevice != null) {
-                    bleMidiOutputDevice.sendMidiPolyphonicAftertouch(byte1, byte2, byte3);
-                }
-                break;
-            case 0xb0: // Control Change
-                if (usbMidiOutputDevice != null) {
-                    usbMidiOutputDevice.sendMidiControlChange(0, byte1, byte2, byte3);
-                }
-                if (bleMidiOutputDevice != null) {
-                    bleMidiOutputDevice.sendMidiControlChange(byte1, byte2, byte3);
-                }
-                break;
-            case 0xc0: // Program Change
-                if (usbMidiOutputDevice != null) {
-                    usbMidiOutputDevice.sendMidiProgramChange(0, byte1, byte2);
-                }
-                if (bleMidiOutputDevice != null) {
-                    bleMidiOutputDevice.sendMidiProgramChange(byte1, byte2);
-                }
-                break;
-            case 0xd0: // Channel Pressure
-                if (usbMidiOutputDevice != null) {
-                    usbMidiOutputDevice.sendMidiChannelAftertouch(0, byte1, byte2);
-                }
-                if (bleMidiOutputDevice != null) {
-                    bleMidiOutputDevice.sendMidiChannelAftertouch(byte1, byte2);
-                }
-                break;
-            case 0xe0: // Pitch Bend
-                if (usbMidiOutputDevice != null) {
-                    usbMidiOutputDevice.sendMidiPitchWheel(0, byte1, byte2 << 7 | byte3);
-                }
-                if (bleMidiOutputDevice != null) {
-                    bleMidiOutputDevice.sendMidiPitchWheel(byte1, byte2 << 7 | byte3);
-                }
-                break;
-            case 0xf0: // SysEx with 3 bytes
-                switch (byte1) {
-                    case 0xf0: // Start Of Exclusive
-                    case 0xf7: // End of Exclusive
-                        // ignored
-                        break;
-
-                    case 0xf4: // (Undefined MIDI System Common)
-                    case 0xf5: // (Undefined MIDI System Common / Bus Select?)
-                    case 0xf9: // (Undefined MIDI System Real-time)
-                    case 0xfd: // (Undefined MIDI System Real-time)
-                        // ignored
-                        break;
-
-                    case 0xf6: // Tune Request
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiTuneRequest(0);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiTuneRequest();
-                        }
-                        break;
-                    case 0xf8: // Timing Clock
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiTimingClock(0);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiTimingClock();
-                        }
-                        break;
-                    case 0xfa: // Start
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiStart(0);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiStart();
-                        }
-                        break;
-                    case 0xfb: // Continue
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiContinue(0);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiContinue();
-                        }
-                        break;
-                    case 0xfc: // Stop
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiStop(0);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiStop();
-                        }
-                        break;
-                    case 0xfe: // Active Sensing
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiActiveSensing(0);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiActiveSensing();
-                        }
-                        break;
-                    case 0xff: // System Reset
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiReset(0);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiReset();
-                        }
-                        break;
-
-                    case 0xf1: // MIDI Time Code
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiTimeCodeQuarterFrame(0, byte1);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiTimeCodeQuarterFrame(byte1);
-                        }
-                        break;
-                    case 0xf3: // Song Select
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiSongSelect(0, byte1);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiSongSelect(byte1);
-                        }
-                        break;
-                    case 0xf2: // Song Point Pointer
-                        // Three byte message
-                        if (usbMidiOutputDevice != null) {
-                            usbMidiOutputDevice.sendMidiSongPositionPointer(0, byte1 << 7 | byte2);
-                        }
-                        if (bleMidiOutputDevice != null) {
-                            bleMidiOutputDevice.sendMidiSongPositionPointer(byte1 << 7 | byte2);
-                        }
-                        break;
-                    default:
-                        break;
-                }
-                break;
-            default:
-                // ignored
+    @Override
+    public void onSendBatch(int[] messages, long[] timestamps, int offset, int count) throws IOException {
+        if (serviceReceiver == null || statsRecorder != null) {
+            // counted per message by onSend
+            super.onSendBatch(messages, timestamps, offset, count);
+            return;
+        }
+        if (cleanable.isCleaned()) {
+            throw new IOException("MidiInputPort is closed");
         }
+
+        serviceReceiver.sendBatch(messages, timestamps, offset, count);
     }
 
     @SuppressLint("Override")
     @Override
     public void onFlush() throws IOException {
+        if (serviceReceiver != null) {
+            serviceReceiver.flush();
+            return;
+        }
+
+        // the held packets may contain the messages of the other clients of the port, so they are sent anyway
+        messageScheduler.flush();
     }
 
+    /**
+     * Closes the port. The writer of the port number is released when the last port opened for it is closed.
+     * Closing twice has no effect.
+     */
     @Override
     public void close() throws IOException {
+        cleanable.clean();
     }
 
-    @SuppressLint("Override")
-    @Override
-    protected void finalize() throws Throwable {
+    /**
+     * Writes the parsed messages to the device.
+     * Doesn't refer to the port, so the scheduler thread doesn't keep an unclosed port reachable.
+     */
+    private static final class PacketWriterListener implements MidiMessageScheduler.Listener {
+        private final MidiPacketWriter packetWriter;
+        // null while the statistics are disabled
+        volatile MidiPortStatsRecorder statsRecorder;
+        // the time the data being parsed was sent, only used on the sending thread: a held message carries its own
+        long sendStartNanos;
+
+        PacketWriterListener(final MidiPacketWriter packetWriter) {
+            this.packetWriter = packetWriter;
+        }
+
+        @Override
+        public void onMessageDue(final byte[] message, final int count, final long timestamp, final long sendNanos) {
+            packetWriter.write(message, count, timestamp);
+            record(count, timestamp, sendNanos);
+        }
+
+        @Override
+        public void onSystemExclusiveDue(final byte[] data, final int offset, final int count, final long timestamp, final long sendNanos) {
+            final byte[] systemExclusive;
+            if (offset == 0 && count == data.length) {
+                systemExclusive = data;
+            } else {
+                systemExclusive = new byte[count];
+                System.arraycopy(data, offset, systemExclusive, 0, count);
+            }
+
+            packetWriter.writeSystemExclusive(systemExclusive);
+            record(count, timestamp, sendNanos);
+        }
+
+        /**
+         * Records the latency, from the time the message was sent or its timestamp, whichever is later
+         */
+        private void record(final int count, final long timestamp, final long sendNanos) {
+            final MidiPortStatsRecorder recorder = statsRecorder;
+            if (recorder != null) {
+                final long startNanos = sendNanos != 0 ? sendNanos : sendStartNanos;
+                recorder.record(count, System.nanoTime() - Math.max(startNanos, timestamp));
+            }
+        }
+    }
+
+    /**
+     * Stops the scheduler, and releases the writer
+     */
+    private static final class Cleanup implements Runnable {
+        private final SharedMidiDevice sharedDevice;
+        private final MidiMessageScheduler messageScheduler;
+        private final int portNumber;
+
+        Cleanup(final SharedMidiDevice sharedDevice, final MidiMessageScheduler messageScheduler, final int portNumber) {
+            this.sharedDevice = sharedDevice;
+            this.messageScheduler = messageScheduler;
+            this.portNumber = portNumber;
+        }
+
+        @Override
+        public void run() {
+            messageScheduler.close();
+            sharedDevice.releasePacketWriter(portNumber);
+        }
+    }
+
+    /**
+     * Counts the port of the service as closed
+     */
+    private static final class ServiceReceiverCleanup implements Runnable {
+        private final SharedMidiDevice sharedDevice;
+        private final int portNumber;
+
+        ServiceReceiverCleanup(final SharedMidiDevice sharedDevice, final int portNumber) {
+            this.sharedDevice = sharedDevice;
+            this.portNumber = portNumber;
+        }
+
+        @Override
+        public void run() {
+            sharedDevice.releaseInputPortReceiver(portNumber);
+        }
+    }
+
+    /**
+     * @return the cleanable of the port, cleaned when the port is closed
+     */
+    /* package */ MidiLeakTracker.Cleanable getCleanable() {
+        return cleanable;
     }
 }
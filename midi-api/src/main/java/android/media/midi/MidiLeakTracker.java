@@ -0,0 +1,113 @@
+package android.media.midi;
+
+import android.util.Log;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Detects the devices, ports and connections which became unreachable without being closed,
+ * and releases their resources.
+ *
+ * Unlike finalize(), this costs nothing at allocation and adds no GC pass.
+ * The cleanup action runs at most once: by {@link Cleanable#clean()} from close(), or by the tracker thread on a leak.
+ * The cleanup action must not refer to the tracked object, or it would never become unreachable.
+ */
+/* package */ final class MidiLeakTracker {
+    private static final String TAG = "MidiLeakTracker";
+
+    private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    // keeps the references reachable until they are cleaned
+    private static final Set<Cleanable> cleanables = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Cleanable, Boolean>()));
+    private static Thread trackerThread;
+
+    private MidiLeakTracker() {
+    }
+
+    /**
+     * The cleanup action of a tracked object
+     */
+    static final class Cleanable extends PhantomReference<Object> {
+        private final String description;
+        private final Runnable cleanup;
+        private final AtomicBoolean cleaned = new AtomicBoolean();
+
+        private Cleanable(final Object referent, final String description, final Runnable cleanup) {
+            super(referent, queue);
+            this.description = description;
+            this.cleanup = cleanup;
+        }
+
+        /**
+         * Runs the cleanup action, if it has not run yet
+         *
+         * @return true if the cleanup action has run by this call
+         */
+        boolean clean() {
+            if (!cleaned.compareAndSet(false, true)) {
+                return false;
+            }
+
+            cleanables.remove(this);
+            clear();
+            cleanup.run();
+            return true;
+        }
+
+        /**
+         * @return true if the cleanup action has run
+         */
+        boolean isCleaned() {
+            return cleaned.get();
+        }
+    }
+
+    /**
+     * Starts tracking the object
+     *
+     * @param referent the object, which must be closed
+     * @param description the description of the object, for the leak warning
+     * @param cleanup the cleanup action, which must not refer to the object
+     * @return the cleanable, to be cleaned when the object is closed
+     */
+    static Cleanable track(final Object referent, final String description, final Runnable cleanup) {
+        final Cleanable cleanable = new Cleanable(referent, description, cleanup);
+        cleanables.add(cleanable);
+        startTrackerThread();
+        return cleanable;
+    }
+
+    private static synchronized void startTrackerThread() {
+        if (trackerThread != null) {
+            return;
+        }
+
+        trackerThread = new Thread("MidiLeakTracker") {
+            @Override
+            public void run() {
+                while (true) {
+                    final Cleanable cleanable;
+                    try {
+                        cleanable = (Cleanable) queue.remove();
+                    } catch (final InterruptedException ignored) {
+                        continue;
+                    }
+
+                    try {
+                        if (cleanable.clean()) {
+                            Log.w(TAG, cleanable.description + " was not closed; call close() when it is no longer used");
+                        }
+                    } catch (final RuntimeException e) {
+                        Log.e(TAG, "cleanup of " + cleanable.description + " failed", e);
+                    }
+                }
+            }
+        };
+        trackerThread.setDaemon(true);
+        trackerThread.start();
+    }
+}
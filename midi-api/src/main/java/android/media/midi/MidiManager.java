@@ -2,30 +2,13 @@ package android.media.midi;
 
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothDevice;
-import android.content.ComponentName;
 import android.content.Context;
-import android.content.Intent;
-import android.content.ServiceConnection;
-import android.hardware.usb.UsbDevice;
-import android.os.Bundle;
 import android.os.Handler;
-import android.os.IBinder;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-
-import jp.kshoji.blemidi.service.BleMidiCentralService;
-import jp.kshoji.blemidi.service.BleMidiPeripheralService;
-import jp.kshoji.blemidi.util.BleUtils;
-import jp.kshoji.driver.midi.device.MidiInputDevice;
-import jp.kshoji.driver.midi.device.MidiOutputDevice;
-import jp.kshoji.driver.midi.listener.OnMidiDeviceAttachedListener;
-import jp.kshoji.driver.midi.listener.OnMidiDeviceDetachedListener;
-import jp.kshoji.driver.midi.service.MultipleMidiService;
-import jp.kshoji.driver.midi.service.MultipleMidiService.LocalBinder;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is the public application interface to the MIDI service.
@@ -37,80 +20,41 @@ import jp.kshoji.driver.midi.service.MultipleMidiService.LocalBinder;
  * MidiManager manager = (MidiManager) getSystemService(Context.MIDI_SERVICE);}
  */
 public final class MidiManager {
-    private MultipleMidiService usbMidiService;
-    private BleMidiCentralService bleMidiCentralService;
-    private BleMidiPeripheralService bleMidiPeripheralService;
-
-    private Map<Object, MidiDeviceInfo> midiDeviceInfos = new HashMap<Object, MidiDeviceInfo>();
-
-    private static volatile int portNumber = 0;
-
-    private final OnMidiDeviceAttachedListener usbMidiDeviceAttachedListener = new OnMidiDeviceAttachedListener() {
-        @Override
-        public void onDeviceAttached(final UsbDevice usbDevice) {
-            // do nothing
-        }
-
-        @Override
-        public synchronized void onMidiInputDeviceAttached(final MidiInputDevice midiInputDevice) {
-            final MidiDeviceInfo midiDeviceInfo = new MidiDeviceInfo(MidiDeviceInfo.TYPE_USB, portNumber, 1, 0,
-            new String[] { midiInputDevice.getDeviceAddress() }, new String[] {}, new Bundle(),
-            false);
-            portNumber++;
-            midiDeviceInfos.put(midiInputDevice, midiDeviceInfo);
-
-            for (final DeviceListener deviceListener : deviceListeners.values()) {
-                deviceListener.onDeviceAdded(midiDeviceInfo);
-            }
-        }
-
+    /** The USB MIDI transport */
+    public static final int TRANSPORT_USB = 1;
+    /** The BLE MIDI transport, connecting to the BLE MIDI peripherals */
+    public static final int TRANSPORT_BLE_CENTRAL = 2;
+    /** The BLE MIDI transport, advertising this device as a BLE MIDI peripheral */
+    public static final int TRANSPORT_BLE_PERIPHERAL = 4;
+    /** The virtual devices, published by the {@link MidiDeviceService}s of this application */
+    public static final int TRANSPORT_VIRTUAL = 8;
+    /** All the transports */
+    public static final int TRANSPORT_ALL = TRANSPORT_USB | TRANSPORT_BLE_CENTRAL | TRANSPORT_BLE_PERIPHERAL | TRANSPORT_VIRTUAL;
+
+    private final MidiTransportConnector transportConnector;
+
+    private final MidiDeviceRegistry deviceRegistry = new MidiDeviceRegistry(new MidiDeviceRegistry.OnDeviceStatusChangedListener() {
         @Override
-        public synchronized void onMidiOutputDeviceAttached(final MidiOutputDevice midiOutputDevice) {
-            final MidiDeviceInfo midiDeviceInfo = new MidiDeviceInfo(MidiDeviceInfo.TYPE_USB, portNumber, 0, 1,
-                    new String[] {}, new String[] { midiOutputDevice.getDeviceAddress() }, new Bundle(),
-                    false);
-            portNumber++;
-            midiDeviceInfos.put(midiOutputDevice, midiDeviceInfo);
-
+        public void onDeviceStatusChanged(final MidiDeviceStatus status) {
             for (final DeviceListener deviceListener : deviceListeners.values()) {
-                deviceListener.onDeviceAdded(midiDeviceInfo);
+                deviceListener.onDeviceStatusChanged(status);
             }
         }
-    };
+    });
 
-    private final OnMidiDeviceDetachedListener usbMidiDeviceDetachedListener = new OnMidiDeviceDetachedListener() {
+    private final MidiTransport.Listener transportListener = new MidiTransport.Listener() {
         @Override
-        public void onDeviceDetached(final UsbDevice usbDevice) {
+        public void onTransportStarted(final MidiTransport transport) {
             // do nothing
         }
 
         @Override
-        public synchronized void onMidiInputDeviceDetached(final MidiInputDevice midiInputDevice) {
-            final MidiDeviceInfo midiDeviceInfo = midiDeviceInfos.remove(midiInputDevice);
-
-            for (final DeviceListener deviceListener : deviceListeners.values()) {
-                deviceListener.onDeviceRemoved(midiDeviceInfo);
-            }
-        }
-
-        @Override
-        public synchronized void onMidiOutputDeviceDetached(final MidiOutputDevice midiOutputDevice) {
-            final MidiDeviceInfo midiDeviceInfo = midiDeviceInfos.remove(midiOutputDevice);
-
-            for (final DeviceListener deviceListener : deviceListeners.values()) {
-                deviceListener.onDeviceRemoved(midiDeviceInfo);
+        public synchronized void onDeviceAttached(final MidiTransportDevice device) {
+            final MidiDeviceInfo midiDeviceInfo = device.createDeviceInfo(deviceRegistry.allocateId());
+            if (midiDeviceInfo == null) {
+                return;
             }
-        }
-    };
-
-    private final jp.kshoji.blemidi.listener.OnMidiDeviceAttachedListener bleMidiDeviceAttachedListener = new jp.kshoji.blemidi.listener.OnMidiDeviceAttachedListener() {
-        @Override
-        public synchronized void onMidiInputDeviceAttached(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            final MidiDeviceInfo midiDeviceInfo = new MidiDeviceInfo(MidiDeviceInfo.TYPE_BLUETOOTH, portNumber, 1, 0,
-                    new String[] { midiInputDevice.getDeviceAddress() }, new String[] {}, new Bundle(),
-                    false);
-            portNumber++;
-            midiDeviceInfos.put(midiInputDevice, midiDeviceInfo);
+            deviceRegistry.add(midiDeviceInfo, device, device.getAddress());
 
             for (final DeviceListener deviceListener : deviceListeners.values()) {
                 deviceListener.onDeviceAdded(midiDeviceInfo);
@@ -118,82 +62,26 @@ public final class MidiManager {
         }
 
         @Override
-        public synchronized void onMidiOutputDeviceAttached(final jp.kshoji.blemidi.device.MidiOutputDevice midiOutputDevice) {
-            final MidiDeviceInfo midiDeviceInfo = new MidiDeviceInfo(MidiDeviceInfo.TYPE_BLUETOOTH, portNumber, 0, 1,
-                    new String[] {}, new String[] { midiOutputDevice.getDeviceAddress() }, new Bundle(),
-                    false);
-            portNumber++;
-            midiDeviceInfos.put(midiOutputDevice, midiDeviceInfo);
-
-            for (final DeviceListener deviceListener : deviceListeners.values()) {
-                deviceListener.onDeviceAdded(midiDeviceInfo);
+        public synchronized void onDeviceDetached(final MidiTransportDevice device) {
+            final MidiDeviceRegistry.Entry entry = deviceRegistry.remove(device);
+            if (entry == null) {
+                return;
             }
-        }
-    };
-
-    private final jp.kshoji.blemidi.listener.OnMidiDeviceDetachedListener bleMidiDeviceDetachedListener = new jp.kshoji.blemidi.listener.OnMidiDeviceDetachedListener() {
-        @Override
-        public synchronized void onMidiInputDeviceDetached(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            final MidiDeviceInfo midiDeviceInfo = midiDeviceInfos.remove(midiInputDevice);
 
             for (final DeviceListener deviceListener : deviceListeners.values()) {
-                deviceListener.onDeviceRemoved(midiDeviceInfo);
+                deviceListener.onDeviceRemoved(entry.deviceInfo);
             }
         }
 
         @Override
-        public synchronized void onMidiOutputDeviceDetached(final jp.kshoji.blemidi.device.MidiOutputDevice midiOutputDevice) {
-            final MidiDeviceInfo midiDeviceInfo = midiDeviceInfos.remove(midiOutputDevice);
-
-            for (final DeviceListener deviceListener : deviceListeners.values()) {
-                deviceListener.onDeviceRemoved(midiDeviceInfo);
+        public void onDeviceReset(final MidiTransportDevice device) {
+            final MidiDeviceRegistry.Entry entry = deviceRegistry.getByDevice(device);
+            if (entry != null) {
+                entry.releaseSharedDevice();
             }
         }
     };
 
-    private final ServiceConnection usbMidiServiceConnection = new ServiceConnection(){
-        @Override
-        public void onServiceConnected(final ComponentName name, final IBinder service) {
-            usbMidiService = ((LocalBinder)service).getService();
-            usbMidiService.setOnMidiDeviceAttachedListener(usbMidiDeviceAttachedListener);
-            usbMidiService.setOnMidiDeviceDetachedListener(usbMidiDeviceDetachedListener);
-        }
-
-        @Override
-        public void onServiceDisconnected(final ComponentName name) {
-            usbMidiService = null;
-        }
-    };
-
-    private final ServiceConnection bleMidiCentralServiceConnection = new ServiceConnection() {
-        @Override
-        public void onServiceConnected(final ComponentName name, final IBinder service) {
-            bleMidiCentralService = ((BleMidiCentralService.LocalBinder)service).getService();
-            bleMidiCentralService.setOnMidiDeviceAttachedListener(bleMidiDeviceAttachedListener);
-            bleMidiCentralService.setOnMidiDeviceDetachedListener(bleMidiDeviceDetachedListener);
-        }
-
-        @Override
-        public void onServiceDisconnected(final ComponentName name) {
-            bleMidiCentralService = null;
-        }
-    };
-
-    private final ServiceConnection bleMidiPeripheralServiceConnection = new ServiceConnection() {
-        @Override
-        public void onServiceConnected(final ComponentName name, final IBinder service) {
-            bleMidiPeripheralService = ((BleMidiPeripheralService.LocalBinder)service).getService();
-            bleMidiPeripheralService.setOnMidiDeviceAttachedListener(bleMidiDeviceAttachedListener);
-            bleMidiPeripheralService.setOnMidiDeviceDetachedListener(bleMidiDeviceDetachedListener);
-        }
-
-        @Override
-        public void onServiceDisconnected(final ComponentName name) {
-            bleMidiPeripheralService = null;
-        }
-    };
-
-
     /**
      * Intent for starting BluetoothMidiService
      * @hide
@@ -214,56 +102,114 @@ public final class MidiManager {
 
     private final Map<DeviceCallback, DeviceListener> deviceListeners = new ConcurrentHashMap<DeviceCallback,DeviceListener>();
 
-    // Binder stub for receiving device notifications from MidiService
-    private class DeviceListener {
+    /** How long the device changes are collected before they are delivered at once */
+    private static final long DEVICE_CHANGES_WINDOW_MILLIS = 16;
+    private static final MidiDeviceInfo[] EMPTY_DEVICE_INFOS = new MidiDeviceInfo[0];
+    private static final MidiDeviceStatus[] EMPTY_DEVICE_STATUSES = new MidiDeviceStatus[0];
+
+    /**
+     * Delivers the device changes to a callback.
+     *
+     * With a handler, the changes arriving within {@link #DEVICE_CHANGES_WINDOW_MILLIS} are collected,
+     * and one reused Runnable delivers them at once, so attaching many devices doesn't flood the looper.
+     */
+    private static final class DeviceListener implements Runnable {
         private final DeviceCallback callback;
         private final Handler handler;
 
-        public DeviceListener(final DeviceCallback callback, final Handler handler) {
+        // keyed by device id, in arrival order
+        private final Map<Integer, MidiDeviceInfo> addedDevices = new LinkedHashMap<Integer, MidiDeviceInfo>();
+        private final Map<Integer, MidiDeviceInfo> removedDevices = new LinkedHashMap<Integer, MidiDeviceInfo>();
+        private final Map<Integer, MidiDeviceStatus> deviceStatuses = new LinkedHashMap<Integer, MidiDeviceStatus>();
+        private boolean posted;
+
+        DeviceListener(final DeviceCallback callback, final Handler handler) {
             this.callback = callback;
             this.handler = handler;
         }
 
         @SuppressLint("NewApi")
-        public void onDeviceAdded(final MidiDeviceInfo device) {
-            if (handler != null) {
-                handler.post(new Runnable() {
-                    @SuppressLint("NewApi")
-                    @Override public void run() {
-                        callback.onDeviceAdded(device);
-                    }
-                });
-            } else {
-                callback.onDeviceAdded(device);
+        void onDeviceAdded(final MidiDeviceInfo device) {
+            if (handler == null) {
+                callback.onDevicesChanged(new MidiDeviceChanges(new MidiDeviceInfo[] { device }, EMPTY_DEVICE_INFOS, EMPTY_DEVICE_STATUSES));
+                return;
+            }
+
+            synchronized (this) {
+                addedDevices.put(device.getId(), device);
+                postLocked();
             }
         }
 
         @SuppressLint("NewApi")
-        public void onDeviceRemoved(final MidiDeviceInfo device) {
-            if (handler != null) {
-                handler.post(new Runnable() {
-                    @SuppressLint("NewApi")
-                    @Override public void run() {
-                        callback.onDeviceRemoved(device);
-                    }
-                });
-            } else {
-                callback.onDeviceRemoved(device);
+        void onDeviceRemoved(final MidiDeviceInfo device) {
+            if (handler == null) {
+                callback.onDevicesChanged(new MidiDeviceChanges(EMPTY_DEVICE_INFOS, new MidiDeviceInfo[] { device }, EMPTY_DEVICE_STATUSES));
+                return;
+            }
+
+            synchronized (this) {
+                deviceStatuses.remove(device.getId());
+                // the callback hasn't seen the device yet
+                if (addedDevices.remove(device.getId()) == null) {
+                    removedDevices.put(device.getId(), device);
+                }
+                postLocked();
             }
         }
 
         @SuppressLint("NewApi")
-        public void onDeviceStatusChanged(final MidiDeviceStatus status) {
-            if (handler != null) {
-                handler.post(new Runnable() {
-                    @SuppressLint("NewApi")
-                    @Override public void run() {
-                        callback.onDeviceStatusChanged(status);
-                    }
-                });
-            } else {
-                callback.onDeviceStatusChanged(status);
+        void onDeviceStatusChanged(final MidiDeviceStatus status) {
+            if (handler == null) {
+                callback.onDevicesChanged(new MidiDeviceChanges(EMPTY_DEVICE_INFOS, EMPTY_DEVICE_INFOS, new MidiDeviceStatus[] { status }));
+                return;
+            }
+
+            synchronized (this) {
+                // keeps only the latest status of the device
+                deviceStatuses.remove(status.getDeviceInfo().getId());
+                deviceStatuses.put(status.getDeviceInfo().getId(), status);
+                postLocked();
+            }
+        }
+
+        private void postLocked() {
+            if (!posted) {
+                posted = true;
+                handler.postDelayed(this, DEVICE_CHANGES_WINDOW_MILLIS);
+            }
+        }
+
+        @SuppressLint("NewApi")
+        @Override
+        public void run() {
+            final MidiDeviceChanges changes;
+            synchronized (this) {
+                posted = false;
+                changes = new MidiDeviceChanges(addedDevices.values().toArray(EMPTY_DEVICE_INFOS),
+                        removedDevices.values().toArray(EMPTY_DEVICE_INFOS),
+                        deviceStatuses.values().toArray(EMPTY_DEVICE_STATUSES));
+                addedDevices.clear();
+                removedDevices.clear();
+                deviceStatuses.clear();
+            }
+
+            if (changes.size() > 0) {
+                callback.onDevicesChanged(changes);
+            }
+        }
+
+        /**
+         * Drops the changes not delivered yet
+         */
+        synchronized void cancel() {
+            if (posted) {
+                posted = false;
+                handler.removeCallbacks(this);
             }
+            addedDevices.clear();
+            removedDevices.clear();
+            deviceStatuses.clear();
         }
     }
 
@@ -294,6 +240,25 @@ public final class MidiManager {
          */
         public void onDeviceStatusChanged(final MidiDeviceStatus status) {
         }
+
+        /**
+         * Called to notify the device changes collected within a short window, at once.
+         * The default implementation calls {@link #onDeviceRemoved}, {@link #onDeviceAdded} and {@link #onDeviceStatusChanged}
+         * for each change; override this to handle many changes in one pass.
+         *
+         * @param changes a {@link MidiDeviceChanges} summarizing the changes
+         */
+        public void onDevicesChanged(final MidiDeviceChanges changes) {
+            for (final MidiDeviceInfo device : changes.getRemovedDevices()) {
+                onDeviceRemoved(device);
+            }
+            for (final MidiDeviceInfo device : changes.getAddedDevices()) {
+                onDeviceAdded(device);
+            }
+            for (final MidiDeviceStatus status : changes.getDeviceStatuses()) {
+                onDeviceStatusChanged(status);
+            }
+        }
     }
 
     /**
@@ -310,21 +275,64 @@ public final class MidiManager {
     }
 
     MidiManager(final Context context) {
-        Intent intent = new Intent(context, MultipleMidiService.class);
-        context.startService(intent);
-        context.bindService(intent, usbMidiServiceConnection, Context.BIND_AUTO_CREATE);
-
-        if (BleUtils.isBleSupported(context) && BleUtils.isBluetoothEnabled(context)) {
-            intent = new Intent(context, BleMidiCentralService.class);
-            context.startService(intent);
-            context.bindService(intent, bleMidiCentralServiceConnection, Context.BIND_AUTO_CREATE);
-
-            if (BleUtils.isBlePeripheralSupported(context)) {
-                intent = new Intent(context, BleMidiPeripheralService.class);
-                context.startService(intent);
-                context.bindService(intent, bleMidiPeripheralServiceConnection, Context.BIND_AUTO_CREATE);
-            }
-        }
+        this(createTransports(context.getApplicationContext()));
+    }
+
+    /**
+     * Creates the manager of the devices of the transports, such as a {@link LoopbackMidiTransport} for load tests
+     *
+     * @param transports the transports
+     */
+    /* package */ MidiManager(final MidiTransport[] transports) {
+        transportConnector = new MidiTransportConnector(transports, transportListener);
+    }
+
+    private static MidiTransport[] createTransports(final Context context) {
+        final MidiTransport[] driverTransports = MidiTransportConnector.createDriverTransports(context);
+        final MidiTransport[] transports = new MidiTransport[driverTransports.length + 1];
+        System.arraycopy(driverTransports, 0, transports, 0, driverTransports.length);
+        transports[driverTransports.length] = new VirtualMidiTransport(context);
+        return transports;
+    }
+
+    /**
+     * Selects the transports to bring up. All the transports are enabled by default.
+     * An enabled transport is started at the first time a device callback is registered, the devices are listed,
+     * or a device of the transport is opened. The started transports which are no longer enabled are stopped.
+     *
+     * @param transports the combination of TRANSPORT_* flags
+     */
+    public void setEnabledTransports(final int transports) {
+        transportConnector.setEnabledTransports(transports);
+    }
+
+    /**
+     * Returns the transports to bring up
+     *
+     * @return the combination of TRANSPORT_* flags
+     */
+    public int getEnabledTransports() {
+        return transportConnector.getEnabledTransports();
+    }
+
+    /**
+     * Returns the time taken to start a transport, from starting its service until its devices can be reported
+     *
+     * @param transport one of TRANSPORT_* flags
+     * @return the time in milliseconds, -1 if the transport hasn't been started yet
+     */
+    public long getTransportStartupTimeMillis(final int transport) {
+        final long nanos = transportConnector.getStartupNanos(transport);
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Starts the enabled transports of the ones specified, if not started yet
+     *
+     * @param transports the combination of TRANSPORT_* flags
+     */
+    private void startTransports(final int transports) {
+        transportConnector.start(transports);
     }
 
     /**
@@ -338,6 +346,7 @@ public final class MidiManager {
     public void registerDeviceCallback(final DeviceCallback callback, final Handler handler) {
         final DeviceListener deviceListener = new DeviceListener(callback, handler);
         deviceListeners.put(callback, deviceListener);
+        startTransports(TRANSPORT_ALL);
     }
 
     /**
@@ -346,17 +355,32 @@ public final class MidiManager {
      * @param callback a {@link DeviceCallback} to unregister
      */
     public void unregisterDeviceCallback(final DeviceCallback callback) {
-        deviceListeners.remove(callback);
+        final DeviceListener deviceListener = deviceListeners.remove(callback);
+        if (deviceListener != null) {
+            deviceListener.cancel();
+        }
     }
 
     /**
      * Gets the list of all connected MIDI devices.
+     * Each call returns a new array, which the caller may modify, so polling this allocates on every call.
+     * Use {@link #getDeviceCount()} to poll without allocating, or a {@link DeviceCallback} to follow the changes.
      *
      * @return an array of all MIDI devices
      */
     public MidiDeviceInfo[] getDevices() {
-        final Collection<MidiDeviceInfo> deviceInfos = midiDeviceInfos.values();
-        return deviceInfos.toArray(new MidiDeviceInfo[deviceInfos.size()]);
+        startTransports(TRANSPORT_ALL);
+        return deviceRegistry.getDeviceInfos().clone();
+    }
+
+    /**
+     * Gets the number of connected MIDI devices, without allocating
+     *
+     * @return the number of MIDI devices
+     */
+    public int getDeviceCount() {
+        startTransports(TRANSPORT_ALL);
+        return deviceRegistry.getDeviceCount();
     }
 
     @SuppressLint("NewApi")
@@ -384,32 +408,33 @@ public final class MidiManager {
      *                listener is unspecified.
      */
     public void openDevice(final MidiDeviceInfo deviceInfo, final OnDeviceOpenedListener listener, final Handler handler) {
-        Object device = null;
-        for (final Entry<Object, MidiDeviceInfo> entry : midiDeviceInfos.entrySet()) {
-            if (entry.getValue() == deviceInfo) {
-                device = entry.getKey();
+        switch (deviceInfo.getType()) {
+            case MidiDeviceInfo.TYPE_USB:
+                startTransports(TRANSPORT_USB);
+                break;
+            case MidiDeviceInfo.TYPE_BLUETOOTH:
+                startTransports(TRANSPORT_BLE_CENTRAL | TRANSPORT_BLE_PERIPHERAL);
+                break;
+            case MidiDeviceInfo.TYPE_VIRTUAL:
+                startTransports(TRANSPORT_VIRTUAL);
+                break;
+            default:
                 break;
-            }
         }
 
-        if (device == null) {
+        final MidiDeviceRegistry.Entry entry = deviceRegistry.getById(deviceInfo.getId());
+        if (entry == null) {
+            sendOpenDeviceResponse(null, listener, handler);
             return;
         }
 
-        MidiDevice midiDevice = null;
-        if (device instanceof MidiInputDevice) {
-            midiDevice = new MidiDevice(deviceInfo, (MidiInputDevice) device);
-        } else if (device instanceof MidiOutputDevice) {
-            midiDevice = new MidiDevice(deviceInfo, (MidiOutputDevice) device);
-        } else if (device instanceof jp.kshoji.blemidi.device.MidiInputDevice) {
-            midiDevice = new MidiDevice(deviceInfo, (jp.kshoji.blemidi.device.MidiInputDevice) device);
-        } else if (device instanceof jp.kshoji.blemidi.device.MidiOutputDevice) {
-            midiDevice = new MidiDevice(deviceInfo, (jp.kshoji.blemidi.device.MidiOutputDevice) device);
-        }
-
-        if (midiDevice != null) {
-            sendOpenDeviceResponse(midiDevice, listener, handler);
-        }
+        entry.device.open(new MidiTransportDevice.OnOpenedListener() {
+            @Override
+            public void onOpened(final boolean opened) {
+                final SharedMidiDevice sharedDevice = opened ? entry.getSharedDevice() : null;
+                sendOpenDeviceResponse(sharedDevice == null ? null : new MidiDevice(entry.deviceInfo, sharedDevice), listener, handler);
+            }
+        });
     }
 
     /**
@@ -423,24 +448,14 @@ public final class MidiManager {
      *                listener is unspecified.
      */
     public void openBluetoothDevice(final BluetoothDevice bluetoothDevice, final OnDeviceOpenedListener listener, final Handler handler) {
-        for (final Object device : midiDeviceInfos.keySet()) {
-            if (device != null) {
-                if (device instanceof jp.kshoji.blemidi.device.MidiInputDevice) {
-                    final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice = (jp.kshoji.blemidi.device.MidiInputDevice) device;
-                    if (midiInputDevice.getDeviceAddress().equals(bluetoothDevice.getAddress())) {
-                        final MidiDevice midiDevice = new MidiDevice(midiDeviceInfos.get(device), midiInputDevice);
-                        sendOpenDeviceResponse(midiDevice, listener, handler);
-                        break;
-                    }
-                } else if (device instanceof jp.kshoji.blemidi.device.MidiOutputDevice) {
-                    final jp.kshoji.blemidi.device.MidiOutputDevice midiOutputDevice = (jp.kshoji.blemidi.device.MidiOutputDevice) device;
-                    if (midiOutputDevice.getDeviceAddress().equals(bluetoothDevice.getAddress())) {
-                        final MidiDevice midiDevice = new MidiDevice(midiDeviceInfos.get(device), midiOutputDevice);
-                        sendOpenDeviceResponse(midiDevice, listener, handler);
-                        break;
-                    }
-                }
+        startTransports(TRANSPORT_BLE_CENTRAL | TRANSPORT_BLE_PERIPHERAL);
+        for (final MidiDeviceRegistry.Entry entry : deviceRegistry.getByAddress(bluetoothDevice.getAddress())) {
+            final SharedMidiDevice sharedDevice = entry.getSharedDevice();
+            if (sharedDevice != null) {
+                sendOpenDeviceResponse(new MidiDevice(entry.deviceInfo, sharedDevice), listener, handler);
+                return;
             }
         }
+        sendOpenDeviceResponse(null, listener, handler);
     }
 }
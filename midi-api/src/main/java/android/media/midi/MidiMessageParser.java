@@ -0,0 +1,189 @@
+package android.media.midi;
+
+/**
+ * Splits a stream of raw MIDI bytes into discrete messages.
+ *
+ * Resolves Running Status and System Real-Time messages interleaved with other messages or System Exclusive.
+ * The parser state is kept between calls, so a message may be split across several calls of {@link #parse}.
+ * Not thread safe.
+ */
+/* package */ final class MidiMessageParser {
+
+    /**
+     * Receives the parsed messages
+     */
+    interface OnMessageParsedListener {
+        /**
+         * Called when a complete channel, system common or system real-time message has been parsed
+         *
+         * @param message the message, only valid within the context of this call
+         * @param count the length of the message, 1 to 3
+         * @param timestamp the timestamp passed to {@link #parse}
+         */
+        void onMessageParsed(byte[] message, int count, long timestamp);
+
+        /**
+         * Called when a complete System Exclusive message, from 0xf0 to 0xf7, has been parsed
+         *
+         * @param data the array containing the message, only valid within the context of this call
+         * @param offset the offset of 0xf0 in the array
+         * @param count the length of the message including 0xf0 and 0xf7
+         * @param timestamp the timestamp passed to {@link #parse}
+         */
+        void onSystemExclusiveParsed(byte[] data, int offset, int count, long timestamp);
+    }
+
+    /** Number of bytes in a message nc from 8c to Ec */
+    private static final int CHANNEL_BYTE_LENGTHS[] = { 3, 3, 3, 3, 2, 2, 3 };
+
+    /** Number of bytes in a message Fn from F0 to FF */
+    private static final int SYSTEM_BYTE_LENGTHS[] = { 1, 2, 3, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 };
+
+    private final OnMessageParsedListener listener;
+
+    private final byte[] messageBuffer = new byte[3];
+    private final byte[] realTimeBuffer = new byte[1];
+    private int messageCount;
+    private int messageNeeded;
+    private byte runningStatus;
+
+    private boolean inSystemExclusive;
+    private byte[] systemExclusiveBuffer = new byte[64];
+    private int systemExclusiveCount;
+
+    MidiMessageParser(final OnMessageParsedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the length of the message which starts with the status byte
+     *
+     * @param statusByte the status byte
+     * @return number of bytes in a complete message, 0 if a data byte passed, 1 for System Exclusive
+     */
+    static int getMessageLength(final int statusByte) {
+        final int status = statusByte & 0xff;
+        if (status >= 0xf0) {
+            return SYSTEM_BYTE_LENGTHS[status & 0x0f];
+        } else if (status >= 0x80) {
+            return CHANNEL_BYTE_LENGTHS[(status >> 4) - 8];
+        }
+        return 0;
+    }
+
+    /**
+     * Discards any partially parsed message and the Running Status
+     */
+    void reset() {
+        messageCount = 0;
+        messageNeeded = 0;
+        runningStatus = 0;
+        inSystemExclusive = false;
+        systemExclusiveCount = 0;
+    }
+
+    /**
+     * Parses the bytes, calling the listener for each complete message
+     *
+     * @param data the array containing the MIDI bytes
+     * @param offset the offset of the first byte to be parsed
+     * @param count the number of bytes to be parsed
+     * @param timestamp the timestamp passed to the listener
+     */
+    void parse(final byte[] data, final int offset, final int count, final long timestamp) {
+        // start of the System Exclusive bytes within data which have not been buffered yet
+        int systemExclusiveStart = offset;
+        final int end = offset + count;
+
+        for (int i = offset; i < end; i++) {
+            final byte currentByte = data[i];
+            final int currentInt = currentByte & 0xff;
+
+            if (currentInt >= 0xf8) {
+                // System Real-Time: may appear anywhere, doesn't affect the other states
+                if (inSystemExclusive) {
+                    appendSystemExclusive(data, systemExclusiveStart, i - systemExclusiveStart);
+                    systemExclusiveStart = i + 1;
+                }
+                realTimeBuffer[0] = currentByte;
+                listener.onMessageParsed(realTimeBuffer, 1, timestamp);
+                continue;
+            }
+
+            if (inSystemExclusive) {
+                if (currentInt == 0xf7) {
+                    inSystemExclusive = false;
+                    if (systemExclusiveCount == 0) {
+                        // whole message within data: no copy
+                        listener.onSystemExclusiveParsed(data, systemExclusiveStart, i - systemExclusiveStart + 1, timestamp);
+                    } else {
+                        appendSystemExclusive(data, systemExclusiveStart, i - systemExclusiveStart + 1);
+                        listener.onSystemExclusiveParsed(systemExclusiveBuffer, 0, systemExclusiveCount, timestamp);
+                        systemExclusiveCount = 0;
+                    }
+                    continue;
+                } else if (currentInt < 0x80) {
+                    continue;
+                }
+
+                // other status byte: the System Exclusive was not terminated, discard it
+                inSystemExclusive = false;
+                systemExclusiveCount = 0;
+            }
+
+            if (currentInt >= 0x80) {
+                if (currentInt == 0xf0) {
+                    inSystemExclusive = true;
+                    systemExclusiveStart = i;
+                    systemExclusiveCount = 0;
+                    runningStatus = 0;
+                    messageNeeded = 0;
+                } else if (currentInt == 0xf7) {
+                    // End of Exclusive without start: ignored
+                    runningStatus = 0;
+                    messageNeeded = 0;
+                } else {
+                    // System Common cancels Running Status
+                    runningStatus = currentInt < 0xf0 ? currentByte : 0;
+                    messageBuffer[0] = currentByte;
+                    messageCount = 1;
+                    messageNeeded = getMessageLength(currentInt) - 1;
+                    if (messageNeeded == 0) {
+                        listener.onMessageParsed(messageBuffer, 1, timestamp);
+                    }
+                }
+            } else {
+                // data byte
+                if (messageNeeded == 0) {
+                    if (runningStatus == 0) {
+                        // no status to apply to: ignored
+                        continue;
+                    }
+                    messageBuffer[0] = runningStatus;
+                    messageCount = 1;
+                    messageNeeded = getMessageLength(runningStatus) - 1;
+                }
+
+                messageBuffer[messageCount++] = currentByte;
+                if (--messageNeeded == 0) {
+                    listener.onMessageParsed(messageBuffer, messageCount, timestamp);
+                }
+            }
+        }
+
+        // keep the unfinished System Exclusive for the next call
+        if (inSystemExclusive) {
+            appendSystemExclusive(data, systemExclusiveStart, end - systemExclusiveStart);
+        }
+    }
+
+    private void appendSystemExclusive(final byte[] data, final int offset, final int count) {
+        if (systemExclusiveCount + count > systemExclusiveBuffer.length) {
+            final byte[] buffer = new byte[Math.max(systemExclusiveBuffer.length * 2, systemExclusiveCount + count)];
+            System.arraycopy(systemExclusiveBuffer, 0, buffer, 0, systemExclusiveCount);
+            systemExclusiveBuffer = buffer;
+        }
+        System.arraycopy(data, offset, systemExclusiveBuffer, systemExclusiveCount, count);
+        systemExclusiveCount += count;
+    }
+}
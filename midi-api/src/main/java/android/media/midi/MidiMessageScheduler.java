@@ -0,0 +1,281 @@
+package android.media.midi;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds messages with a future timestamp, and passes them to the listener at their timestamp.
+ *
+ * Messages without a timestamp (0) or already due are passed immediately on the calling thread,
+ * unless earlier messages are still pending or being passed by the scheduler thread:
+ * in that case they are queued to keep the order, and the listener is never called concurrently.
+ * Messages with the same timestamp are passed in the order they were scheduled.
+ *
+ * The scheduler thread sleeps until shortly before the deadline, then spins, for sub-millisecond accuracy.
+ * It is started when the first message is queued.
+ * A listener failing with a RuntimeException, such as a write to a detached device, is logged, and the next messages are still passed.
+ */
+/* package */ final class MidiMessageScheduler implements MidiMessageParser.OnMessageParsedListener {
+    private static final String TAG = "MidiMessageScheduler";
+    // wake up this much earlier than the deadline, and spin for the rest
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    private static final int MAX_POOL_SIZE = 256;
+
+    /**
+     * Listener for the messages, at their timestamp
+     */
+    interface Listener {
+        /**
+         * Called when a channel, system common or system real-time message is due
+         *
+         * @param message the message, only valid within the context of this call
+         * @param count the length of the message, 1 to 3
+         * @param timestamp the timestamp of the message
+         * @param sendNanos the {@link System#nanoTime()} when a held message was sent, 0 when the message is passed on the sending thread
+         */
+        void onMessageDue(byte[] message, int count, long timestamp, long sendNanos);
+
+        /**
+         * Called when a System Exclusive message is due
+         *
+         * @param data the array containing the message, only valid within the context of this call
+         * @param offset the offset of 0xf0 in the array
+         * @param count the length of the message including 0xf0 and 0xf7
+         * @param timestamp the timestamp of the message
+         * @param sendNanos the {@link System#nanoTime()} when a held message was sent, 0 when the message is passed on the sending thread
+         */
+        void onSystemExclusiveDue(byte[] data, int offset, int count, long timestamp, long sendNanos);
+    }
+
+    private static final class ScheduledMessage {
+        long timestamp;
+        long sendNanos;
+        long sequence;
+        byte[] data;
+        int count;
+        boolean systemExclusive;
+    }
+
+    private static final Comparator<ScheduledMessage> TIMESTAMP_ORDER = new Comparator<ScheduledMessage>() {
+        @Override
+        public int compare(final ScheduledMessage lhs, final ScheduledMessage rhs) {
+            if (lhs.timestamp != rhs.timestamp) {
+                return lhs.timestamp < rhs.timestamp ? -1 : 1;
+            }
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    };
+
+    private final Listener listener;
+    private final String threadName;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queueChanged = lock.newCondition();
+    private final PriorityQueue<ScheduledMessage> queue = new PriorityQueue<ScheduledMessage>(64, TIMESTAMP_ORDER);
+    private final ArrayDeque<ScheduledMessage> pool = new ArrayDeque<ScheduledMessage>();
+    private long sequence;
+    // true while the scheduler thread is passing a message to the listener
+    private boolean inFlight;
+
+    private Thread schedulerThread;
+    private boolean closed;
+
+    /**
+     * @param listener the listener receiving the messages at their timestamp
+     * @param threadName the name of the scheduler thread
+     */
+    MidiMessageScheduler(final Listener listener, final String threadName) {
+        this.listener = listener;
+        this.threadName = threadName;
+    }
+
+    @Override
+    public void onMessageParsed(final byte[] message, final int count, final long timestamp) {
+        if (!schedule(message, 0, count, timestamp, false)) {
+            listener.onMessageDue(message, count, timestamp, 0);
+        }
+    }
+
+    @Override
+    public void onSystemExclusiveParsed(final byte[] data, final int offset, final int count, final long timestamp) {
+        if (!schedule(data, offset, count, timestamp, true)) {
+            listener.onSystemExclusiveDue(data, offset, count, timestamp, 0);
+        }
+    }
+
+    /**
+     * Queues the message if it must wait
+     *
+     * @return false if the message should be passed immediately
+     */
+    private boolean schedule(final byte[] data, final int offset, final int count, final long timestamp, final boolean systemExclusive) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (queue.isEmpty() && !inFlight && (timestamp == 0 || timestamp <= System.nanoTime())) {
+                return false;
+            }
+
+            ScheduledMessage scheduledMessage = pool.poll();
+            if (scheduledMessage == null) {
+                scheduledMessage = new ScheduledMessage();
+            }
+            if (scheduledMessage.data == null || scheduledMessage.data.length < count) {
+                scheduledMessage.data = new byte[Math.max(count, 3)];
+            }
+            System.arraycopy(data, offset, scheduledMessage.data, 0, count);
+            scheduledMessage.count = count;
+            scheduledMessage.timestamp = timestamp;
+            scheduledMessage.sendNanos = System.nanoTime();
+            scheduledMessage.sequence = sequence++;
+            scheduledMessage.systemExclusive = systemExclusive;
+
+            final ScheduledMessage head = queue.peek();
+            queue.add(scheduledMessage);
+            if (schedulerThread == null) {
+                schedulerThread = new SchedulerThread();
+                schedulerThread.start();
+            } else if (head == null || TIMESTAMP_ORDER.compare(scheduledMessage, head) < 0) {
+                queueChanged.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards all the pending messages
+     */
+    void flush() {
+        lock.lock();
+        try {
+            ScheduledMessage scheduledMessage;
+            while ((scheduledMessage = queue.poll()) != null) {
+                recycle(scheduledMessage);
+            }
+            queueChanged.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards all the pending messages, and stops the scheduler thread
+     */
+    void close() {
+        final Thread thread;
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            pool.clear();
+            thread = schedulerThread;
+            schedulerThread = null;
+            queueChanged.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+
+    // Caller must hold the lock.
+    private void recycle(final ScheduledMessage scheduledMessage) {
+        if (!scheduledMessage.systemExclusive && pool.size() < MAX_POOL_SIZE) {
+            pool.add(scheduledMessage);
+        }
+    }
+
+    private final class SchedulerThread extends Thread {
+        SchedulerThread() {
+            super(threadName);
+            setDaemon(true);
+            setPriority(MAX_PRIORITY);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final ScheduledMessage scheduledMessage = waitNextMessage();
+                    if (scheduledMessage == null) {
+                        return;
+                    }
+
+                    try {
+                        if (scheduledMessage.systemExclusive) {
+                            listener.onSystemExclusiveDue(scheduledMessage.data, 0, scheduledMessage.count, scheduledMessage.timestamp, scheduledMessage.sendNanos);
+                        } else {
+                            listener.onMessageDue(scheduledMessage.data, scheduledMessage.count, scheduledMessage.timestamp, scheduledMessage.sendNanos);
+                        }
+                    } catch (final RuntimeException e) {
+                        Log.e(TAG, "failed to pass a scheduled message", e);
+                    } finally {
+                        lock.lock();
+                        try {
+                            inFlight = false;
+                            recycle(scheduledMessage);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            } catch (final InterruptedException ignored) {
+                // closed
+            }
+        }
+
+        /**
+         * Waits until the earliest message is due, and marks it in flight
+         *
+         * @return the message, null if closed
+         * @throws InterruptedException
+         */
+        private ScheduledMessage waitNextMessage() throws InterruptedException {
+            while (true) {
+                final long deadline;
+                lock.lockInterruptibly();
+                try {
+                    if (closed) {
+                        return null;
+                    }
+
+                    final ScheduledMessage head = queue.peek();
+                    if (head == null) {
+                        queueChanged.await();
+                        continue;
+                    }
+
+                    final long nanosToWait = head.timestamp - System.nanoTime();
+                    if (nanosToWait <= 0) {
+                        inFlight = true;
+                        return queue.poll();
+                    }
+                    if (nanosToWait > SPIN_NANOS) {
+                        queueChanged.awaitNanos(nanosToWait - SPIN_NANOS);
+                        continue;
+                    }
+                    deadline = head.timestamp;
+                } finally {
+                    lock.unlock();
+                }
+
+                // close to the deadline: spin without the lock
+                while (System.nanoTime() < deadline) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+}
@@ -4,14 +4,19 @@ import android.annotation.SuppressLint;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
-
-import jp.kshoji.driver.midi.device.MidiInputDevice;
-import jp.kshoji.driver.midi.listener.OnMidiInputEventListener;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class is used for receiving data from a port on a MIDI device
+ *
+ * Any number of ports may be opened for the same port number; each of them receives all the messages.
+ * Every message is delivered with the {@link System#nanoTime} at which the driver callback received it,
+ * so receivers can schedule against the arrival time rather than the delivery time.
+ * The BLE MIDI driver doesn't expose the packet timestamp to the listener, so BLE messages carry the callback time as well.
+ *
+ * Receivers are called on the driver thread. A receiver connected with {@link #connect(MidiReceiver, int, int)}
+ * is called on its own thread instead, through a bounded queue, so it can't hold up reading from the device.
  */
 @SuppressLint("NewApi")
 public final class MidiOutputPort extends MidiSender implements Closeable {
@@ -19,27 +24,54 @@ public final class MidiOutputPort extends MidiSender implements Closeable {
 
     private static final String TAG = "MidiOutputPort";
 
-    private static volatile int portNumber = 0;
+    /**
+     * Overflow policy: the driver thread waits until the receiver has taken a message from the queue
+     */
+    public static final int OVERFLOW_BLOCK = 0;
 
-    private final int myPortNumber;
-    private Set<MidiReceiver> receivers = new HashSet<MidiReceiver>();
-    private final MidiInputDevice usbMidiInputDevice;
-    private final jp.kshoji.blemidi.device.MidiInputDevice bleMidiInputDevice;
+    /**
+     * Overflow policy: the oldest queued message is dropped
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+
+    /**
+     * Overflow policy: the new message is dropped
+     */
+    public static final int OVERFLOW_DROP_NEWEST = 2;
+
+    /**
+     * Overflow policy: a Control Change, Pitch Bend or pressure message replaces the value of the queued message
+     * of the same controller; other messages, and controllers not queued, are dropped
+     */
+    public static final int OVERFLOW_COALESCE_CONTROLLERS = 3;
 
-    /* package */ MidiOutputPort(final MidiInputDevice midiInputDevice) {
-        usbMidiInputDevice = midiInputDevice;
-        bleMidiInputDevice = null;
-        myPortNumber = portNumber++;
+    private final int myPortNumber;
+    private final MidiReceiverList receivers = new MidiReceiverList();
+    // the queues of the receivers connected with a queue
+    private final Map<MidiReceiver, MidiReceiverQueue> queues = new HashMap<MidiReceiver, MidiReceiverQueue>();
+    private final MidiLeakTracker.Cleanable cleanable;
+    private volatile MidiPortStatsRecorder statsRecorder;
 
-        usbMidiInputDevice.setMidiEventListener(usbMidiInputEventListener);
+    /**
+     * Opens an output port of the device
+     *
+     * @param sharedDevice the device
+     * @param portNumber the port number, which is the cable number of a USB MIDI device
+     * @return the port, null if the device is closed or has no such port
+     */
+    /* package */ static MidiOutputPort open(final SharedMidiDevice sharedDevice, final int portNumber) {
+        final MidiInputDispatcher inputDispatcher = sharedDevice.acquireInputDispatcher(portNumber);
+        if (inputDispatcher == null) {
+            return null;
+        }
+        return new MidiOutputPort(sharedDevice, inputDispatcher, portNumber);
     }
 
-    /* package */ MidiOutputPort(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-        usbMidiInputDevice = null;
-        bleMidiInputDevice = midiInputDevice;
-        myPortNumber = portNumber++;
+    private MidiOutputPort(final SharedMidiDevice sharedDevice, final MidiInputDispatcher inputDispatcher, final int portNumber) {
+        myPortNumber = portNumber;
 
-        bleMidiInputDevice.setOnMidiInputEventListener(bleMidiInputEventListener);
+        inputDispatcher.addReceivers(portNumber, receivers);
+        cleanable = MidiLeakTracker.track(this, "MidiOutputPort[" + portNumber + "]", new Cleanup(sharedDevice, inputDispatcher, receivers, queues, portNumber));
     }
 
     /**
@@ -51,288 +83,165 @@ public final class MidiOutputPort extends MidiSender implements Closeable {
         return myPortNumber;
     }
 
-    @SuppressLint("Override")
-    @Override
-    public void onConnect(final MidiReceiver receiver) {
-        receivers.add(receiver);
-    }
-
-    @SuppressLint("Override")
-    @Override
-    public void onDisconnect(final MidiReceiver receiver) {
-        receivers.remove(receiver);
-    }
-
-    @Override
-    public void close() throws IOException {
-        if (usbMidiInputDevice != null) {
-            usbMidiInputDevice.setMidiEventListener(null);
-        }
-        if (bleMidiInputDevice != null) {
-            bleMidiInputDevice.setOnMidiInputEventListener(null);
-        }
+    /**
+     * Enables or disables the statistics of this port. Disabled by default.
+     * Enabling them again starts new counters.
+     *
+     * @param enabled true to count the messages received and their latencies
+     */
+    public synchronized void setStatsEnabled(final boolean enabled) {
+        final MidiPortStatsRecorder recorder = enabled ? new MidiPortStatsRecorder(MidiDeviceInfo.PortInfo.TYPE_OUTPUT, myPortNumber) : null;
+        statsRecorder = recorder;
+        receivers.setStatsRecorder(recorder);
     }
 
-    @SuppressLint("Override")
-    @Override
-    protected void finalize() throws Throwable {
-        close();
-        super.finalize();
+    /**
+     * Returns the statistics of this port
+     *
+     * @return the statistics, null if disabled
+     */
+    public MidiPortStats getStats() {
+        final MidiPortStatsRecorder recorder = statsRecorder;
+        return recorder == null ? null : recorder.snapshot();
     }
 
     /**
-     * event listener for USB MIDI
+     * Connects a {@link MidiReceiver} through a bounded queue. The receiver is called on its own thread.
+     * Disconnecting the receiver stops the thread, and discards the queued messages.
+     * Connecting a receiver again, with or without a queue, replaces its previous connection.
+     *
+     * @param receiver the receiver to connect
+     * @param capacity the max number of queued messages
+     * @param overflowPolicy one of OVERFLOW_* constants, applied while the queue is full
      */
-    private final OnMidiInputEventListener usbMidiInputEventListener = new OnMidiInputEventListener() {
-        @Override
-        public void onMidiMiscellaneousFunctionCodes(final MidiInputDevice midiInputDevice, final int cable, final int data1, final int data2, final int data3) {
-            // ignore this method
-        }
-
-        @Override
-        public void onMidiCableEvents(final MidiInputDevice midiInputDevice, final int cable, final int data1, final int data2, final int data3) {
-            // ignore this method
-        }
-
-        @Override
-        public void onMidiSystemCommonMessage(final MidiInputDevice midiInputDevice, final int cable, final byte[] bytes) {
-            sendMidiMessage(bytes);
+    public void connect(final MidiReceiver receiver, final int capacity, final int overflowPolicy) {
+        if (receiver == null) {
+            throw new NullPointerException("receiver null in MidiOutputPort.connect");
         }
 
-        @Override
-        public void onMidiSystemExclusive(final MidiInputDevice midiInputDevice, final int cable, final byte[] bytes) {
-            sendMidiMessage(bytes);
-        }
-
-        @Override
-        public void onMidiNoteOff(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int note, final int velocity) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0x80), (byte) note, (byte) velocity});
-        }
-
-        @Override
-        public void onMidiNoteOn(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int note, final int velocity) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0x90), (byte) note, (byte) velocity});
-        }
-
-        @Override
-        public void onMidiPolyphonicAftertouch(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int note, final int pressure) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xa0), (byte) note, (byte) pressure});
-        }
-
-        @Override
-        public void onMidiControlChange(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int function, final int value) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xb0), (byte) function, (byte) value});
-        }
-
-        @Override
-        public void onMidiProgramChange(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int program) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xc0), (byte) program});
-        }
-
-        @Override
-        public void onMidiChannelAftertouch(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int pressure) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xd0), (byte) pressure});
-        }
-
-        @Override
-        public void onMidiPitchWheel(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int amount) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xe0), (byte) (amount & 0x7f), (byte)(amount >> 7)});
-        }
-
-        @Override
-        public void onMidiSingleByte(final MidiInputDevice midiInputDevice, final int cable, final int data) {
-            // ignore this method
-        }
-
-        @Override
-        public void onMidiTimeCodeQuarterFrame(final MidiInputDevice midiInputDevice, final int cable, final int timing) {
-            sendMidiMessage(new byte[] {(byte) 0xf1, (byte) timing});
-        }
-
-        @Override
-        public void onMidiSongSelect(final MidiInputDevice midiInputDevice, final int cable, final int song) {
-            sendMidiMessage(new byte[] {(byte) 0xf3, (byte) song});
-        }
-
-        @Override
-        public void onMidiSongPositionPointer(final MidiInputDevice midiInputDevice, final int cable, final int position) {
-            sendMidiMessage(new byte[] {(byte) 0xf2, (byte) (position & 0x7f), (byte)(position >> 7)});
-        }
-
-        @Override
-        public void onMidiTuneRequest(final MidiInputDevice midiInputDevice, final int cable) {
-            sendMidiMessage(new byte[] {(byte) 0xf6});
-        }
-
-        @Override
-        public void onMidiTimingClock(final MidiInputDevice midiInputDevice, final int cable) {
-            sendMidiMessage(new byte[] {(byte) 0xf8});
-        }
-
-        @Override
-        public void onMidiStart(final MidiInputDevice midiInputDevice, final int cable) {
-            sendMidiMessage(new byte[] {(byte) 0xfa});
-        }
-
-        @Override
-        public void onMidiContinue(final MidiInputDevice midiInputDevice, final int cable) {
-            sendMidiMessage(new byte[] {(byte) 0xfb});
-        }
-
-        @Override
-        public void onMidiStop(final MidiInputDevice midiInputDevice, final int cable) {
-            sendMidiMessage(new byte[] {(byte) 0xfc});
-        }
-
-        @Override
-        public void onMidiActiveSensing(final MidiInputDevice midiInputDevice, final int cable) {
-            sendMidiMessage(new byte[] {(byte) 0xfe});
-        }
-
-        @Override
-        public void onMidiReset(final MidiInputDevice midiInputDevice, final int cable) {
-            sendMidiMessage(new byte[] {(byte) 0xff});
-        }
-
-        @Override
-        public void onMidiRPNReceived(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int i2, final int i3, final int i4) {
-            // ignore this method
-        }
-
-        @Override
-        public void onMidiNRPNReceived(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int i2, final int i3, final int i4) {
-            // ignore this method
-        }
-
-        @Override
-        public void onMidiRPNReceived(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int i2, final int i3) {
-            // ignore this method
+        final MidiReceiverQueue queue = new MidiReceiverQueue(receiver, capacity, overflowPolicy, "MidiOutputPort[" + myPortNumber + "].Queue");
+        final MidiReceiverQueue previous;
+        synchronized (queues) {
+            if (cleanable.isCleaned()) {
+                return;
+            }
+            previous = queues.put(receiver, queue);
         }
-
-        @Override
-        public void onMidiNRPNReceived(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int i2, final int i3) {
-            // ignore this method
+        if (previous != null) {
+            receivers.remove(previous);
+            previous.close();
+        } else {
+            // connected directly by connect(MidiReceiver)
+            receivers.remove(receiver);
         }
-    };
+        receivers.add(queue);
+    }
 
     /**
-     * send MIDI message to receivers
+     * Returns the number of messages dropped by the queue of a receiver
      *
-     * @param message the raw MIDI message
+     * @param receiver the receiver, connected with {@link #connect(MidiReceiver, int, int)}
+     * @return the number of dropped messages, -1 if the receiver is not connected with a queue
      */
-    private synchronized void sendMidiMessage(final byte[] message) {
-        for (final MidiReceiver receiver : receivers) {
-            try {
-                receiver.send(message, 0, message.length);
-            } catch (final IOException ignored) {
-                // do nothing
-            }
+    public long getDroppedCount(final MidiReceiver receiver) {
+        final MidiReceiverQueue queue;
+        synchronized (queues) {
+            queue = queues.get(receiver);
         }
+        return queue == null ? -1 : queue.getDroppedCount();
     }
 
     /**
-     * event listener for BLE MIDI
+     * Returns the number of controller messages coalesced by the queue of a receiver,
+     * with {@link #OVERFLOW_COALESCE_CONTROLLERS}
+     *
+     * @param receiver the receiver, connected with {@link #connect(MidiReceiver, int, int)}
+     * @return the number of coalesced messages, -1 if the receiver is not connected with a queue
      */
-    private final jp.kshoji.blemidi.listener.OnMidiInputEventListener bleMidiInputEventListener = new jp.kshoji.blemidi.listener.OnMidiInputEventListener() {
-
-        @Override
-        public void onMidiSystemExclusive(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final byte[] bytes) {
-            sendMidiMessage(bytes);
-        }
-
-        @Override
-        public void onMidiNoteOff(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int channel, final int note, final int velocity) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0x80), (byte) note, (byte) velocity});
-        }
-
-        @Override
-        public void onMidiNoteOn(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int channel, final int note, final int velocity) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0x90), (byte) note, (byte) velocity});
-        }
-
-        @Override
-        public void onMidiPolyphonicAftertouch(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int channel, final int note, final int pressure) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xa0), (byte) note, (byte) pressure});
-        }
-
-        @Override
-        public void onMidiControlChange(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int channel, final int function, final int value) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xb0), (byte) function, (byte) value});
-        }
-
-        @Override
-        public void onMidiProgramChange(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int channel, final int program) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xc0), (byte) program});
-        }
-
-        @Override
-        public void onMidiChannelAftertouch(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int channel, final int pressure) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xd0), (byte) pressure});
-        }
-
-        @Override
-        public void onMidiPitchWheel(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int channel, final int amount) {
-            sendMidiMessage(new byte[] {(byte) (channel | 0xe0), (byte) (amount & 0x7f), (byte)(amount >> 7)});
-        }
-
-        @Override
-        public void onMidiTimeCodeQuarterFrame(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int timing) {
-            sendMidiMessage(new byte[] {(byte) 0xf1, (byte) timing});
-        }
-
-        @Override
-        public void onMidiSongSelect(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int song) {
-            sendMidiMessage(new byte[] {(byte) 0xf3, (byte) song});
-        }
-
-        @Override
-        public void onMidiSongPositionPointer(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int position) {
-            sendMidiMessage(new byte[] {(byte) 0xf2, (byte) (position & 0x7f), (byte)(position >> 7)});
-        }
-
-        @Override
-        public void onMidiTuneRequest(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            sendMidiMessage(new byte[] {(byte) 0xf6});
-        }
-
-        @Override
-        public void onMidiTimingClock(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            sendMidiMessage(new byte[] {(byte) 0xf8});
+    public long getCoalescedCount(final MidiReceiver receiver) {
+        final MidiReceiverQueue queue;
+        synchronized (queues) {
+            queue = queues.get(receiver);
         }
+        return queue == null ? -1 : queue.getCoalescedCount();
+    }
 
-        @Override
-        public void onMidiStart(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            sendMidiMessage(new byte[] {(byte) 0xfa});
+    @SuppressLint("Override")
+    @Override
+    public void onConnect(final MidiReceiver receiver) {
+        final MidiReceiverQueue queue;
+        synchronized (queues) {
+            queue = queues.remove(receiver);
         }
-
-        @Override
-        public void onMidiContinue(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            sendMidiMessage(new byte[] {(byte) 0xfb});
+        if (queue != null) {
+            receivers.remove(queue);
+            queue.close();
         }
+        receivers.add(receiver);
+    }
 
-        @Override
-        public void onMidiStop(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            sendMidiMessage(new byte[] {(byte) 0xfc});
+    @SuppressLint("Override")
+    @Override
+    public void onDisconnect(final MidiReceiver receiver) {
+        final MidiReceiverQueue queue;
+        synchronized (queues) {
+            queue = queues.remove(receiver);
         }
-
-        @Override
-        public void onMidiActiveSensing(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            sendMidiMessage(new byte[] {(byte) 0xfe});
+        if (queue != null) {
+            receivers.remove(queue);
+            queue.close();
+        } else {
+            receivers.remove(receiver);
         }
+    }
 
-        @Override
-        public void onMidiReset(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice) {
-            sendMidiMessage(new byte[] {(byte) 0xff});
-        }
+    /**
+     * Closes the port, and detaches its receivers from the device at once.
+     * Closing twice has no effect.
+     */
+    @Override
+    public void close() throws IOException {
+        cleanable.clean();
+    }
 
-        @Override
-        public void onRPNMessage(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int i, final int i1, final int i2) {
-            // ignore this method
-        }
+    /**
+     * @return the cleanable of the port, cleaned when the port is closed
+     */
+    /* package */ MidiLeakTracker.Cleanable getCleanable() {
+        return cleanable;
+    }
 
-        @Override
-        public void onNRPNMessage(final jp.kshoji.blemidi.device.MidiInputDevice midiInputDevice, final int i, final int i1, final int i2) {
-            // ignore this method
+    /**
+     * Removes the receivers from the dispatcher, stops the queues, and counts the port as closed.
+     * The dispatcher refers to the receivers, not to the port, so an unclosed port can become unreachable.
+     */
+    private static final class Cleanup implements Runnable {
+        private final SharedMidiDevice sharedDevice;
+        private final MidiInputDispatcher inputDispatcher;
+        private final MidiReceiverList receivers;
+        private final Map<MidiReceiver, MidiReceiverQueue> queues;
+        private final int portNumber;
+
+        Cleanup(final SharedMidiDevice sharedDevice, final MidiInputDispatcher inputDispatcher, final MidiReceiverList receivers,
+                final Map<MidiReceiver, MidiReceiverQueue> queues, final int portNumber) {
+            this.sharedDevice = sharedDevice;
+            this.inputDispatcher = inputDispatcher;
+            this.receivers = receivers;
+            this.queues = queues;
+            this.portNumber = portNumber;
+        }
+
+        @Override
+        public void run() {
+            inputDispatcher.removeReceivers(portNumber, receivers);
+            sharedDevice.releaseInputDispatcher(portNumber);
+
+            synchronized (queues) {
+                for (final MidiReceiverQueue queue : queues.values()) {
+                    queue.close();
+                }
+                queues.clear();
+            }
         }
-    };
+    }
 }
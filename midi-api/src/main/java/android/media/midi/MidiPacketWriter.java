@@ -0,0 +1,48 @@
+package android.media.midi;
+
+/**
+ * Writes MIDI messages to an input port of a device.
+ *
+ * By default every message is written as soon as it arrives, and nothing is held,
+ * so coalescing has no effect. {@link MidiCoalescingPacketWriter} holds the messages to pack them into fewer transport packets.
+ */
+/* package */ abstract class MidiPacketWriter {
+    /**
+     * Writes a channel, system common or system real-time message
+     *
+     * @param message the message
+     * @param count the length of the message, 1 to 3
+     * @param timestamp the timestamp of the message, 0 if none
+     */
+    abstract void write(byte[] message, int count, long timestamp);
+
+    /**
+     * Writes a System Exclusive message, after the held packets
+     *
+     * @param systemExclusive the message, from 0xf0 to 0xf7
+     */
+    abstract void writeSystemExclusive(byte[] systemExclusive);
+
+    /**
+     * Enables or disables coalescing. The held packets are written when disabled.
+     *
+     * @param enabled true to hold the packets
+     */
+    void setCoalescingEnabled(final boolean enabled) {
+        // nothing is held
+    }
+
+    /**
+     * Writes the held packets now
+     */
+    void sendPendingPackets() {
+        // nothing is held
+    }
+
+    /**
+     * Writes the held packets, and releases the resources of the writer
+     */
+    void close() {
+        // nothing is held
+    }
+}
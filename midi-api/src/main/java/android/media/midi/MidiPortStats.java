@@ -0,0 +1,150 @@
+package android.media.midi;
+
+import android.annotation.SuppressLint;
+
+/**
+ * This is an immutable class that holds the counters of a port, since its statistics were enabled.
+ *
+ * The latencies are counted in log2 buckets: the bucket 0 counts the latencies of 0 nanoseconds,
+ * and the bucket n counts the ones from 2^(n-1) up to 2^n - 1 nanoseconds.
+ * For a {@link MidiOutputPort}, the latency is measured from the driver callback, or from the send of a {@link MidiDeviceService},
+ * until all the receivers have returned.
+ * For a {@link MidiInputPort}, it is measured from {@link MidiReceiver#send}, or from the timestamp of a scheduled message,
+ * until the message is passed to the device.
+ */
+public final class MidiPortStats {
+    /**
+     * The number of latency buckets
+     */
+    public static final int LATENCY_BUCKET_COUNT = 64;
+
+    private final int portType;
+    private final int portNumber;
+    private final long messageCount;
+    private final long byteCount;
+    private final long droppedCount;
+    private final long failedCount;
+    private final long[] latencyHistogram;
+
+    /**
+     * @hide
+     */
+    public MidiPortStats(final int portType, final int portNumber, final long messageCount, final long byteCount, final long droppedCount, final long failedCount, final long[] latencyHistogram) {
+        this.portType = portType;
+        this.portNumber = portNumber;
+        this.messageCount = messageCount;
+        this.byteCount = byteCount;
+        this.droppedCount = droppedCount;
+        this.failedCount = failedCount;
+        this.latencyHistogram = latencyHistogram.clone();
+    }
+
+    /**
+     * Returns the latency bucket of the latency
+     *
+     * @param latencyNanos the latency in nanoseconds, not negative
+     * @return the bucket index
+     */
+    static int bucketOf(final long latencyNanos) {
+        return Math.min(64 - Long.numberOfLeadingZeros(latencyNanos), LATENCY_BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Returns the type of the port
+     *
+     * @return {@link MidiDeviceInfo.PortInfo#TYPE_INPUT} or {@link MidiDeviceInfo.PortInfo#TYPE_OUTPUT}
+     */
+    public int getPortType() {
+        return portType;
+    }
+
+    /**
+     * Returns the port number of the port
+     *
+     * @return the port number
+     */
+    public int getPortNumber() {
+        return portNumber;
+    }
+
+    /**
+     * Returns the number of messages passed.
+     * The data sent at once to a port of a {@link MidiDeviceService} in this process counts as one message.
+     *
+     * @return the number of messages
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Returns the number of bytes of the messages passed
+     *
+     * @return the number of bytes
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns the number of messages not passed:
+     * received while no receiver was connected to a {@link MidiOutputPort}, or sent to a closed {@link MidiInputPort}.
+     *
+     * @return the number of messages
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns the number of sends to a receiver which threw an exception
+     *
+     * @return the number of sends
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Returns the number of messages in each latency bucket
+     *
+     * @return a copy of the histogram, of {@link #LATENCY_BUCKET_COUNT} elements
+     */
+    public long[] getLatencyHistogram() {
+        return latencyHistogram.clone();
+    }
+
+    /**
+     * Returns the upper bound of the latency bucket containing the percentile
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency in nanoseconds, -1 if no latency has been recorded
+     */
+    public long getLatencyPercentileNanos(final double percentile) {
+        long total = 0;
+        for (final long count : latencyHistogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long accumulated = 0;
+        for (int i = 0; i < latencyHistogram.length; i++) {
+            accumulated += latencyHistogram[i];
+            if (accumulated >= rank) {
+                return i == 0 ? 0 : (i == LATENCY_BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @SuppressLint("NewApi")
+    @Override
+    public String toString() {
+        return "type=" + portType + " port=" + portNumber + " messages=" + messageCount + " bytes=" + byteCount
+                + " dropped=" + droppedCount + " failed=" + failedCount
+                + " p50=" + getLatencyPercentileNanos(50) + "ns p99=" + getLatencyPercentileNanos(99) + "ns";
+    }
+}
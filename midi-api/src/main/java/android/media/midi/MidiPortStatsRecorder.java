@@ -0,0 +1,70 @@
+package android.media.midi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the messages passing through a port, and records their latencies into log2 buckets.
+ *
+ * Recording only updates atomic counters, so it doesn't allocate and doesn't lock the port.
+ */
+/* package */ final class MidiPortStatsRecorder {
+    private final int portType;
+    private final int portNumber;
+
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(MidiPortStats.LATENCY_BUCKET_COUNT);
+
+    /**
+     * @param portType MidiDeviceInfo.PortInfo.TYPE_INPUT or MidiDeviceInfo.PortInfo.TYPE_OUTPUT
+     * @param portNumber the port number
+     */
+    MidiPortStatsRecorder(final int portType, final int portNumber) {
+        this.portType = portType;
+        this.portNumber = portNumber;
+    }
+
+    /**
+     * Records a message passed
+     *
+     * @param count the length of the message
+     * @param latencyNanos the latency of the message, negative if unknown
+     */
+    void record(final int count, final long latencyNanos) {
+        messageCount.incrementAndGet();
+        byteCount.addAndGet(count);
+        if (latencyNanos >= 0) {
+            latencyBuckets.incrementAndGet(MidiPortStats.bucketOf(latencyNanos));
+        }
+    }
+
+    /**
+     * Records a message which was not passed
+     */
+    void recordDropped() {
+        droppedCount.incrementAndGet();
+    }
+
+    /**
+     * Records a message whose receiver threw an exception
+     */
+    void recordFailed() {
+        failedCount.incrementAndGet();
+    }
+
+    /**
+     * Copies the counters. The counters are read one by one, so a message recorded meanwhile may be only partly counted.
+     *
+     * @return the snapshot
+     */
+    MidiPortStats snapshot() {
+        final long[] histogram = new long[MidiPortStats.LATENCY_BUCKET_COUNT];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = latencyBuckets.get(i);
+        }
+        return new MidiPortStats(portType, portNumber, messageCount.get(), byteCount.get(), droppedCount.get(), failedCount.get(), histogram);
+    }
+}
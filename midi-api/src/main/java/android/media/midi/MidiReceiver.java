@@ -25,14 +25,27 @@ import java.io.IOException;
  */
 public abstract class MidiReceiver {
 
+    /**
+     * Split mode: the data exceeding {@link #getMaxMessageSize} is split at any byte.
+     */
+    public static final int SPLIT_MODE_BYTES = 0;
+
+    /**
+     * Split mode: the data exceeding {@link #getMaxMessageSize} is split only between messages,
+     * or inside a System Exclusive message. A message longer than the max message size is split at any byte.
+     * The data passed to {@link #send} must start at a message boundary.
+     */
+    public static final int SPLIT_MODE_MESSAGES = 1;
+
     private final int maxMessageSize;
+    private final int splitMode;
 
     /**
      * Default MidiReceiver constructor. Maximum message size is set to
      * {@link java.lang.Integer#MAX_VALUE}
      */
     public MidiReceiver() {
-        maxMessageSize = Integer.MAX_VALUE;
+        this(Integer.MAX_VALUE);
     }
 
     /**
@@ -40,7 +53,17 @@ public abstract class MidiReceiver {
      * @param maxMessageSize the maximum size of a message this receiver can receive
      */
     public MidiReceiver(int maxMessageSize) {
+        this(maxMessageSize, SPLIT_MODE_BYTES);
+    }
+
+    /**
+     * MidiReceiver constructor.
+     * @param maxMessageSize the maximum size of a message this receiver can receive
+     * @param splitMode {@link #SPLIT_MODE_BYTES} or {@link #SPLIT_MODE_MESSAGES}
+     */
+    public MidiReceiver(int maxMessageSize, int splitMode) {
         this.maxMessageSize = maxMessageSize;
+        this.splitMode = splitMode;
     }
 
     /**
@@ -63,6 +86,28 @@ public abstract class MidiReceiver {
     abstract public void onSend(byte[] msg, int offset, int count, long timestamp)
             throws IOException;
 
+    /**
+     * Called whenever the receiver is passed a batch of short MIDI messages.
+     * Each message is packed into an int, as returned by {@link #packMessage}.
+     * The default implementation unpacks each message and calls {@link #onSend};
+     * subclasses override this method to handle the whole batch at once.
+     *
+     * NOTE: the arrays are only valid within the context of this call.
+     *
+     * @param messages the packed messages
+     * @param timestamps the timestamps of the messages, based on {@link java.lang.System#nanoTime}
+     * @param offset the index of the first message in the arrays to be processed
+     * @param count the number of messages to be processed
+     * @throws IOException
+     */
+    public void onSendBatch(int[] messages, long[] timestamps, int offset, int count)
+            throws IOException {
+        final byte[] buffer = new byte[3];
+        for (int i = offset; i < offset + count; i++) {
+            onSend(buffer, 0, unpackMessage(messages[i], buffer), timestamps[i]);
+        }
+    }
+
     /**
      * Instructs the receiver to discard all pending MIDI data.
      * @throws IOException
@@ -89,6 +134,63 @@ public abstract class MidiReceiver {
         return maxMessageSize;
     }
 
+    /**
+     * Returns how the data exceeding the max message size is split.
+     * @return {@link #SPLIT_MODE_BYTES} or {@link #SPLIT_MODE_MESSAGES}
+     */
+    public final int getSplitMode() {
+        return splitMode;
+    }
+
+    /**
+     * Packs a short message into an int: the status byte in bits 16-23, and the data bytes in bits 8-15 and 0-7.
+     * The unused data bytes are 0. System Exclusive messages can't be packed.
+     *
+     * @param status the status byte
+     * @param data1 the first data byte
+     * @param data2 the second data byte
+     * @return the packed message
+     */
+    public static int packMessage(int status, int data1, int data2) {
+        return (status & 0xff) << 16 | (data1 & 0x7f) << 8 | (data2 & 0x7f);
+    }
+
+    /**
+     * Unpacks a message packed by {@link #packMessage}
+     *
+     * @param message the packed message
+     * @param buffer the buffer receiving the message, at least 3 bytes long
+     * @return the length of the message
+     */
+    public static int unpackMessage(int message, byte[] buffer) {
+        final int status = (message >> 16) & 0xff;
+        buffer[0] = (byte) status;
+        buffer[1] = (byte) (message >> 8);
+        buffer[2] = (byte) message;
+        final int length = MidiMessageParser.getMessageLength(status);
+        return length == 0 ? 1 : length;
+    }
+
+    /**
+     * Called to send a batch of short MIDI messages to the receiver.
+     * The messages are passed to {@link #onSendBatch} at once, and are not split.
+     *
+     * @param messages the messages, each packed by {@link #packMessage}
+     * @param timestamps the timestamps of the messages, based on {@link java.lang.System#nanoTime}
+     * @param offset the index of the first message in the arrays to be sent
+     * @param count the number of messages to be sent
+     * @throws IOException if the messages could not be sent in entirety
+     */
+    @SuppressLint("NewApi")
+    public void sendBatch(int[] messages, long[] timestamps, int offset, int count) throws IOException {
+        if (offset < 0 || count < 0 || offset + count > messages.length || offset + count > timestamps.length) {
+            throw new IllegalArgumentException("offset or count out of range");
+        }
+        if (count > 0) {
+            onSendBatch(messages, timestamps, offset, count);
+        }
+    }
+
     /**
      * Called to send MIDI data to the receiver without a timestamp.
      * Data will be processed by receiver in the order sent.
@@ -113,7 +215,8 @@ public abstract class MidiReceiver {
      * Called to send MIDI data to the receiver with a specified timestamp.
      * Data will be processed by receiver in order first by timestamp, then in the order sent.
      * Data will get split into multiple calls to {@link #onSend} if count exceeds
-     * {@link #getMaxMessageSize}.  Blocks until all the data is sent or an exception occurs.
+     * {@link #getMaxMessageSize}, as specified by {@link #getSplitMode}.
+     * Blocks until all the data is sent or an exception occurs.
      * In the latter case, the amount of data sent prior to the exception is not provided to caller.
      * The communication should be considered corrupt.  The sender should reestablish
      * communication, reset all controllers and send all notes off.
@@ -128,6 +231,11 @@ public abstract class MidiReceiver {
     public void send(byte[] msg, int offset, int count, long timestamp)
             throws IOException {
         int messageSize = getMaxMessageSize();
+        if (splitMode == SPLIT_MODE_MESSAGES && count > messageSize) {
+            sendMessages(msg, offset, count, timestamp);
+            return;
+        }
+
         while (count > 0) {
             int length = (count > messageSize ? messageSize : count);
             onSend(msg, offset, length, timestamp);
@@ -135,4 +243,78 @@ public abstract class MidiReceiver {
             count -= length;
         }
     }
+
+    /**
+     * Packs as many whole messages as fit into each call to {@link #onSend}
+     */
+    private void sendMessages(final byte[] msg, final int offset, final int count, final long timestamp)
+            throws IOException {
+        final int messageSize = getMaxMessageSize();
+        final int end = offset + count;
+        int chunkStart = offset;
+        int position = offset;
+        // the number of data bytes of a message with Running Status, 0 if none
+        int runningDataLength = 0;
+        boolean inSystemExclusive = false;
+
+        while (position < end) {
+            final int status = msg[position] & 0xff;
+            final int unitEnd;
+            if (status >= 0xf8) {
+                // System Real-Time
+                unitEnd = position + 1;
+            } else if (inSystemExclusive && status < 0x80) {
+                // any byte of a System Exclusive message is a continuation point
+                unitEnd = position + 1;
+            } else if (status == 0xf0 || status == 0xf7) {
+                inSystemExclusive = status == 0xf0;
+                runningDataLength = 0;
+                unitEnd = position + 1;
+            } else if (status >= 0x80) {
+                // a status byte ends an unterminated System Exclusive message
+                inSystemExclusive = false;
+                final int dataLength = MidiMessageParser.getMessageLength(status) - 1;
+                runningDataLength = status < 0xf0 ? dataLength : 0;
+                unitEnd = skipDataBytes(msg, position + 1, end, dataLength);
+            } else if (runningDataLength > 0) {
+                unitEnd = skipDataBytes(msg, position, end, runningDataLength);
+            } else {
+                // a data byte without status
+                unitEnd = position + 1;
+            }
+
+            if (unitEnd - chunkStart > messageSize && position > chunkStart) {
+                onSend(msg, chunkStart, position - chunkStart, timestamp);
+                chunkStart = position;
+            }
+            // a message longer than the max message size is split at any byte
+            while (unitEnd - chunkStart > messageSize) {
+                onSend(msg, chunkStart, messageSize, timestamp);
+                chunkStart += messageSize;
+            }
+            position = unitEnd;
+        }
+
+        if (chunkStart < end) {
+            onSend(msg, chunkStart, end - chunkStart, timestamp);
+        }
+    }
+
+    /**
+     * Skips the data bytes of a message, and the System Real-Time messages interleaved with them
+     *
+     * @return the position after the message, or of the status byte which interrupts it
+     */
+    private static int skipDataBytes(final byte[] msg, int position, final int end, int dataLength) {
+        while (position < end && dataLength > 0) {
+            final int data = msg[position] & 0xff;
+            if (data < 0x80) {
+                dataLength--;
+            } else if (data < 0xf8) {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
 }
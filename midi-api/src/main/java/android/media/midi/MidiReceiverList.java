@@ -0,0 +1,127 @@
+package android.media.midi;
+
+import java.io.IOException;
+
+/**
+ * Copy-on-write set of {@link MidiReceiver}s.
+ *
+ * Connecting and disconnecting replace the whole array under a lock,
+ * sending iterates the current snapshot without any locking, so a slow receiver never blocks
+ * the connection management, and vice versa.
+ */
+/* package */ final class MidiReceiverList {
+    private static final MidiReceiver[] EMPTY = new MidiReceiver[0];
+
+    private final Object lock = new Object();
+    private volatile MidiReceiver[] receivers = EMPTY;
+    // null while the statistics are disabled
+    private volatile MidiPortStatsRecorder statsRecorder;
+
+    /**
+     * Adds a receiver, does nothing if the receiver has already been added
+     *
+     * @param receiver the receiver to add
+     */
+    void add(final MidiReceiver receiver) {
+        synchronized (lock) {
+            final MidiReceiver[] current = receivers;
+            for (final MidiReceiver midiReceiver : current) {
+                if (midiReceiver.equals(receiver)) {
+                    return;
+                }
+            }
+
+            final MidiReceiver[] updated = new MidiReceiver[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = receiver;
+            receivers = updated;
+        }
+    }
+
+    /**
+     * Removes a receiver
+     *
+     * @param receiver the receiver to remove
+     */
+    void remove(final MidiReceiver receiver) {
+        synchronized (lock) {
+            final MidiReceiver[] current = receivers;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].equals(receiver)) {
+                    if (current.length == 1) {
+                        receivers = EMPTY;
+                    } else {
+                        final MidiReceiver[] updated = new MidiReceiver[current.length - 1];
+                        System.arraycopy(current, 0, updated, 0, i);
+                        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                        receivers = updated;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the receivers
+     */
+    void clear() {
+        synchronized (lock) {
+            receivers = EMPTY;
+        }
+    }
+
+    /**
+     * Returns the number of receivers
+     *
+     * @return the number of receivers
+     */
+    int size() {
+        return receivers.length;
+    }
+
+    /**
+     * Sets the recorder of the data sent
+     *
+     * @param statsRecorder the recorder, null to stop recording
+     */
+    void setStatsRecorder(final MidiPortStatsRecorder statsRecorder) {
+        this.statsRecorder = statsRecorder;
+    }
+
+    /**
+     * Sends MIDI data to all the receivers, in the order they were added.
+     * A receiver throwing {@link IOException} doesn't prevent the others from receiving the data.
+     * The latency is recorded once all the receivers have returned.
+     *
+     * @param msg a byte array containing the MIDI data
+     * @param offset the offset of the first byte of the data in the array to be sent
+     * @param count the number of bytes of MIDI data in the array to be sent
+     * @param timestamp the timestamp of the message, based on {@link java.lang.System#nanoTime}
+     * @param captureNanos the {@link java.lang.System#nanoTime} at which the message was received
+     */
+    void send(final byte[] msg, final int offset, final int count, final long timestamp, final long captureNanos) {
+        final MidiReceiver[] snapshot = receivers;
+        final MidiPortStatsRecorder recorder = statsRecorder;
+        if (snapshot.length == 0) {
+            if (recorder != null) {
+                recorder.recordDropped();
+            }
+            return;
+        }
+
+        for (final MidiReceiver receiver : snapshot) {
+            try {
+                receiver.send(msg, offset, count, timestamp);
+            } catch (final IOException ignored) {
+                if (recorder != null) {
+                    recorder.recordFailed();
+                }
+            }
+        }
+
+        if (recorder != null) {
+            recorder.record(count, System.nanoTime() - captureNanos);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package android.media.midi;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Passes the messages sent to it to a receiver on its own thread, through a bounded queue,
+ * so a slow receiver doesn't hold up the driver thread.
+ *
+ * The queue is a ring of preallocated slots: a short message is copied without allocation.
+ * When the queue is full, the overflow policy decides which message is lost, and the lost messages are counted.
+ * The consumer thread is started when the first message is queued.
+ */
+/* package */ final class MidiReceiverQueue extends MidiReceiver {
+    // the messages taken at once by the consumer thread
+    private static final int DRAIN_SIZE = 64;
+
+    private final MidiReceiver receiver;
+    private final int overflowPolicy;
+    private final String threadName;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // the ring of slots
+    private final byte[][] data;
+    private final int[] counts;
+    private final long[] timestamps;
+    private int head;
+    private int size;
+
+    private long droppedCount;
+    private long coalescedCount;
+    private Thread consumerThread;
+    private boolean closed;
+
+    /**
+     * @param receiver the receiver
+     * @param capacity the max number of queued messages
+     * @param overflowPolicy one of MidiOutputPort.OVERFLOW_* constants
+     * @param threadName the name of the consumer thread
+     */
+    MidiReceiverQueue(final MidiReceiver receiver, final int capacity, final int overflowPolicy, final String threadName) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        if (overflowPolicy < MidiOutputPort.OVERFLOW_BLOCK || overflowPolicy > MidiOutputPort.OVERFLOW_COALESCE_CONTROLLERS) {
+            throw new IllegalArgumentException("unknown overflow policy: " + overflowPolicy);
+        }
+        this.receiver = receiver;
+        this.overflowPolicy = overflowPolicy;
+        this.threadName = threadName;
+        data = new byte[capacity][];
+        counts = new int[capacity];
+        timestamps = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            data[i] = new byte[3];
+        }
+    }
+
+    /**
+     * @return the receiver the messages are passed to
+     */
+    MidiReceiver getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * Returns the number of messages lost because the queue was full
+     *
+     * @return the number of dropped messages
+     */
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of controller messages which replaced a queued message of the same controller
+     *
+     * @return the number of coalesced messages
+     */
+    long getCoalescedCount() {
+        lock.lock();
+        try {
+            return coalescedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues the data
+     *
+     * @throws IOException if the queue is closed
+     */
+    @Override
+    public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("the queue is closed");
+            }
+
+            if (size == data.length) {
+                switch (overflowPolicy) {
+                    case MidiOutputPort.OVERFLOW_BLOCK:
+                        while (size == data.length) {
+                            notFull.awaitUninterruptibly();
+                            if (closed) {
+                                throw new IOException("the queue is closed");
+                            }
+                        }
+                        break;
+                    case MidiOutputPort.OVERFLOW_DROP_OLDEST:
+                        head = (head + 1) % data.length;
+                        size--;
+                        droppedCount++;
+                        break;
+                    case MidiOutputPort.OVERFLOW_COALESCE_CONTROLLERS:
+                        if (coalesce(msg, offset, count, timestamp)) {
+                            coalescedCount++;
+                            return;
+                        }
+                        droppedCount++;
+                        return;
+                    default:
+                        // MidiOutputPort.OVERFLOW_DROP_NEWEST
+                        droppedCount++;
+                        return;
+                }
+            }
+
+            final int tail = (head + size) % data.length;
+            if (data[tail].length < count) {
+                data[tail] = new byte[count];
+            }
+            System.arraycopy(msg, offset, data[tail], 0, count);
+            counts[tail] = count;
+            timestamps[tail] = timestamp;
+            size++;
+
+            if (consumerThread == null) {
+                consumerThread = new ConsumerThread();
+                consumerThread.start();
+            } else if (size == 1) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the value of the latest queued message of the same controller.
+     * Caller must hold the lock.
+     *
+     * @return false if the message is not a controller, or no message of the controller is queued
+     */
+    private boolean coalesce(final byte[] msg, final int offset, final int count, final long timestamp) {
+        final int status = msg[offset] & 0xff;
+        final int command = status & 0xf0;
+        // Polyphonic Key Pressure, Control Change, Channel Pressure, Pitch Bend
+        final boolean keyed = command == 0xa0 || command == 0xb0;
+        if (!(keyed || command == 0xd0 || command == 0xe0) || count != MidiMessageParser.getMessageLength(status)) {
+            return false;
+        }
+
+        for (int i = size - 1; i >= 0; i--) {
+            final int index = (head + i) % data.length;
+            final byte[] queued = data[index];
+            if (counts[index] == count && (queued[0] & 0xff) == status && (!keyed || queued[1] == msg[offset + 1])) {
+                System.arraycopy(msg, offset, queued, 0, count);
+                timestamps[index] = timestamp;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Discards the queued messages
+     */
+    @Override
+    public void onFlush() throws IOException {
+        lock.lock();
+        try {
+            size = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        receiver.flush();
+    }
+
+    /**
+     * Discards the queued messages, and stops the consumer thread
+     */
+    void close() {
+        final Thread thread;
+        lock.lock();
+        try {
+            closed = true;
+            size = 0;
+            thread = consumerThread;
+            consumerThread = null;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+
+    private final class ConsumerThread extends Thread {
+        private final byte[][] drainData = new byte[DRAIN_SIZE][];
+        private final int[] drainCounts = new int[DRAIN_SIZE];
+        private final long[] drainTimestamps = new long[DRAIN_SIZE];
+
+        ConsumerThread() {
+            super(threadName);
+            setDaemon(true);
+            for (int i = 0; i < DRAIN_SIZE; i++) {
+                drainData[i] = new byte[3];
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final int drained = drain();
+                    if (drained < 0) {
+                        return;
+                    }
+
+                    for (int i = 0; i < drained; i++) {
+                        try {
+                            receiver.send(drainData[i], 0, drainCounts[i], drainTimestamps[i]);
+                        } catch (final IOException ignored) {
+                            // the other messages are still delivered
+                        }
+                    }
+                }
+            } catch (final InterruptedException ignored) {
+                // closed
+            }
+        }
+
+        /**
+         * Waits for messages, and copies them out of the queue
+         *
+         * @return the number of messages copied, -1 if closed
+         * @throws InterruptedException
+         */
+        private int drain() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (size == 0) {
+                    if (closed) {
+                        return -1;
+                    }
+                    notEmpty.await();
+                }
+                if (closed) {
+                    return -1;
+                }
+
+                final int drained = Math.min(size, DRAIN_SIZE);
+                for (int i = 0; i < drained; i++) {
+                    final int count = counts[head];
+                    if (drainData[i].length < count) {
+                        drainData[i] = new byte[count];
+                    }
+                    System.arraycopy(data[head], 0, drainData[i], 0, count);
+                    drainCounts[i] = count;
+                    drainTimestamps[i] = timestamps[head];
+                    head = (head + 1) % data.length;
+                }
+                size -= drained;
+                notFull.signalAll();
+                return drained;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
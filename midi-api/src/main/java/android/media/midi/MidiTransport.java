@@ -0,0 +1,74 @@
+package android.media.midi;
+
+/**
+ * A source of MIDI devices, such as the USB MIDI driver or the BLE MIDI driver.
+ *
+ * A transport is started by {@link MidiTransportConnector} at the first time one of its devices is needed,
+ * and reports its devices to the listener as they are attached and detached.
+ * New transports are added by implementing this class and {@link MidiTransportDevice}, without touching the ports.
+ */
+/* package */ abstract class MidiTransport {
+    /**
+     * Listener for the devices of a transport
+     */
+    interface Listener {
+        /**
+         * Called when the transport is ready to report its devices
+         *
+         * @param transport the transport
+         */
+        void onTransportStarted(MidiTransport transport);
+
+        /**
+         * Called when a device has been attached
+         *
+         * @param device the device
+         */
+        void onDeviceAttached(MidiTransportDevice device);
+
+        /**
+         * Called when a device has been detached
+         *
+         * @param device the device passed to {@link #onDeviceAttached}
+         */
+        void onDeviceDetached(MidiTransportDevice device);
+
+        /**
+         * Called when the resources of an attached device are gone, while the device stays.
+         * The ports opened for the device are dead; the next open creates the resources again.
+         *
+         * @param device the device passed to {@link #onDeviceAttached}
+         */
+        void onDeviceReset(MidiTransportDevice device);
+    }
+
+    /**
+     * Returns the transport flag
+     *
+     * @return one of MidiManager.TRANSPORT_* flags
+     */
+    abstract int getTransport();
+
+    /**
+     * Returns true if the transport can be started now.
+     * A transport which is not available is tried again at the next start.
+     *
+     * @return true if available
+     */
+    boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Starts reporting the devices to the listener
+     *
+     * @param listener the listener
+     */
+    abstract void start(Listener listener);
+
+    /**
+     * Stops reporting the devices.
+     * A transport holding driver resources releases them, and reports its devices as detached.
+     */
+    abstract void stop();
+}
@@ -0,0 +1,161 @@
+package android.media.midi;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the {@link MidiTransport}s, each one at the first time it is needed.
+ *
+ * The startup time of a transport is measured from starting it until it is ready to report its devices.
+ */
+/* package */ final class MidiTransportConnector {
+    private static final String TAG = "MidiTransportConnector";
+
+    private final MidiTransport[] transports;
+    private final MidiTransport.Listener listener;
+
+    private int enabledTransports = MidiManager.TRANSPORT_ALL;
+    // the transports started, and not stopped, by index
+    private final boolean[] started;
+    private final long[] startNanos;
+    private final long[] startupNanos;
+
+    /**
+     * @param transports the transports
+     * @param listener the listener for the devices of the transports
+     */
+    MidiTransportConnector(final MidiTransport[] transports, final MidiTransport.Listener listener) {
+        this.transports = transports.clone();
+        this.listener = listener;
+        started = new boolean[transports.length];
+        startNanos = new long[transports.length];
+        startupNanos = new long[transports.length];
+        for (int i = 0; i < transports.length; i++) {
+            startupNanos[i] = -1;
+        }
+    }
+
+    /**
+     * Creates the transports of the USB MIDI and BLE MIDI drivers
+     *
+     * @param context the context binding the driver services
+     * @return the transports
+     */
+    static MidiTransport[] createDriverTransports(final Context context) {
+        return new MidiTransport[] {
+                new UsbMidiTransport(context),
+                new BleMidiTransport(context, false),
+                new BleMidiTransport(context, true),
+        };
+    }
+
+    /**
+     * Selects the transports which may be started. The started transports which are no longer enabled are stopped.
+     *
+     * @param transports the combination of MidiManager.TRANSPORT_* flags
+     */
+    void setEnabledTransports(final int transports) {
+        final int disabledTransports;
+        synchronized (this) {
+            enabledTransports = transports & MidiManager.TRANSPORT_ALL;
+            disabledTransports = ~enabledTransports;
+        }
+        stop(disabledTransports);
+    }
+
+    /**
+     * @return the combination of MidiManager.TRANSPORT_* flags
+     */
+    synchronized int getEnabledTransports() {
+        return enabledTransports;
+    }
+
+    /**
+     * Starts the enabled transports of the ones specified, if not started yet
+     *
+     * @param transports the combination of MidiManager.TRANSPORT_* flags
+     */
+    void start(final int transports) {
+        for (int i = 0; i < this.transports.length; i++) {
+            final MidiTransport transport = this.transports[i];
+            synchronized (this) {
+                if (started[i] || (transport.getTransport() & transports & enabledTransports) == 0 || !transport.isAvailable()) {
+                    continue;
+                }
+                started[i] = true;
+                startNanos[i] = System.nanoTime();
+                startupNanos[i] = -1;
+            }
+            // a transport may report its devices from start, so it is called without the lock
+            transport.start(transportListener);
+        }
+    }
+
+    /**
+     * Stops all the started transports
+     */
+    void stop() {
+        stop(MidiManager.TRANSPORT_ALL);
+    }
+
+    /**
+     * Returns the time taken to start the transport
+     *
+     * @param transport one of MidiManager.TRANSPORT_* flags
+     * @return the time in nanoseconds, -1 if the transport hasn't been started
+     */
+    synchronized long getStartupNanos(final int transport) {
+        for (int i = 0; i < transports.length; i++) {
+            if (transports[i].getTransport() == transport && startupNanos[i] >= 0) {
+                return startupNanos[i];
+            }
+        }
+        return -1;
+    }
+
+    private void stop(final int transports) {
+        for (int i = 0; i < this.transports.length; i++) {
+            final MidiTransport transport = this.transports[i];
+            synchronized (this) {
+                if (!started[i] || (transport.getTransport() & transports) == 0) {
+                    continue;
+                }
+                started[i] = false;
+            }
+            // a transport reports its devices detached from stop, so it is called without the lock
+            transport.stop();
+        }
+    }
+
+    private final MidiTransport.Listener transportListener = new MidiTransport.Listener() {
+        @Override
+        public void onTransportStarted(final MidiTransport transport) {
+            synchronized (MidiTransportConnector.this) {
+                for (int i = 0; i < transports.length; i++) {
+                    if (transports[i] == transport) {
+                        startupNanos[i] = System.nanoTime() - startNanos[i];
+                        Log.i(TAG, "transport " + transport.getTransport() + " started in " + TimeUnit.NANOSECONDS.toMillis(startupNanos[i]) + " ms");
+                    }
+                }
+            }
+            listener.onTransportStarted(transport);
+        }
+
+        @Override
+        public void onDeviceAttached(final MidiTransportDevice device) {
+            listener.onDeviceAttached(device);
+        }
+
+        @Override
+        public void onDeviceDetached(final MidiTransportDevice device) {
+            listener.onDeviceDetached(device);
+        }
+
+        @Override
+        public void onDeviceReset(final MidiTransportDevice device) {
+            listener.onDeviceReset(device);
+        }
+    };
+}
@@ -0,0 +1,151 @@
+package android.media.midi;
+
+import android.os.Bundle;
+
+/**
+ * A device of a {@link MidiTransport}, opened by {@link SharedMidiDevice}.
+ *
+ * The data from the device comes out of its output ports through a {@link MidiInputDispatcher}.
+ * The data to the device goes into its input ports through a {@link MidiPacketWriter} for each port,
+ * or through a receiver for each port if {@link #hasInputPortReceivers()} returns true.
+ * The methods creating the resources are called with the lock of the {@link SharedMidiDevice} held.
+ */
+/* package */ abstract class MidiTransportDevice {
+    /**
+     * Listener for {@link #open}
+     */
+    interface OnOpenedListener {
+        /**
+         * Called when the device can be used, or when it has failed to open
+         *
+         * @param opened true if the device can be used
+         */
+        void onOpened(boolean opened);
+    }
+
+    /**
+     * @return one of MidiDeviceInfo.TYPE_* values
+     */
+    abstract int getType();
+
+    /**
+     * @return the address of the device, null if none
+     */
+    String getAddress() {
+        return null;
+    }
+
+    /**
+     * @return the number of input ports, which write to the device
+     */
+    abstract int getInputPortCount();
+
+    /**
+     * @return the number of output ports, which read from the device
+     */
+    abstract int getOutputPortCount();
+
+    /**
+     * Creates the information of the device, named after its address
+     *
+     * @param id the device id
+     * @return the information, null if the device can't be listed
+     */
+    MidiDeviceInfo createDeviceInfo(final int id) {
+        return new MidiDeviceInfo(getType(), id, getInputPortCount(), getOutputPortCount(),
+                createPortNames(getAddress(), getInputPortCount()), createPortNames(getAddress(), getOutputPortCount()), new Bundle(),
+                false);
+    }
+
+    /**
+     * Prepares the device to be used, then calls the listener. The device is ready at once by default.
+     *
+     * @param listener the listener
+     */
+    void open(final OnOpenedListener listener) {
+        listener.onOpened(true);
+    }
+
+    /**
+     * Creates the dispatcher feeding the output ports
+     *
+     * @param outputPortCount the number of output ports
+     * @return the dispatcher, null if the device has no output port
+     */
+    MidiInputDispatcher createInputDispatcher(final int outputPortCount) {
+        return null;
+    }
+
+    /**
+     * Creates the writer of an input port
+     *
+     * @param portNumber the port number
+     * @param threadName the name of the thread writing the held packets
+     * @return the writer, null if the device has no such port
+     */
+    MidiPacketWriter createPacketWriter(final int portNumber, final String threadName) {
+        return null;
+    }
+
+    /**
+     * Returns true if the input ports pass the data to a receiver, instead of a packet writer
+     *
+     * @return true if the input ports use {@link #getInputPortReceiver}
+     */
+    boolean hasInputPortReceivers() {
+        return false;
+    }
+
+    /**
+     * Returns the receiver of an input port
+     *
+     * @param portNumber the port number
+     * @return the receiver, null if the device has no such port
+     */
+    MidiReceiver getInputPortReceiver(final int portNumber) {
+        return null;
+    }
+
+    /**
+     * Called when an input port is opened or closed
+     *
+     * @param portNumber the port number
+     * @param delta the number of clients opened, negative if closed
+     */
+    void onInputPortOpenCountChanged(final int portNumber, final int delta) {
+    }
+
+    /**
+     * Called when an output port is opened or closed
+     *
+     * @param portNumber the port number
+     * @param delta the number of clients opened, negative if closed
+     */
+    void onOutputPortOpenCountChanged(final int portNumber, final int delta) {
+    }
+
+    /**
+     * Releases the resources of the device, when the {@link SharedMidiDevice} is closed
+     */
+    void close() {
+    }
+
+    /**
+     * Creates the names of the ports of a device, one port for each cable
+     *
+     * @param deviceAddress the address of the device
+     * @param cableCount the number of cables
+     * @return the port names
+     */
+    static String[] createPortNames(final String deviceAddress, final int cableCount) {
+        if (cableCount == 1) {
+            return new String[] { deviceAddress };
+        }
+
+        final String[] portNames = new String[cableCount];
+        for (int cable = 0; cable < cableCount; cable++) {
+            portNames[cable] = deviceAddress + " cable " + cable;
+        }
+        return portNames;
+    }
+}
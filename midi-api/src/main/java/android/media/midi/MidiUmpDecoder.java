@@ -0,0 +1,194 @@
+package android.media.midi;
+
+import java.io.IOException;
+
+/**
+ * Converts Universal MIDI Packets into MIDI 1.0 messages, and sends the messages of each group to the receiver of the group.
+ *
+ * The packets are big-endian 32-bit words, and may be split across calls.
+ * System packets (message type 0x1), MIDI 1.0 Channel Voice packets (0x2) and 64-bit Data packets (0x3) are converted as is.
+ * MIDI 2.0 Channel Voice packets (0x4) are scaled down to MIDI 1.0: the controllers and the bank of a Program Change
+ * become Control Change messages. The other packets have no MIDI 1.0 equivalent, and are skipped.
+ * As a group maps onto a USB MIDI cable, the receivers are usually the input ports of the device, by port number.
+ */
+public final class MidiUmpDecoder extends MidiReceiver {
+    // the size in words of each message type
+    private static final int[] PACKET_WORDS = {1, 1, 1, 2, 2, 4, 1, 1, 2, 2, 2, 3, 3, 4, 4, 4};
+    // F0, 6 data bytes and F7
+    private static final int SYSTEM_EXCLUSIVE_MESSAGE_MAX = 8;
+
+    private final MidiReceiver[] receivers;
+
+    private final int[] words = new int[4];
+    private int wordCount;
+    private int wordBytes;
+    private final byte[] message = new byte[SYSTEM_EXCLUSIVE_MESSAGE_MAX];
+
+    /**
+     * @param receivers the receivers, indexed by group; the packets of a group without receiver are skipped
+     */
+    public MidiUmpDecoder(final MidiReceiver[] receivers) {
+        if (receivers.length > 16) {
+            throw new IllegalArgumentException("too many groups: " + receivers.length);
+        }
+        this.receivers = receivers.clone();
+    }
+
+    /**
+     * Returns the size of a packet
+     *
+     * @param firstWord the first word of the packet
+     * @return the number of 32-bit words of the packet, from 1 to 4
+     */
+    public static int getPacketWords(final int firstWord) {
+        return PACKET_WORDS[firstWord >>> 28];
+    }
+
+    @Override
+    public synchronized void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+        for (int i = offset; i < offset + count; i++) {
+            words[wordCount] = words[wordCount] << 8 | (msg[i] & 0xff);
+            if (++wordBytes < 4) {
+                continue;
+            }
+            wordBytes = 0;
+            if (++wordCount == getPacketWords(words[0])) {
+                wordCount = 0;
+                decode(timestamp);
+                words[0] = 0;
+            }
+            words[wordCount] = 0;
+        }
+    }
+
+    /**
+     * Discards any partially received packet
+     */
+    @Override
+    public synchronized void onFlush() throws IOException {
+        wordCount = 0;
+        wordBytes = 0;
+        words[0] = 0;
+        for (final MidiReceiver receiver : receivers) {
+            if (receiver != null) {
+                receiver.flush();
+            }
+        }
+    }
+
+    private void decode(final long timestamp) throws IOException {
+        final int word = words[0];
+        final int group = (word >>> 24) & 0x0f;
+        if (group >= receivers.length || receivers[group] == null) {
+            return;
+        }
+        final MidiReceiver receiver = receivers[group];
+
+        switch (word >>> 28) {
+            case 0x1:
+            case 0x2: {
+                final int status = (word >>> 16) & 0xff;
+                if (status < 0x80 || status == 0xf0 || status == 0xf7) {
+                    return;
+                }
+                message[0] = (byte) status;
+                message[1] = (byte) ((word >>> 8) & 0x7f);
+                message[2] = (byte) (word & 0x7f);
+                receiver.send(message, 0, MidiMessageParser.getMessageLength(status), timestamp);
+                break;
+            }
+            case 0x3:
+                decodeSystemExclusive(receiver, word, words[1], timestamp);
+                break;
+            case 0x4:
+                decodeMidi2ChannelVoice(receiver, word, words[1], timestamp);
+                break;
+            default:
+                // no MIDI 1.0 equivalent
+                break;
+        }
+    }
+
+    private void decodeSystemExclusive(final MidiReceiver receiver, final int word0, final int word1, final long timestamp) throws IOException {
+        final int status = (word0 >>> 20) & 0x0f;
+        final int dataCount = Math.min((word0 >>> 16) & 0x0f, 6);
+        int length = 0;
+        if (status == 0x0 || status == 0x1) {
+            // complete or start
+            message[length++] = (byte) 0xf0;
+        }
+        for (int i = 0; i < dataCount; i++) {
+            final int word = i < 2 ? word0 : word1;
+            final int shift = i < 2 ? 8 - i * 8 : 24 - (i - 2) * 8;
+            message[length++] = (byte) ((word >>> shift) & 0x7f);
+        }
+        if (status == 0x0 || status == 0x3) {
+            // complete or end
+            message[length++] = (byte) 0xf7;
+        }
+        if (length > 0) {
+            receiver.send(message, 0, length, timestamp);
+        }
+    }
+
+    private void decodeMidi2ChannelVoice(final MidiReceiver receiver, final int word0, final int word1, final long timestamp) throws IOException {
+        final int opcode = (word0 >>> 20) & 0x0f;
+        final int channel = (word0 >>> 16) & 0x0f;
+        final int index1 = (word0 >>> 8) & 0x7f;
+        final int index2 = word0 & 0x7f;
+        switch (opcode) {
+            case 0x8:
+                sendMessage(receiver, 0x80 | channel, index1, word1 >>> 25, timestamp);
+                break;
+            case 0x9: {
+                // a velocity of zero would be a Note Off in MIDI 1.0
+                final int velocity = word1 >>> 25;
+                sendMessage(receiver, 0x90 | channel, index1, velocity == 0 ? 1 : velocity, timestamp);
+                break;
+            }
+            case 0xa:
+                sendMessage(receiver, 0xa0 | channel, index1, word1 >>> 25, timestamp);
+                break;
+            case 0xb:
+                sendMessage(receiver, 0xb0 | channel, index1, word1 >>> 25, timestamp);
+                break;
+            case 0xc:
+                if ((word0 & 0x01) != 0) {
+                    // bank valid
+                    sendMessage(receiver, 0xb0 | channel, 0, (word1 >>> 8) & 0x7f, timestamp);
+                    sendMessage(receiver, 0xb0 | channel, 32, word1 & 0x7f, timestamp);
+                }
+                sendMessage(receiver, 0xc0 | channel, (word1 >>> 24) & 0x7f, 0, timestamp);
+                break;
+            case 0xd:
+                sendMessage(receiver, 0xd0 | channel, word1 >>> 25, 0, timestamp);
+                break;
+            case 0xe: {
+                final int bend = word1 >>> 18;
+                sendMessage(receiver, 0xe0 | channel, bend & 0x7f, bend >>> 7, timestamp);
+                break;
+            }
+            case 0x2:
+            case 0x3: {
+                // Registered or Assignable (Non-Registered) Controller
+                final boolean registered = opcode == 0x2;
+                final int value = word1 >>> 18;
+                sendMessage(receiver, 0xb0 | channel, registered ? 101 : 99, index1, timestamp);
+                sendMessage(receiver, 0xb0 | channel, registered ? 100 : 98, index2, timestamp);
+                sendMessage(receiver, 0xb0 | channel, 6, value >>> 7, timestamp);
+                sendMessage(receiver, 0xb0 | channel, 38, value & 0x7f, timestamp);
+                break;
+            }
+            default:
+                // per-note controllers and management have no MIDI 1.0 equivalent
+                break;
+        }
+    }
+
+    private void sendMessage(final MidiReceiver receiver, final int status, final int data1, final int data2, final long timestamp) throws IOException {
+        message[0] = (byte) status;
+        message[1] = (byte) data1;
+        message[2] = (byte) data2;
+        receiver.send(message, 0, MidiMessageParser.getMessageLength(status), timestamp);
+    }
+}
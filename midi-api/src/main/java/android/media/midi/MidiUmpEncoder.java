@@ -0,0 +1,199 @@
+package android.media.midi;
+
+import java.io.IOException;
+
+/**
+ * Converts a MIDI 1.0 byte stream into Universal MIDI Packets, and sends them to a receiver.
+ *
+ * The packets are sent as big-endian 32-bit words, each call holding whole packets only, so the receiver needs no framing.
+ * Channel Voice messages become MIDI 1.0 Channel Voice packets (message type 0x2), System Common and System Real-Time
+ * messages become System packets (message type 0x1), and System Exclusive messages are split into 64-bit
+ * Data packets (message type 0x3) of up to 6 bytes.
+ * The stream may use Running Status, interleave System Real-Time messages, and split messages across calls.
+ * All the packets carry the group of the encoder, usually the cable number of the port.
+ */
+public final class MidiUmpEncoder extends MidiReceiver {
+    private static final int SYSTEM_EXCLUSIVE_PACKET_DATA = 6;
+    private static final int SYSTEM_EXCLUSIVE_COMPLETE = 0x0;
+    private static final int SYSTEM_EXCLUSIVE_START = 0x1;
+    private static final int SYSTEM_EXCLUSIVE_CONTINUE = 0x2;
+    private static final int SYSTEM_EXCLUSIVE_END = 0x3;
+
+    private final MidiReceiver receiver;
+    private final int group;
+
+    private final byte[] message = new byte[3];
+    private int messageCount;
+    private int messageNeeded;
+    private int runningStatus;
+
+    private boolean inSystemExclusive;
+    private boolean systemExclusiveStarted;
+    private final byte[] systemExclusive = new byte[SYSTEM_EXCLUSIVE_PACKET_DATA];
+    private int systemExclusiveCount;
+
+    // the packets converted from one call, sent at once
+    private byte[] packets = new byte[64];
+    private int packetsLength;
+
+    /**
+     * @param group the group of the packets, from 0 to 15
+     * @param receiver the receiver of the packets
+     */
+    public MidiUmpEncoder(final int group, final MidiReceiver receiver) {
+        if (group < 0 || group > 15) {
+            throw new IllegalArgumentException("group out of range: " + group);
+        }
+        this.group = group;
+        this.receiver = receiver;
+    }
+
+    /**
+     * Returns the group of the packets
+     *
+     * @return the group, from 0 to 15
+     */
+    public int getGroup() {
+        return group;
+    }
+
+    @Override
+    public synchronized void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+        packetsLength = 0;
+        for (int i = offset; i < offset + count; i++) {
+            encode(msg[i] & 0xff);
+        }
+        if (packetsLength > 0) {
+            receiver.send(packets, 0, packetsLength, timestamp);
+        }
+    }
+
+    /**
+     * Packed messages map directly onto 32-bit packets.
+     */
+    @Override
+    public synchronized void onSendBatch(final int[] messages, final long[] timestamps, final int offset, final int count) throws IOException {
+        for (int i = offset; i < offset + count; i++) {
+            final int status = (messages[i] >> 16) & 0xff;
+            packetsLength = 0;
+            putWord((status >= 0xf0 ? 0x10000000 : 0x20000000) | group << 24 | (messages[i] & 0xffffff));
+            receiver.send(packets, 0, packetsLength, timestamps[i]);
+        }
+    }
+
+    /**
+     * Discards any partially converted message, and the Running Status
+     */
+    @Override
+    public synchronized void onFlush() throws IOException {
+        messageCount = 0;
+        messageNeeded = 0;
+        runningStatus = 0;
+        inSystemExclusive = false;
+        systemExclusiveStarted = false;
+        systemExclusiveCount = 0;
+        receiver.flush();
+    }
+
+    private void encode(final int data) {
+        if (data >= 0xf8) {
+            // System Real-Time, may be interleaved anywhere
+            putWord(0x10000000 | group << 24 | data << 16);
+            return;
+        }
+
+        if (data >= 0x80) {
+            if (inSystemExclusive) {
+                // F7, or any other status byte, ends the System Exclusive message
+                putSystemExclusive(true);
+                inSystemExclusive = false;
+                if (data == 0xf7) {
+                    return;
+                }
+            }
+
+            if (data == 0xf0) {
+                inSystemExclusive = true;
+                systemExclusiveStarted = false;
+                systemExclusiveCount = 0;
+                runningStatus = 0;
+                messageNeeded = 0;
+                return;
+            }
+            if (data == 0xf7) {
+                // End of Exclusive without System Exclusive
+                return;
+            }
+
+            message[0] = (byte) data;
+            messageCount = 1;
+            messageNeeded = MidiMessageParser.getMessageLength(data) - 1;
+            runningStatus = data < 0xf0 ? data : 0;
+            if (messageNeeded == 0) {
+                putMessage();
+            }
+            return;
+        }
+
+        if (inSystemExclusive) {
+            if (systemExclusiveCount == SYSTEM_EXCLUSIVE_PACKET_DATA) {
+                putSystemExclusive(false);
+            }
+            systemExclusive[systemExclusiveCount++] = (byte) data;
+            return;
+        }
+
+        if (messageNeeded == 0) {
+            if (runningStatus == 0) {
+                // a data byte without status
+                return;
+            }
+            message[0] = (byte) runningStatus;
+            messageCount = 1;
+            messageNeeded = MidiMessageParser.getMessageLength(runningStatus) - 1;
+        }
+
+        message[messageCount++] = (byte) data;
+        if (--messageNeeded == 0) {
+            putMessage();
+        }
+    }
+
+    private void putMessage() {
+        final int status = message[0] & 0xff;
+        final int messageType = status >= 0xf0 ? 0x10000000 : 0x20000000;
+        final int data1 = messageCount > 1 ? message[1] & 0x7f : 0;
+        final int data2 = messageCount > 2 ? message[2] & 0x7f : 0;
+        putWord(messageType | group << 24 | status << 16 | data1 << 8 | data2);
+    }
+
+    private void putSystemExclusive(final boolean end) {
+        final int status;
+        if (end) {
+            status = systemExclusiveStarted ? SYSTEM_EXCLUSIVE_END : SYSTEM_EXCLUSIVE_COMPLETE;
+        } else {
+            status = systemExclusiveStarted ? SYSTEM_EXCLUSIVE_CONTINUE : SYSTEM_EXCLUSIVE_START;
+        }
+        systemExclusiveStarted = !end;
+
+        final byte[] data = systemExclusive;
+        for (int i = systemExclusiveCount; i < SYSTEM_EXCLUSIVE_PACKET_DATA; i++) {
+            data[i] = 0;
+        }
+        putWord(0x30000000 | group << 24 | status << 20 | systemExclusiveCount << 16 | (data[0] & 0x7f) << 8 | (data[1] & 0x7f));
+        putWord((data[2] & 0x7f) << 24 | (data[3] & 0x7f) << 16 | (data[4] & 0x7f) << 8 | (data[5] & 0x7f));
+        systemExclusiveCount = 0;
+    }
+
+    private void putWord(final int word) {
+        if (packetsLength + 4 > packets.length) {
+            final byte[] grown = new byte[packets.length * 2];
+            System.arraycopy(packets, 0, grown, 0, packetsLength);
+            packets = grown;
+        }
+        packets[packetsLength++] = (byte) (word >>> 24);
+        packets[packetsLength++] = (byte) (word >>> 16);
+        packets[packetsLength++] = (byte) (word >>> 8);
+        packets[packetsLength++] = (byte) word;
+    }
+}
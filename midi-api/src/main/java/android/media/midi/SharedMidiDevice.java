@@ -0,0 +1,218 @@
+package android.media.midi;
+
+/**
+ * The transport resources of a connected device, shared by all the {@link MidiDevice}s and ports opened for it.
+ *
+ * All the {@link MidiOutputPort}s of the device are fed by one {@link MidiInputDispatcher},
+ * which listens to the driver while at least one of them is open.
+ * All the {@link MidiInputPort}s of a cable write through one {@link MidiPacketWriter},
+ * which is created when the first of them is opened and closed with the last.
+ * The input ports of a device with {@link MidiTransportDevice#hasInputPortReceivers() receivers}, such as a {@link MidiDeviceService} in this process,
+ * call its receivers directly instead.
+ * The open count of every port is reported to the listener, whenever a port is opened or closed.
+ */
+/* package */ final class SharedMidiDevice {
+    /**
+     * Listener for the open counts of the ports
+     */
+    interface OnPortOpenCountChangedListener {
+        /**
+         * Called with the lock of the device held, so the changes arrive in order.
+         * The arrays must not be retained.
+         *
+         * @param inputPortOpenCounts the open counts of the input ports
+         * @param outputPortOpenCounts the open counts of the output ports
+         */
+        void onPortOpenCountChanged(int[] inputPortOpenCounts, int[] outputPortOpenCounts);
+    }
+
+    private final MidiTransportDevice device;
+    private final MidiInputDispatcher inputDispatcher;
+    private final MidiPacketWriter[] packetWriters;
+    private final int[] inputPortOpenCounts;
+    private final int[] outputPortOpenCounts;
+    private final OnPortOpenCountChangedListener onPortOpenCountChangedListener;
+    private boolean closed;
+
+    /**
+     * @param device the device of the transport
+     * @param inputPortCount the number of input ports, which write to the device
+     * @param outputPortCount the number of output ports, which read from the device
+     * @param onPortOpenCountChangedListener the listener, may be null
+     */
+    SharedMidiDevice(final MidiTransportDevice device, final int inputPortCount, final int outputPortCount, final OnPortOpenCountChangedListener onPortOpenCountChangedListener) {
+        this.device = device;
+        this.onPortOpenCountChangedListener = onPortOpenCountChangedListener;
+
+        inputDispatcher = device.createInputDispatcher(outputPortCount);
+        packetWriters = new MidiPacketWriter[device.hasInputPortReceivers() ? 0 : inputPortCount];
+        inputPortOpenCounts = new int[inputPortCount];
+        outputPortOpenCounts = new int[inputDispatcher != null ? Math.min(outputPortCount, inputDispatcher.getCableCount()) : 0];
+    }
+
+    /**
+     * Returns the dispatcher feeding the output port, counting the port as opened.
+     * Must be paired with {@link #releaseInputDispatcher}.
+     *
+     * @param portNumber the port number, which is the cable number of a USB MIDI device
+     * @return the dispatcher, null if the device is closed or has no such port
+     */
+    synchronized MidiInputDispatcher acquireInputDispatcher(final int portNumber) {
+        if (closed || portNumber < 0 || portNumber >= outputPortOpenCounts.length) {
+            return null;
+        }
+
+        outputPortOpenCounts[portNumber]++;
+        device.onOutputPortOpenCountChanged(portNumber, 1);
+        portOpenCountChangedLocked();
+        return inputDispatcher;
+    }
+
+    /**
+     * Counts the output port as closed
+     *
+     * @param portNumber the port number
+     */
+    synchronized void releaseInputDispatcher(final int portNumber) {
+        if (closed || outputPortOpenCounts[portNumber] == 0) {
+            return;
+        }
+
+        outputPortOpenCounts[portNumber]--;
+        device.onOutputPortOpenCountChanged(portNumber, -1);
+        portOpenCountChangedLocked();
+    }
+
+    /**
+     * Returns true if the input ports pass the data to a receiver, instead of a packet writer
+     *
+     * @return true if the input ports are opened by {@link #acquireInputPortReceiver}
+     */
+    boolean hasInputPortReceivers() {
+        return device.hasInputPortReceivers();
+    }
+
+    /**
+     * Returns the receiver of the input port of a device with receivers, counting the port as opened.
+     * Must be paired with {@link #releaseInputPortReceiver}.
+     *
+     * @param portNumber the port number
+     * @return the receiver, null if the device is closed or has no such port
+     */
+    synchronized MidiReceiver acquireInputPortReceiver(final int portNumber) {
+        if (closed || !device.hasInputPortReceivers() || portNumber < 0 || portNumber >= inputPortOpenCounts.length) {
+            return null;
+        }
+
+        final MidiReceiver receiver = device.getInputPortReceiver(portNumber);
+        if (receiver == null) {
+            return null;
+        }
+        inputPortOpenCounts[portNumber]++;
+        device.onInputPortOpenCountChanged(portNumber, 1);
+        portOpenCountChangedLocked();
+        return receiver;
+    }
+
+    /**
+     * Counts the input port opened by {@link #acquireInputPortReceiver} as closed
+     *
+     * @param portNumber the port number
+     */
+    synchronized void releaseInputPortReceiver(final int portNumber) {
+        if (closed || inputPortOpenCounts[portNumber] == 0) {
+            return;
+        }
+
+        inputPortOpenCounts[portNumber]--;
+        device.onInputPortOpenCountChanged(portNumber, -1);
+        portOpenCountChangedLocked();
+    }
+
+    /**
+     * Returns the number of input ports which can be opened
+     *
+     * @return the number of input ports
+     */
+    int getInputPortCount() {
+        return inputPortOpenCounts.length;
+    }
+
+    /**
+     * Returns the writer of the input port, creating it when the port is opened first.
+     * Must be paired with {@link #releasePacketWriter}.
+     *
+     * @param portNumber the port number, which is the cable number of a USB MIDI device
+     * @return the writer, null if the device is closed or has no such port
+     */
+    synchronized MidiPacketWriter acquirePacketWriter(final int portNumber) {
+        if (closed || portNumber < 0 || portNumber >= packetWriters.length) {
+            return null;
+        }
+
+        if (packetWriters[portNumber] == null) {
+            packetWriters[portNumber] = device.createPacketWriter(portNumber, "MidiInputPort[" + portNumber + "].Writer");
+            if (packetWriters[portNumber] == null) {
+                return null;
+            }
+        }
+        inputPortOpenCounts[portNumber]++;
+        device.onInputPortOpenCountChanged(portNumber, 1);
+        portOpenCountChangedLocked();
+        return packetWriters[portNumber];
+    }
+
+    /**
+     * Releases the writer of the input port, closing it when the port is closed last
+     *
+     * @param portNumber the port number
+     */
+    synchronized void releasePacketWriter(final int portNumber) {
+        if (packetWriters[portNumber] == null) {
+            return;
+        }
+
+        if (--inputPortOpenCounts[portNumber] == 0) {
+            packetWriters[portNumber].close();
+            packetWriters[portNumber] = null;
+        }
+        device.onInputPortOpenCountChanged(portNumber, -1);
+        portOpenCountChangedLocked();
+    }
+
+    /**
+     * Releases the transport resources, when the device has been detached
+     */
+    synchronized void close() {
+        closed = true;
+        if (inputDispatcher != null) {
+            inputDispatcher.close();
+        }
+        for (int i = 0; i < packetWriters.length; i++) {
+            if (packetWriters[i] != null) {
+                packetWriters[i].close();
+                packetWriters[i] = null;
+            }
+        }
+        // the device is gone, so its status is not reported
+        for (int i = 0; i < outputPortOpenCounts.length; i++) {
+            if (outputPortOpenCounts[i] > 0) {
+                device.onOutputPortOpenCountChanged(i, -outputPortOpenCounts[i]);
+                outputPortOpenCounts[i] = 0;
+            }
+        }
+        for (int i = 0; i < inputPortOpenCounts.length; i++) {
+            if (inputPortOpenCounts[i] > 0) {
+                device.onInputPortOpenCountChanged(i, -inputPortOpenCounts[i]);
+                inputPortOpenCounts[i] = 0;
+            }
+        }
+        device.close();
+    }
+
+    private void portOpenCountChangedLocked() {
+        if (onPortOpenCountChangedListener != null) {
+            onPortOpenCountChangedListener.onPortOpenCountChanged(inputPortOpenCounts, outputPortOpenCounts);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package android.media.midi;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import android.os.Build;
+
+/**
+ * Reads the USB MIDI class-specific descriptors of a device
+ */
+@SuppressLint("NewApi")
+/* package */ final class UsbMidiDescriptors {
+    private static final int DESCRIPTOR_TYPE_INTERFACE = 0x04;
+    private static final int DESCRIPTOR_TYPE_ENDPOINT = 0x05;
+    private static final int DESCRIPTOR_TYPE_CS_ENDPOINT = 0x25;
+    private static final int DESCRIPTOR_SUBTYPE_MS_GENERAL = 0x01;
+
+    /** USB-MIDI Event Packets carry the cable number in 4 bits */
+    static final int MAX_CABLE_COUNT = 16;
+
+    private UsbMidiDescriptors() {
+    }
+
+    /**
+     * Returns the number of virtual cables on the endpoint, which is the number of Embedded MIDI Jacks
+     * in the Class-Specific MS Bulk Data Endpoint Descriptor.
+     *
+     * @param context the context
+     * @param usbDevice the device
+     * @param usbInterface the MIDI Streaming interface
+     * @param usbEndpoint the bulk endpoint
+     * @return the number of cables, 1 if the descriptors can't be read
+     */
+    static int getCableCount(final Context context, final UsbDevice usbDevice, final UsbInterface usbInterface, final UsbEndpoint usbEndpoint) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR2 || context == null || usbDevice == null || usbInterface == null || usbEndpoint == null) {
+            return 1;
+        }
+
+        final UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        if (usbManager == null) {
+            return 1;
+        }
+        final UsbDeviceConnection connection = usbManager.openDevice(usbDevice);
+        if (connection == null) {
+            return 1;
+        }
+
+        final byte[] descriptors;
+        try {
+            descriptors = connection.getRawDescriptors();
+        } finally {
+            connection.close();
+        }
+        if (descriptors == null) {
+            return 1;
+        }
+
+        final int cableCount = findCableCount(descriptors, usbInterface.getId(), usbEndpoint.getAddress());
+        return Math.max(1, Math.min(cableCount, MAX_CABLE_COUNT));
+    }
+
+    /**
+     * Finds the number of Embedded MIDI Jacks of the endpoint in the raw descriptors
+     *
+     * @param descriptors the raw descriptors
+     * @param interfaceNumber bInterfaceNumber of the MIDI Streaming interface
+     * @param endpointAddress bEndpointAddress of the bulk endpoint
+     * @return the number of Embedded MIDI Jacks, 0 if not found
+     */
+    static int findCableCount(final byte[] descriptors, final int interfaceNumber, final int endpointAddress) {
+        int currentInterface = -1;
+        int currentEndpoint = -1;
+        int offset = 0;
+        while (offset + 1 < descriptors.length) {
+            final int length = descriptors[offset] & 0xff;
+            if (length < 2 || offset + length > descriptors.length) {
+                break;
+            }
+
+            switch (descriptors[offset + 1] & 0xff) {
+                case DESCRIPTOR_TYPE_INTERFACE:
+                    currentInterface = length > 2 ? descriptors[offset + 2] & 0xff : -1;
+                    currentEndpoint = -1;
+                    break;
+                case DESCRIPTOR_TYPE_ENDPOINT:
+                    currentEndpoint = length > 2 ? descriptors[offset + 2] & 0xff : -1;
+                    break;
+                case DESCRIPTOR_TYPE_CS_ENDPOINT:
+                    if (length > 3 && (descriptors[offset + 2] & 0xff) == DESCRIPTOR_SUBTYPE_MS_GENERAL
+                            && currentInterface == interfaceNumber && currentEndpoint == endpointAddress) {
+                        return descriptors[offset + 3] & 0xff;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            offset += length;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,162 @@
+package android.media.midi;
+
+import jp.kshoji.driver.midi.device.MidiInputDevice;
+import jp.kshoji.driver.midi.listener.OnMidiInputEventListener;
+
+/**
+ * Receives the MIDI events of a USB MIDI device, and passes them to the receivers of the cable
+ */
+/* package */ final class UsbMidiInputDispatcher extends MidiInputDispatcher {
+    private final MidiInputDevice usbMidiInputDevice;
+
+    /**
+     * @param usbMidiInputDevice the device
+     * @param cableCount the number of cables of the device
+     */
+    UsbMidiInputDispatcher(final MidiInputDevice usbMidiInputDevice, final int cableCount) {
+        super(cableCount);
+        this.usbMidiInputDevice = usbMidiInputDevice;
+    }
+
+    @Override
+    void attach() {
+        usbMidiInputDevice.setMidiEventListener(usbMidiInputEventListener);
+    }
+
+    @Override
+    void detach() {
+        usbMidiInputDevice.setMidiEventListener(null);
+    }
+
+    private final OnMidiInputEventListener usbMidiInputEventListener = new OnMidiInputEventListener() {
+        @Override
+        public void onMidiMiscellaneousFunctionCodes(final MidiInputDevice midiInputDevice, final int cable, final int data1, final int data2, final int data3) {
+            // ignore this method
+        }
+
+        @Override
+        public void onMidiCableEvents(final MidiInputDevice midiInputDevice, final int cable, final int data1, final int data2, final int data3) {
+            // ignore this method
+        }
+
+        @Override
+        public void onMidiSystemCommonMessage(final MidiInputDevice midiInputDevice, final int cable, final byte[] bytes) {
+            sendMidiMessage(cable, bytes);
+        }
+
+        @Override
+        public void onMidiSystemExclusive(final MidiInputDevice midiInputDevice, final int cable, final byte[] bytes) {
+            sendMidiMessage(cable, bytes);
+        }
+
+        @Override
+        public void onMidiNoteOff(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int note, final int velocity) {
+            sendMidiMessage(cable, channel | 0x80, note, velocity);
+        }
+
+        @Override
+        public void onMidiNoteOn(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int note, final int velocity) {
+            sendMidiMessage(cable, channel | 0x90, note, velocity);
+        }
+
+        @Override
+        public void onMidiPolyphonicAftertouch(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int note, final int pressure) {
+            sendMidiMessage(cable, channel | 0xa0, note, pressure);
+        }
+
+        @Override
+        public void onMidiControlChange(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int function, final int value) {
+            sendMidiMessage(cable, channel | 0xb0, function, value);
+        }
+
+        @Override
+        public void onMidiProgramChange(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int program) {
+            sendMidiMessage(cable, channel | 0xc0, program);
+        }
+
+        @Override
+        public void onMidiChannelAftertouch(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int pressure) {
+            sendMidiMessage(cable, channel | 0xd0, pressure);
+        }
+
+        @Override
+        public void onMidiPitchWheel(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int amount) {
+            sendMidiMessage(cable, channel | 0xe0, amount & 0x7f, amount >> 7);
+        }
+
+        @Override
+        public void onMidiSingleByte(final MidiInputDevice midiInputDevice, final int cable, final int data) {
+            // ignore this method
+        }
+
+        @Override
+        public void onMidiTimeCodeQuarterFrame(final MidiInputDevice midiInputDevice, final int cable, final int timing) {
+            sendMidiMessage(cable, 0xf1, timing);
+        }
+
+        @Override
+        public void onMidiSongSelect(final MidiInputDevice midiInputDevice, final int cable, final int song) {
+            sendMidiMessage(cable, 0xf3, song);
+        }
+
+        @Override
+        public void onMidiSongPositionPointer(final MidiInputDevice midiInputDevice, final int cable, final int position) {
+            sendMidiMessage(cable, 0xf2, position & 0x7f, position >> 7);
+        }
+
+        @Override
+        public void onMidiTuneRequest(final MidiInputDevice midiInputDevice, final int cable) {
+            sendMidiMessage(cable, 0xf6);
+        }
+
+        @Override
+        public void onMidiTimingClock(final MidiInputDevice midiInputDevice, final int cable) {
+            sendMidiMessage(cable, 0xf8);
+        }
+
+        @Override
+        public void onMidiStart(final MidiInputDevice midiInputDevice, final int cable) {
+            sendMidiMessage(cable, 0xfa);
+        }
+
+        @Override
+        public void onMidiContinue(final MidiInputDevice midiInputDevice, final int cable) {
+            sendMidiMessage(cable, 0xfb);
+        }
+
+        @Override
+        public void onMidiStop(final MidiInputDevice midiInputDevice, final int cable) {
+            sendMidiMessage(cable, 0xfc);
+        }
+
+        @Override
+        public void onMidiActiveSensing(final MidiInputDevice midiInputDevice, final int cable) {
+            sendMidiMessage(cable, 0xfe);
+        }
+
+        @Override
+        public void onMidiReset(final MidiInputDevice midiInputDevice, final int cable) {
+            sendMidiMessage(cable, 0xff);
+        }
+
+        @Override
+        public void onMidiRPNReceived(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int i2, final int i3, final int i4) {
+            // ignore this method
+        }
+
+        @Override
+        public void onMidiNRPNReceived(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int i2, final int i3, final int i4) {
+            // ignore this method
+        }
+
+        @Override
+        public void onMidiRPNReceived(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int i2, final int i3) {
+            // ignore this method
+        }
+
+        @Override
+        public void onMidiNRPNReceived(final MidiInputDevice midiInputDevice, final int cable, final int channel, final int i2, final int i3) {
+            // ignore this method
+        }
+    };
+}
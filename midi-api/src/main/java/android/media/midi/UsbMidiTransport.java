@@ -0,0 +1,161 @@
+package android.media.midi;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.hardware.usb.UsbDevice;
+import android.os.IBinder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.kshoji.driver.midi.device.MidiInputDevice;
+import jp.kshoji.driver.midi.device.MidiOutputDevice;
+import jp.kshoji.driver.midi.listener.OnMidiDeviceAttachedListener;
+import jp.kshoji.driver.midi.listener.OnMidiDeviceDetachedListener;
+import jp.kshoji.driver.midi.service.MultipleMidiService;
+
+/**
+ * The USB MIDI devices, reported by the {@link MultipleMidiService} of the USB MIDI driver
+ */
+/* package */ final class UsbMidiTransport extends MidiTransport {
+    private final Context context;
+    // the devices reported, by driver object
+    private final Map<Object, UsbMidiTransportDevice> devices = new HashMap<Object, UsbMidiTransportDevice>();
+    private Listener listener;
+    private MultipleMidiService usbMidiService;
+
+    /**
+     * @param context the context binding the service
+     */
+    UsbMidiTransport(final Context context) {
+        this.context = context;
+    }
+
+    @Override
+    int getTransport() {
+        return MidiManager.TRANSPORT_USB;
+    }
+
+    @Override
+    synchronized void start(final Listener listener) {
+        this.listener = listener;
+        final Intent intent = new Intent(context, MultipleMidiService.class);
+        context.startService(intent);
+        context.bindService(intent, serviceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    /**
+     * Stops the service, and reports all the devices as detached
+     */
+    @Override
+    void stop() {
+        final List<UsbMidiTransportDevice> detachedDevices;
+        final Listener currentListener;
+        synchronized (this) {
+            if (usbMidiService != null) {
+                usbMidiService.setOnMidiDeviceAttachedListener(null);
+                usbMidiService.setOnMidiDeviceDetachedListener(null);
+                usbMidiService = null;
+            }
+            context.unbindService(serviceConnection);
+            context.stopService(new Intent(context, MultipleMidiService.class));
+
+            detachedDevices = new ArrayList<UsbMidiTransportDevice>(devices.values());
+            devices.clear();
+            currentListener = listener;
+            listener = null;
+        }
+
+        if (currentListener != null) {
+            for (final UsbMidiTransportDevice device : detachedDevices) {
+                currentListener.onDeviceDetached(device);
+            }
+        }
+    }
+
+    private void attached(final Object driver, final UsbMidiTransportDevice device) {
+        final Listener currentListener;
+        synchronized (this) {
+            if (listener == null) {
+                // stopped
+                return;
+            }
+            devices.put(driver, device);
+            currentListener = listener;
+        }
+        currentListener.onDeviceAttached(device);
+    }
+
+    private void detached(final Object driver) {
+        final UsbMidiTransportDevice device;
+        final Listener currentListener;
+        synchronized (this) {
+            device = devices.remove(driver);
+            currentListener = listener;
+        }
+        if (device != null && currentListener != null) {
+            currentListener.onDeviceDetached(device);
+        }
+    }
+
+    private final OnMidiDeviceAttachedListener usbMidiDeviceAttachedListener = new OnMidiDeviceAttachedListener() {
+        @Override
+        public void onDeviceAttached(final UsbDevice usbDevice) {
+            // do nothing
+        }
+
+        @Override
+        public synchronized void onMidiInputDeviceAttached(final MidiInputDevice midiInputDevice) {
+            final int cableCount = UsbMidiDescriptors.getCableCount(context, midiInputDevice.getUsbDevice(), midiInputDevice.getUsbInterface(), midiInputDevice.getUsbEndpoint());
+            attached(midiInputDevice, new UsbMidiTransportDevice(midiInputDevice, cableCount));
+        }
+
+        @Override
+        public synchronized void onMidiOutputDeviceAttached(final MidiOutputDevice midiOutputDevice) {
+            final int cableCount = UsbMidiDescriptors.getCableCount(context, midiOutputDevice.getUsbDevice(), midiOutputDevice.getUsbInterface(), midiOutputDevice.getUsbEndpoint());
+            attached(midiOutputDevice, new UsbMidiTransportDevice(midiOutputDevice, cableCount));
+        }
+    };
+
+    private final OnMidiDeviceDetachedListener usbMidiDeviceDetachedListener = new OnMidiDeviceDetachedListener() {
+        @Override
+        public void onDeviceDetached(final UsbDevice usbDevice) {
+            // do nothing
+        }
+
+        @Override
+        public synchronized void onMidiInputDeviceDetached(final MidiInputDevice midiInputDevice) {
+            detached(midiInputDevice);
+        }
+
+        @Override
+        public synchronized void onMidiOutputDeviceDetached(final MidiOutputDevice midiOutputDevice) {
+            detached(midiOutputDevice);
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(final ComponentName name, final IBinder service) {
+            final Listener currentListener;
+            synchronized (UsbMidiTransport.this) {
+                usbMidiService = ((MultipleMidiService.LocalBinder)service).getService();
+                usbMidiService.setOnMidiDeviceAttachedListener(usbMidiDeviceAttachedListener);
+                usbMidiService.setOnMidiDeviceDetachedListener(usbMidiDeviceDetachedListener);
+                currentListener = listener;
+            }
+            currentListener.onTransportStarted(UsbMidiTransport.this);
+        }
+
+        @Override
+        public void onServiceDisconnected(final ComponentName name) {
+            synchronized (UsbMidiTransport.this) {
+                usbMidiService = null;
+            }
+        }
+    };
+}
@@ -0,0 +1,160 @@
+package android.media.midi;
+
+import jp.kshoji.driver.midi.device.MidiInputDevice;
+import jp.kshoji.driver.midi.device.MidiOutputDevice;
+
+/**
+ * A USB MIDI device, which has one port for each cable.
+ * The USB MIDI driver reports the input and the output of a device as separate devices.
+ *
+ * The input ports hand each message to the driver as it arrives, and never hold it:
+ * the driver owns the bulk endpoint, and its writer thread already packs the queued USB-MIDI Event Packets
+ * into one bulk transfer of up to the max packet size of the endpoint.
+ */
+/* package */ final class UsbMidiTransportDevice extends MidiTransportDevice {
+    private final MidiInputDevice usbMidiInputDevice;
+    private final MidiOutputDevice usbMidiOutputDevice;
+    private final int cableCount;
+
+    /**
+     * @param usbMidiInputDevice the device sending the data, which comes out of the output ports
+     * @param cableCount the number of cables of the device
+     */
+    UsbMidiTransportDevice(final MidiInputDevice usbMidiInputDevice, final int cableCount) {
+        this.usbMidiInputDevice = usbMidiInputDevice;
+        this.usbMidiOutputDevice = null;
+        this.cableCount = cableCount;
+    }
+
+    /**
+     * @param usbMidiOutputDevice the device receiving the data, which goes into the input ports
+     * @param cableCount the number of cables of the device
+     */
+    UsbMidiTransportDevice(final MidiOutputDevice usbMidiOutputDevice, final int cableCount) {
+        this.usbMidiInputDevice = null;
+        this.usbMidiOutputDevice = usbMidiOutputDevice;
+        this.cableCount = cableCount;
+    }
+
+    @Override
+    int getType() {
+        return MidiDeviceInfo.TYPE_USB;
+    }
+
+    @Override
+    String getAddress() {
+        return usbMidiInputDevice != null ? usbMidiInputDevice.getDeviceAddress() : usbMidiOutputDevice.getDeviceAddress();
+    }
+
+    @Override
+    int getInputPortCount() {
+        return usbMidiOutputDevice != null ? cableCount : 0;
+    }
+
+    @Override
+    int getOutputPortCount() {
+        return usbMidiInputDevice != null ? cableCount : 0;
+    }
+
+    @Override
+    MidiInputDispatcher createInputDispatcher(final int outputPortCount) {
+        return usbMidiInputDevice != null ? new UsbMidiInputDispatcher(usbMidiInputDevice, outputPortCount) : null;
+    }
+
+    @Override
+    MidiPacketWriter createPacketWriter(final int portNumber, final String threadName) {
+        return usbMidiOutputDevice != null ? new DriverWriter(usbMidiOutputDevice, portNumber) : null;
+    }
+
+    /**
+     * Writes the messages of a cable through the typed sends of the driver
+     */
+    private static final class DriverWriter extends MidiPacketWriter {
+        private final MidiOutputDevice usbMidiOutputDevice;
+        private final int cable;
+
+        DriverWriter(final MidiOutputDevice usbMidiOutputDevice, final int cable) {
+            this.usbMidiOutputDevice = usbMidiOutputDevice;
+            this.cable = cable;
+        }
+
+        @Override
+        void write(final byte[] message, final int count, final long timestamp) {
+            writeMessage(message[0] & 0xff, count > 1 ? message[1] : 0, count > 2 ? message[2] : 0);
+        }
+
+        @Override
+        void writeSystemExclusive(final byte[] systemExclusive) {
+            usbMidiOutputDevice.sendMidiSystemExclusive(cable, systemExclusive);
+        }
+
+        /**
+         * Hands one message to the driver
+         *
+         * @param byte1 the status byte
+         * @param byte2 the second byte
+         * @param byte3 the third byte
+         */
+        private void writeMessage(final int byte1, final int byte2, final int byte3) {
+            switch (byte1 & 0xf0) {
+                case 0x80: // Note Off
+                    usbMidiOutputDevice.sendMidiNoteOff(cable, byte1 & 0x0f, byte2, byte3);
+                    break;
+                case 0x90: // Note On
+                    usbMidiOutputDevice.sendMidiNoteOn(cable, byte1 & 0x0f, byte2, byte3);
+                    break;
+                case 0xa0: // Poly Pressure
+                    usbMidiOutputDevice.sendMidiPolyphonicAftertouch(cable, byte1 & 0x0f, byte2, byte3);
+                    break;
+                case 0xb0: // Control Change
+                    usbMidiOutputDevice.sendMidiControlChange(cable, byte1 & 0x0f, byte2, byte3);
+                    break;
+                case 0xc0: // Program Change
+                    usbMidiOutputDevice.sendMidiProgramChange(cable, byte1 & 0x0f, byte2);
+                    break;
+                case 0xd0: // Channel Pressure
+                    usbMidiOutputDevice.sendMidiChannelAftertouch(cable, byte1 & 0x0f, byte2);
+                    break;
+                case 0xe0: // Pitch Bend
+                    usbMidiOutputDevice.sendMidiPitchWheel(cable, byte1 & 0x0f, byte3 << 7 | byte2);
+                    break;
+                default:
+                    switch (byte1) {
+                        case 0xf1: // MIDI Time Code
+                            usbMidiOutputDevice.sendMidiTimeCodeQuarterFrame(cable, byte2);
+                            break;
+                        case 0xf2: // Song Position Pointer
+                            usbMidiOutputDevice.sendMidiSongPositionPointer(cable, byte3 << 7 | byte2);
+                            break;
+                        case 0xf3: // Song Select
+                            usbMidiOutputDevice.sendMidiSongSelect(cable, byte2);
+                            break;
+                        case 0xf6: // Tune Request
+                            usbMidiOutputDevice.sendMidiTuneRequest(cable);
+                            break;
+                        case 0xf8: // Timing Clock
+                            usbMidiOutputDevice.sendMidiTimingClock(cable);
+                            break;
+                        case 0xfa: // Start
+                            usbMidiOutputDevice.sendMidiStart(cable);
+                            break;
+                        case 0xfb: // Continue
+                            usbMidiOutputDevice.sendMidiContinue(cable);
+                            break;
+                        case 0xfc: // Stop
+                            usbMidiOutputDevice.sendMidiStop(cable);
+                            break;
+                        case 0xfe: // Active Sensing
+                            usbMidiOutputDevice.sendMidiActiveSensing(cable);
+                            break;
+                        case 0xff: // System Reset
+                            usbMidiOutputDevice.sendMidiReset(cable);
+                            break;
+                        default:
+                            break;
+                    }
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package android.media.midi;
+
+import android.content.Context;
+import android.content.pm.ServiceInfo;
+import android.content.res.XmlResourceParser;
+import android.os.Bundle;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the device described by the meta-data of a {@link MidiDeviceService}.
+ *
+ * The format is the one of the platform MIDI service:
+ * the attributes of the first &lt;device&gt; element become the properties of the device,
+ * and its &lt;input-port&gt; and &lt;output-port&gt; elements declare the ports.
+ */
+/* package */ final class VirtualMidiDeviceInfoParser {
+    private static final String TAG = "VirtualMidiDeviceInfoParser";
+
+    private VirtualMidiDeviceInfoParser() {
+    }
+
+    /**
+     * Reads the device of the service
+     *
+     * @param context the context
+     * @param serviceInfo the service, resolved with the meta-data
+     * @param id the device id
+     * @return the device, null if the service has no valid meta-data
+     */
+    static MidiDeviceInfo parse(final Context context, final ServiceInfo serviceInfo, final int id) {
+        final XmlResourceParser parser = serviceInfo.loadXmlMetaData(context.getPackageManager(), MidiDeviceService.SERVICE_INTERFACE);
+        if (parser == null) {
+            return null;
+        }
+
+        try {
+            return parse(parser, serviceInfo, id);
+        } catch (final XmlPullParserException e) {
+            Log.w(TAG, "failed to read the meta-data of " + serviceInfo.name, e);
+            return null;
+        } catch (final IOException e) {
+            Log.w(TAG, "failed to read the meta-data of " + serviceInfo.name, e);
+            return null;
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static MidiDeviceInfo parse(final XmlPullParser parser, final ServiceInfo serviceInfo, final int id) throws XmlPullParserException, IOException {
+        Bundle properties = null;
+        boolean isPrivate = false;
+        final List<String> inputPortNames = new ArrayList<String>();
+        final List<String> outputPortNames = new ArrayList<String>();
+
+        for (int eventType = parser.getEventType(); eventType != XmlPullParser.END_DOCUMENT; eventType = parser.next()) {
+            if (eventType == XmlPullParser.START_TAG) {
+                final String tagName = parser.getName();
+                if ("device".equals(tagName)) {
+                    if (properties != null) {
+                        // only the first device is published
+                        break;
+                    }
+
+                    properties = new Bundle();
+                    properties.putParcelable(MidiDeviceInfo.PROPERTY_SERVICE_INFO, serviceInfo);
+                    for (int i = 0; i < parser.getAttributeCount(); i++) {
+                        final String name = parser.getAttributeName(i);
+                        final String value = parser.getAttributeValue(i);
+                        if ("private".equals(name)) {
+                            isPrivate = "true".equals(value);
+                        } else {
+                            properties.putString(name, value);
+                        }
+                    }
+                } else if (properties != null && "input-port".equals(tagName)) {
+                    inputPortNames.add(parser.getAttributeValue(null, "name"));
+                } else if (properties != null && "output-port".equals(tagName)) {
+                    outputPortNames.add(parser.getAttributeValue(null, "name"));
+                }
+            } else if (eventType == XmlPullParser.END_TAG && properties != null && "device".equals(parser.getName())) {
+                break;
+            }
+        }
+
+        if (properties == null) {
+            return null;
+        }
+
+        return new MidiDeviceInfo(MidiDeviceInfo.TYPE_VIRTUAL, id, inputPortNames.size(), outputPortNames.size(),
+                inputPortNames.toArray(new String[inputPortNames.size()]), outputPortNames.toArray(new String[outputPortNames.size()]),
+                properties, isPrivate);
+    }
+}
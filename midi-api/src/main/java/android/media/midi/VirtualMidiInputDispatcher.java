@@ -0,0 +1,28 @@
+package android.media.midi;
+
+/**
+ * Receives the data sent out the output ports of a {@link MidiDeviceService} in this process, and passes it to the receivers of the port.
+ * The data is passed as sent by the service, with its timestamp; it isn't copied, nor parsed.
+ */
+/* package */ final class VirtualMidiInputDispatcher extends MidiInputDispatcher {
+    private final MidiDeviceService midiDeviceService;
+
+    /**
+     * @param midiDeviceService the service
+     * @param outputPortCount the number of output ports of the service
+     */
+    VirtualMidiInputDispatcher(final MidiDeviceService midiDeviceService, final int outputPortCount) {
+        super(outputPortCount);
+        this.midiDeviceService = midiDeviceService;
+    }
+
+    @Override
+    void attach() {
+        midiDeviceService.addOutputPortDispatcher(this);
+    }
+
+    @Override
+    void detach() {
+        midiDeviceService.removeOutputPortDispatcher(this);
+    }
+}
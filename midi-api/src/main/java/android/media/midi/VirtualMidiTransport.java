@@ -0,0 +1,61 @@
+package android.media.midi;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The devices declared by the {@link MidiDeviceService}s of this application, published at the first start
+ */
+/* package */ final class VirtualMidiTransport extends MidiTransport {
+    private final Context context;
+    private boolean published;
+
+    /**
+     * @param context the context of the application
+     */
+    VirtualMidiTransport(final Context context) {
+        this.context = context;
+    }
+
+    @Override
+    int getTransport() {
+        return MidiManager.TRANSPORT_VIRTUAL;
+    }
+
+    @Override
+    void start(final Listener listener) {
+        final List<VirtualMidiTransportDevice> devices = new ArrayList<VirtualMidiTransportDevice>();
+        synchronized (this) {
+            if (!published) {
+                published = true;
+
+                final Intent intent = new Intent(MidiDeviceService.SERVICE_INTERFACE).setPackage(context.getPackageName());
+                final List<ResolveInfo> resolveInfos = context.getPackageManager().queryIntentServices(intent, PackageManager.GET_META_DATA);
+                if (resolveInfos != null) {
+                    for (final ResolveInfo resolveInfo : resolveInfos) {
+                        final ServiceInfo serviceInfo = resolveInfo.serviceInfo;
+                        if (serviceInfo != null) {
+                            devices.add(new VirtualMidiTransportDevice(context, serviceInfo, listener));
+                        }
+                    }
+                }
+            }
+        }
+
+        for (final VirtualMidiTransportDevice device : devices) {
+            listener.onDeviceAttached(device);
+        }
+        listener.onTransportStarted(this);
+    }
+
+    @Override
+    void stop() {
+        // the devices stay published, and the bound services stay bound
+    }
+}
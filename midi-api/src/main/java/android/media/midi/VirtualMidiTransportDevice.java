@@ -0,0 +1,158 @@
+package android.media.midi;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.ServiceInfo;
+import android.os.IBinder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The device of a {@link MidiDeviceService} of this application.
+ *
+ * The service is bound at the first open, and the opens are answered once it is bound.
+ * The service stays bound while the manager lives, so the later opens are answered at once.
+ * Its ports call the receivers of the service directly, without any copy.
+ */
+/* package */ final class VirtualMidiTransportDevice extends MidiTransportDevice {
+    private final Context context;
+    private final ServiceInfo serviceInfo;
+    private final MidiTransport.Listener transportListener;
+
+    private final List<OnOpenedListener> pendingListeners = new ArrayList<OnOpenedListener>();
+    private boolean binding;
+    private volatile MidiDeviceService midiDeviceService;
+    private int inputPortCount;
+    private int outputPortCount;
+
+    /**
+     * @param context the context binding the service
+     * @param serviceInfo the service, resolved with the meta-data
+     * @param transportListener the listener notified when the service is gone
+     */
+    VirtualMidiTransportDevice(final Context context, final ServiceInfo serviceInfo, final MidiTransport.Listener transportListener) {
+        this.context = context;
+        this.serviceInfo = serviceInfo;
+        this.transportListener = transportListener;
+    }
+
+    @Override
+    int getType() {
+        return MidiDeviceInfo.TYPE_VIRTUAL;
+    }
+
+    @Override
+    synchronized int getInputPortCount() {
+        return inputPortCount;
+    }
+
+    @Override
+    synchronized int getOutputPortCount() {
+        return outputPortCount;
+    }
+
+    /**
+     * Reads the device declared by the meta-data of the service
+     */
+    @Override
+    MidiDeviceInfo createDeviceInfo(final int id) {
+        final MidiDeviceInfo deviceInfo = VirtualMidiDeviceInfoParser.parse(context, serviceInfo, id);
+        if (deviceInfo != null) {
+            synchronized (this) {
+                inputPortCount = deviceInfo.getInputPortCount();
+                outputPortCount = deviceInfo.getOutputPortCount();
+            }
+        }
+        return deviceInfo;
+    }
+
+    @Override
+    void open(final OnOpenedListener listener) {
+        final boolean ready;
+        final boolean bind;
+        synchronized (this) {
+            ready = midiDeviceService != null;
+            bind = !ready && !binding;
+            if (!ready) {
+                pendingListeners.add(listener);
+                binding = true;
+            }
+        }
+
+        if (ready) {
+            listener.onOpened(true);
+            return;
+        }
+
+        if (bind && !context.bindService(new Intent().setComponent(new ComponentName(serviceInfo.packageName, serviceInfo.name)), serviceConnection, Context.BIND_AUTO_CREATE)) {
+            synchronized (this) {
+                binding = false;
+            }
+            notifyPendingListeners(false);
+        }
+    }
+
+    private void notifyPendingListeners(final boolean opened) {
+        final OnOpenedListener[] listeners;
+        synchronized (this) {
+            listeners = pendingListeners.toArray(new OnOpenedListener[pendingListeners.size()]);
+            pendingListeners.clear();
+        }
+
+        for (final OnOpenedListener listener : listeners) {
+            listener.onOpened(opened);
+        }
+    }
+
+    @Override
+    MidiInputDispatcher createInputDispatcher(final int outputPortCount) {
+        final MidiDeviceService service = midiDeviceService;
+        return service != null && outputPortCount > 0 ? new VirtualMidiInputDispatcher(service, outputPortCount) : null;
+    }
+
+    @Override
+    boolean hasInputPortReceivers() {
+        return true;
+    }
+
+    @Override
+    MidiReceiver getInputPortReceiver(final int portNumber) {
+        final MidiDeviceService service = midiDeviceService;
+        return service != null ? service.getInputPortReceiver(portNumber) : null;
+    }
+
+    @Override
+    void onInputPortOpenCountChanged(final int portNumber, final int delta) {
+        final MidiDeviceService service = midiDeviceService;
+        if (service != null) {
+            service.onInputPortOpenCountChanged(portNumber, delta);
+        }
+    }
+
+    @Override
+    void onOutputPortOpenCountChanged(final int portNumber, final int delta) {
+        final MidiDeviceService service = midiDeviceService;
+        if (service != null) {
+            service.onOutputPortOpenCountChanged(portNumber, delta);
+        }
+    }
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(final ComponentName name, final IBinder service) {
+            synchronized (VirtualMidiTransportDevice.this) {
+                midiDeviceService = ((MidiDeviceService.LocalBinder) service).getService();
+            }
+            notifyPendingListeners(true);
+        }
+
+        @Override
+        public void onServiceDisconnected(final ComponentName name) {
+            midiDeviceService = null;
+            transportListener.onDeviceReset(VirtualMidiTransportDevice.this);
+        }
+    };
+}
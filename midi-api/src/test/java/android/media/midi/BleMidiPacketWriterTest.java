@@ -0,0 +1,178 @@
+package android.media.midi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jp.kshoji.blemidi.device.MidiOutputDevice;
+
+import static android.media.midi.MidiTestUtils.bytes;
+import static android.media.midi.MidiTestUtils.hex;
+import static org.junit.Assert.assertArrayEquals;
+
+public class BleMidiPacketWriterTest {
+    // 0x1234 ms: the header byte is 0x80 | 0x24, the timestamp byte 0x80 | 0x34
+    private static final long MILLIS = 0x1234;
+
+    /**
+     * Records the packets transferred, System Exclusive ones prefixed with "X"
+     */
+    private static final class RecordingOutputDevice extends MidiOutputDevice {
+        private final List<String> packets = new ArrayList<String>();
+
+        @Override
+        public String getDeviceName() {
+            return "BleMidiPacketWriterTest";
+        }
+
+        @Override
+        public String getDeviceAddress() {
+            return "00:00:00:00:00:00";
+        }
+
+        @Override
+        public synchronized void transferData(final byte[] data) {
+            packets.add(hex(data, 0, data.length));
+        }
+
+        @Override
+        public synchronized void sendMidiSystemExclusive(final byte[] systemExclusive) {
+            packets.add("X" + hex(systemExclusive, 0, systemExclusive.length));
+        }
+
+        synchronized void assertPackets(final String... expected) {
+            assertArrayEquals(expected, packets.toArray(new String[packets.size()]));
+        }
+    }
+
+    private final RecordingOutputDevice device = new RecordingOutputDevice();
+    private final BleMidiPacketWriter writer = new BleMidiPacketWriter(device, "BleMidiPacketWriterTest");
+
+    @After
+    public void tearDown() {
+        writer.close();
+    }
+
+    private void write(final long millis, final int... values) {
+        writer.write(bytes(values), values.length, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void eachMessageIsWrittenAtOnceByDefault() {
+        write(MILLIS, 0x90, 0x3c, 0x40);
+        write(MILLIS + 1, 0x90, 0x3e, 0x40);
+        device.assertPackets("A4 B4 90 3C 40", "A4 B5 90 3E 40");
+    }
+
+    @Test
+    public void headerAndTimestampBytes() {
+        // the timestamp is 13 bits, so it wraps every 8192 ms; a timestamp of 0 would mean now
+        write(0x2000, 0xf8);
+        write(0x207f, 0xf8);
+        write(0x2080, 0xf8);
+        write(0x3fff, 0xf8);
+        write(0x4085, 0xf8);
+        device.assertPackets("80 80 F8", "80 FF F8", "81 80 F8", "BF FF F8", "81 85 F8");
+    }
+
+    @Test
+    public void runningStatusOmitsTheStatusByte() {
+        writer.setCoalescingEnabled(true);
+        write(MILLIS, 0x90, 0x3c, 0x40);
+        write(MILLIS + 1, 0x90, 0x3e, 0x40);
+        write(MILLIS + 2, 0x80, 0x3c, 0x00);
+        write(MILLIS + 2, 0x80, 0x3e, 0x00);
+        writer.sendPendingPackets();
+        device.assertPackets("A4 B4 90 3C 40 B5 3E 40 B6 80 3C 00 B6 3E 00");
+    }
+
+    @Test
+    public void systemMessageCancelsRunningStatus() {
+        writer.setCoalescingEnabled(true);
+        write(MILLIS, 0x90, 0x3c, 0x40);
+        write(MILLIS, 0xf8);
+        write(MILLIS, 0x90, 0x3e, 0x40);
+        write(MILLIS, 0xf3, 0x01);
+        write(MILLIS, 0x90, 0x40, 0x40);
+        writer.sendPendingPackets();
+        device.assertPackets("A4 B4 90 3C 40 B4 F8 B4 90 3E 40 B4 F3 01 B4 90 40 40");
+    }
+
+    @Test
+    public void messageNotFittingTheMtuStartsAPacket() {
+        writer.setCoalescingEnabled(true);
+        for (int channel = 0; channel < 5; channel++) {
+            write(MILLIS, 0x90 | channel, 0x3c, 0x40);
+        }
+        // 1 + 4 * 4 bytes, the fifth message would make 21
+        device.assertPackets("A4 B4 90 3C 40 B4 91 3C 40 B4 92 3C 40 B4 93 3C 40");
+
+        writer.sendPendingPackets();
+        device.assertPackets("A4 B4 90 3C 40 B4 91 3C 40 B4 92 3C 40 B4 93 3C 40", "A4 B4 94 3C 40");
+        // Running Status doesn't carry over to the next packet
+        writer.setCoalescingEnabled(false);
+        write(MILLIS, 0x94, 0x3e, 0x40);
+        device.assertPackets("A4 B4 90 3C 40 B4 91 3C 40 B4 92 3C 40 B4 93 3C 40", "A4 B4 94 3C 40", "A4 B4 94 3E 40");
+    }
+
+    @Test
+    public void fullPacketIsWrittenWithoutWaiting() {
+        writer.setCoalescingEnabled(true);
+        write(MILLIS, 0x90, 0x30, 0x40);
+        for (int note = 0x31; note < 0x36; note++) {
+            write(MILLIS, 0x90, note, 0x40);
+        }
+        // 1 + 4 + 5 * 3 = 20 bytes
+        device.assertPackets("A4 B4 90 30 40 B4 31 40 B4 32 40 B4 33 40 B4 34 40 B4 35 40");
+    }
+
+    @Test
+    public void timestampByteWrapsWithinAPacket() {
+        writer.setCoalescingEnabled(true);
+        write(0x127f, 0xf8);
+        write(0x1280, 0xf8);
+        writer.sendPendingPackets();
+        // the receiver carries the wrap of the lower 7 bits into the header
+        device.assertPackets("A4 FF F8 80 F8");
+    }
+
+    @Test
+    public void gapTooLongForTheTimestampByteStartsAPacket() {
+        writer.setCoalescingEnabled(true);
+        write(MILLIS, 0xf8);
+        write(MILLIS + 0x7f, 0xf8);
+        write(MILLIS + 0xff, 0xf8);
+        writer.sendPendingPackets();
+        device.assertPackets("A4 B4 F8 B3 F8", "A6 B3 F8");
+    }
+
+    @Test
+    public void timestampsDontGoBackwardsWithinAPacket() {
+        writer.setCoalescingEnabled(true);
+        write(MILLIS, 0xf8);
+        write(MILLIS - 5, 0xfa);
+        writer.sendPendingPackets();
+        device.assertPackets("A4 B4 F8 B4 FA");
+    }
+
+    @Test
+    public void systemExclusiveIsWrittenAfterTheHeldPacket() {
+        writer.setCoalescingEnabled(true);
+        write(MILLIS, 0x90, 0x3c, 0x40);
+        writer.writeSystemExclusive(bytes(0xf0, 0x7e, 0x01, 0xf7));
+        device.assertPackets("A4 B4 90 3C 40", "XF0 7E 01 F7");
+    }
+
+    @Test
+    public void heldPacketIsWrittenAfterTheConnectionInterval() throws InterruptedException {
+        writer.setCoalescingEnabled(true);
+        write(MILLIS, 0x90, 0x3c, 0x40);
+        device.assertPackets();
+
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(BleMidiPacketWriter.MAX_DELAY_NANOS) + 50);
+        device.assertPackets("A4 B4 90 3C 40");
+    }
+}
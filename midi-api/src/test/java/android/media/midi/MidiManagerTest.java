@@ -0,0 +1,137 @@
+package android.media.midi;
+
+import android.media.midi.MidiTestUtils.RecordingReceiver;
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.media.midi.MidiTestUtils.TIMESTAMP;
+import static android.media.midi.MidiTestUtils.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MidiManagerTest {
+    private static final int DEVICE_COUNT = 2;
+    private static final int PORT_COUNT = 2;
+
+    /**
+     * Records the devices added and removed
+     */
+    private static class RecordingCallback extends MidiManager.DeviceCallback {
+        final List<MidiDeviceInfo> added = new ArrayList<MidiDeviceInfo>();
+        final List<MidiDeviceInfo> removed = new ArrayList<MidiDeviceInfo>();
+
+        @Override
+        public void onDeviceAdded(final MidiDeviceInfo device) {
+            added.add(device);
+        }
+
+        @Override
+        public void onDeviceRemoved(final MidiDeviceInfo device) {
+            removed.add(device);
+        }
+    }
+
+    private MidiManager manager;
+    private RecordingCallback callback;
+
+    @Before
+    public void setUp() {
+        manager = new MidiManager(new MidiTransport[] { new LoopbackMidiTransport(DEVICE_COUNT, PORT_COUNT) });
+        callback = new RecordingCallback();
+        // without a handler, the changes are delivered at once
+        manager.registerDeviceCallback(callback, null);
+    }
+
+    private MidiDevice openDevice(final MidiDeviceInfo deviceInfo) {
+        final MidiDevice[] opened = new MidiDevice[1];
+        manager.openDevice(deviceInfo, new MidiManager.OnDeviceOpenedListener() {
+            @Override
+            public void onDeviceOpened(final MidiDevice device) {
+                opened[0] = device;
+            }
+        }, null);
+        return opened[0];
+    }
+
+    @Test
+    public void attachedDevicesAreReported() {
+        assertEquals(DEVICE_COUNT, callback.added.size());
+        assertEquals(0, callback.removed.size());
+
+        final MidiDeviceInfo[] devices = manager.getDevices();
+        assertEquals(DEVICE_COUNT, devices.length);
+        assertEquals(DEVICE_COUNT, manager.getDeviceCount());
+        for (final MidiDeviceInfo device : devices) {
+            assertEquals(MidiDeviceInfo.TYPE_VIRTUAL, device.getType());
+            assertEquals(PORT_COUNT, device.getInputPortCount());
+            assertEquals(PORT_COUNT, device.getOutputPortCount());
+        }
+    }
+
+    @Test
+    public void portsAreOpened() throws IOException {
+        final MidiDevice device = openDevice(callback.added.get(0));
+        assertNotNull(device);
+        assertSame(callback.added.get(0), device.getInfo());
+
+        final MidiInputPort inputPort = device.openInputPort(1);
+        final MidiOutputPort outputPort = device.openOutputPort(1);
+        assertEquals(1, inputPort.getPortNumber());
+        assertEquals(1, outputPort.getPortNumber());
+        assertNull(device.openInputPort(PORT_COUNT));
+        assertNull(device.openOutputPort(PORT_COUNT));
+        device.close();
+    }
+
+    @Test
+    public void dataIsLoopedBack() throws IOException {
+        final MidiDevice device = openDevice(callback.added.get(0));
+        final MidiInputPort inputPort = device.openInputPort(1);
+        final RecordingReceiver receiver = new RecordingReceiver();
+        final RecordingReceiver otherPortReceiver = new RecordingReceiver();
+        device.openOutputPort(1).connect(receiver);
+        device.openOutputPort(0).connect(otherPortReceiver);
+
+        inputPort.send(bytes(0x90, 0x3c, 0x40, 0x80, 0x3c, 0x00), 0, 6, TIMESTAMP);
+        receiver.assertCalls("90 3C 40 80 3C 00");
+        otherPortReceiver.assertCalls();
+        device.close();
+    }
+
+    @Test
+    public void detachClosesThePorts() throws IOException {
+        final MidiDeviceInfo deviceInfo = callback.added.get(0);
+        final MidiDevice device = openDevice(deviceInfo);
+        final MidiInputPort inputPort = device.openInputPort(0);
+        final RecordingReceiver receiver = new RecordingReceiver();
+        device.openOutputPort(0).connect(receiver);
+
+        manager.setEnabledTransports(0);
+        assertEquals(DEVICE_COUNT, callback.removed.size());
+        assertSame(deviceInfo, callback.removed.get(0));
+        assertEquals(0, manager.getDevices().length);
+        assertEquals(0, manager.getDeviceCount());
+
+        // the transport resources are released, so nothing reaches the output port any more
+        inputPort.send(bytes(0x90, 0x3c, 0x40), 0, 3, TIMESTAMP);
+        receiver.assertCalls();
+        assertNull(device.openInputPort(0));
+        assertNull(device.openOutputPort(0));
+        assertNull(openDevice(deviceInfo));
+        device.close();
+    }
+
+    @Test
+    public void unknownDeviceIsNotOpened() {
+        final MidiDeviceInfo unknown = new MidiDeviceInfo(MidiDeviceInfo.TYPE_VIRTUAL, 99, 0, 0, new String[0], new String[0], new Bundle(), false);
+        assertNull(openDevice(unknown));
+    }
+}
@@ -0,0 +1,137 @@
+package android.media.midi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.media.midi.MidiTestUtils.TIMESTAMP;
+import static android.media.midi.MidiTestUtils.bytes;
+import static android.media.midi.MidiTestUtils.hex;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MidiMessageParserTest {
+    /**
+     * Records the parsed messages, System Exclusive ones prefixed with "X"
+     */
+    private static final class RecordingListener implements MidiMessageParser.OnMessageParsedListener {
+        final List<String> messages = new ArrayList<String>();
+
+        @Override
+        public void onMessageParsed(final byte[] message, final int count, final long timestamp) {
+            assertEquals(TIMESTAMP, timestamp);
+            messages.add(hex(message, 0, count));
+        }
+
+        @Override
+        public void onSystemExclusiveParsed(final byte[] data, final int offset, final int count, final long timestamp) {
+            assertEquals(TIMESTAMP, timestamp);
+            messages.add("X" + hex(data, offset, count));
+        }
+    }
+
+    private RecordingListener listener;
+    private MidiMessageParser parser;
+
+    @Before
+    public void setUp() {
+        listener = new RecordingListener();
+        parser = new MidiMessageParser(listener);
+    }
+
+    private void parse(final int... values) {
+        final byte[] data = bytes(values);
+        parser.parse(data, 0, data.length, TIMESTAMP);
+    }
+
+    private void assertMessages(final String... expected) {
+        assertArrayEquals(expected, listener.messages.toArray(new String[listener.messages.size()]));
+    }
+
+    @Test
+    public void getMessageLength() {
+        assertEquals(3, MidiMessageParser.getMessageLength(0x90));
+        assertEquals(2, MidiMessageParser.getMessageLength(0xc5));
+        assertEquals(2, MidiMessageParser.getMessageLength(0xd0));
+        assertEquals(3, MidiMessageParser.getMessageLength(0xe0));
+        assertEquals(1, MidiMessageParser.getMessageLength(0xf0));
+        assertEquals(2, MidiMessageParser.getMessageLength(0xf1));
+        assertEquals(3, MidiMessageParser.getMessageLength(0xf2));
+        assertEquals(1, MidiMessageParser.getMessageLength(0xf8));
+        assertEquals(0, MidiMessageParser.getMessageLength(0x40));
+    }
+
+    @Test
+    public void channelMessages() {
+        parse(0x90, 0x3c, 0x40, 0xc0, 0x05);
+        assertMessages("90 3C 40", "C0 05");
+    }
+
+    @Test
+    public void runningStatus() {
+        parse(0x90, 0x3c, 0x40, 0x3e, 0x40, 0x40, 0x00);
+        assertMessages("90 3C 40", "90 3E 40", "90 40 00");
+    }
+
+    @Test
+    public void messageSplitAcrossCalls() {
+        parse(0x90, 0x3c);
+        parse(0x40, 0x3e);
+        parse(0x40);
+        assertMessages("90 3C 40", "90 3E 40");
+    }
+
+    @Test
+    public void realTimeInsideMessage() {
+        parse(0x90, 0x3c, 0xf8, 0x40);
+        assertMessages("F8", "90 3C 40");
+    }
+
+    @Test
+    public void systemCommonCancelsRunningStatus() {
+        parse(0x90, 0x3c, 0x40, 0xf6, 0x3e, 0x40);
+        assertMessages("90 3C 40", "F6");
+    }
+
+    @Test
+    public void dataWithoutStatusIsIgnored() {
+        parse(0x3c, 0x40, 0x90, 0x3c, 0x40);
+        assertMessages("90 3C 40");
+    }
+
+    @Test
+    public void systemExclusive() {
+        parse(0xf0, 0x7e, 0x00, 0x06, 0x01, 0xf7, 0xf8);
+        assertMessages("XF0 7E 00 06 01 F7", "F8");
+    }
+
+    @Test
+    public void systemExclusiveSplitAcrossCalls() {
+        parse(0xf0, 0x01, 0x02);
+        parse(0x03);
+        parse(0x04, 0xf7);
+        assertMessages("XF0 01 02 03 04 F7");
+    }
+
+    @Test
+    public void realTimeInsideSystemExclusive() {
+        parse(0xf0, 0x01, 0xf8, 0x02, 0xf7);
+        assertMessages("F8", "XF0 01 02 F7");
+    }
+
+    @Test
+    public void unterminatedSystemExclusiveIsDiscarded() {
+        parse(0xf0, 0x01, 0x02, 0x90, 0x3c, 0x40);
+        assertMessages("90 3C 40");
+    }
+
+    @Test
+    public void resetDiscardsPartialMessageAndRunningStatus() {
+        parse(0x90, 0x3c, 0x40, 0x3e);
+        parser.reset();
+        parse(0x40, 0x3e, 0x40);
+        assertMessages("90 3C 40");
+    }
+}
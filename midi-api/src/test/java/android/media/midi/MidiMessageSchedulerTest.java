@@ -0,0 +1,189 @@
+package android.media.midi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static android.media.midi.MidiTestUtils.TIMEOUT_MILLIS;
+import static android.media.midi.MidiTestUtils.bytes;
+import static android.media.midi.MidiTestUtils.hex;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MidiMessageSchedulerTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Records the due messages, System Exclusive ones prefixed with "X"
+     */
+    private static class RecordingListener implements MidiMessageScheduler.Listener {
+        final List<String> messages = new ArrayList<String>();
+        final List<Long> dueNanos = new ArrayList<Long>();
+        final List<Long> sendNanos = new ArrayList<Long>();
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        @Override
+        public synchronized void onMessageDue(final byte[] message, final int count, final long timestamp, final long sendNanos) {
+            record(hex(message, 0, count), sendNanos);
+        }
+
+        @Override
+        public synchronized void onSystemExclusiveDue(final byte[] data, final int offset, final int count, final long timestamp, final long sendNanos) {
+            record("X" + hex(data, offset, count), sendNanos);
+        }
+
+        private void record(final String message, final long sendNanos) {
+            messages.add(message);
+            dueNanos.add(System.nanoTime());
+            this.sendNanos.add(sendNanos);
+            threads.add(Thread.currentThread());
+            notifyAll();
+        }
+
+        synchronized void await(final int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (messages.size() < count) {
+                final long millisToWait = deadline - System.currentTimeMillis();
+                assertTrue("timed out waiting for " + count + " messages, got " + messages, millisToWait > 0);
+                wait(millisToWait);
+            }
+        }
+
+        synchronized void assertMessages(final String... expected) {
+            assertArrayEquals(expected, messages.toArray(new String[messages.size()]));
+        }
+    }
+
+    private RecordingListener listener;
+    private MidiMessageScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        listener = new RecordingListener();
+        scheduler = new MidiMessageScheduler(listener, "MidiMessageSchedulerTest");
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    private void schedule(final long timestamp, final int... values) {
+        final byte[] message = bytes(values);
+        scheduler.onMessageParsed(message, message.length, timestamp);
+    }
+
+    @Test
+    public void messageWithoutTimestampIsPassedOnSendingThread() {
+        schedule(0, 0x90, 0x3c, 0x40);
+        listener.assertMessages("90 3C 40");
+        assertSame(Thread.currentThread(), listener.threads.get(0));
+        assertEquals(0L, (long) listener.sendNanos.get(0));
+    }
+
+    @Test
+    public void messageInThePastIsPassedOnSendingThread() {
+        schedule(System.nanoTime() - 10 * MILLIS, 0x90, 0x3c, 0x40);
+        listener.assertMessages("90 3C 40");
+        assertSame(Thread.currentThread(), listener.threads.get(0));
+    }
+
+    @Test
+    public void futureMessagesArePassedInDeadlineOrder() throws InterruptedException {
+        final long now = System.nanoTime();
+        final long[] timestamps = {now + 60 * MILLIS, now + 20 * MILLIS, now + 40 * MILLIS};
+        schedule(timestamps[0], 0x90, 0x03, 0x40);
+        schedule(timestamps[1], 0x90, 0x01, 0x40);
+        schedule(timestamps[2], 0x90, 0x02, 0x40);
+        listener.assertMessages();
+
+        listener.await(3);
+        listener.assertMessages("90 01 40", "90 02 40", "90 03 40");
+        assertTrue(listener.dueNanos.get(0) >= timestamps[1]);
+        assertTrue(listener.dueNanos.get(1) >= timestamps[2]);
+        assertTrue(listener.dueNanos.get(2) >= timestamps[0]);
+        assertTrue(listener.sendNanos.get(0) >= now);
+    }
+
+    @Test
+    public void messagesWithSameTimestampKeepTheirOrder() throws InterruptedException {
+        final long timestamp = System.nanoTime() + 20 * MILLIS;
+        for (int note = 0; note < 8; note++) {
+            schedule(timestamp, 0x90, note, 0x40);
+        }
+
+        listener.await(8);
+        listener.assertMessages("90 00 40", "90 01 40", "90 02 40", "90 03 40", "90 04 40", "90 05 40", "90 06 40", "90 07 40");
+    }
+
+    @Test
+    public void immediateMessageWaitsBehindHeldMessages() throws InterruptedException {
+        schedule(System.nanoTime() + 20 * MILLIS, 0x90, 0x3c, 0x40);
+        schedule(0, 0x80, 0x3c, 0x00);
+        schedule(System.nanoTime() + 10 * MILLIS, 0xb0, 0x07, 0x64);
+
+        listener.await(3);
+        // the immediate message is due first, but is passed by the scheduler thread
+        listener.assertMessages("80 3C 00", "B0 07 64", "90 3C 40");
+        assertTrue(listener.threads.get(0) != Thread.currentThread());
+    }
+
+    @Test
+    public void systemExclusiveIsCopied() throws InterruptedException {
+        final byte[] data = bytes(0x00, 0xf0, 0x7e, 0x01, 0xf7, 0x00);
+        scheduler.onSystemExclusiveParsed(data, 1, 4, System.nanoTime() + 10 * MILLIS);
+        data[2] = 0;
+
+        listener.await(1);
+        listener.assertMessages("XF0 7E 01 F7");
+    }
+
+    @Test
+    public void flushDiscardsHeldMessages() throws InterruptedException {
+        schedule(System.nanoTime() + 20 * MILLIS, 0x90, 0x3c, 0x40);
+        scheduler.flush();
+        schedule(System.nanoTime() + 30 * MILLIS, 0x80, 0x3c, 0x00);
+
+        listener.await(1);
+        Thread.sleep(40);
+        listener.assertMessages("80 3C 00");
+    }
+
+    @Test
+    public void closeDiscardsHeldMessages() throws InterruptedException {
+        schedule(System.nanoTime() + 20 * MILLIS, 0x90, 0x3c, 0x40);
+        scheduler.close();
+        schedule(0, 0x80, 0x3c, 0x00);
+
+        Thread.sleep(40);
+        listener.assertMessages();
+    }
+
+    @Test
+    public void failingListenerDoesNotStopTheScheduler() throws InterruptedException {
+        final RecordingListener failingListener = new RecordingListener() {
+            @Override
+            public synchronized void onMessageDue(final byte[] message, final int count, final long timestamp, final long sendNanos) {
+                super.onMessageDue(message, count, timestamp, sendNanos);
+                if (messages.size() == 1) {
+                    throw new IllegalStateException("the device is detached");
+                }
+            }
+        };
+        scheduler.close();
+        scheduler = new MidiMessageScheduler(failingListener, "MidiMessageSchedulerTest");
+
+        final byte[] message = bytes(0x90, 0x3c, 0x40);
+        scheduler.onMessageParsed(message, 3, System.nanoTime() + 10 * MILLIS);
+        failingListener.await(1);
+        scheduler.onMessageParsed(message, 3, System.nanoTime() + 10 * MILLIS);
+        failingListener.await(2);
+        failingListener.assertMessages("90 3C 40", "90 3C 40");
+    }
+}
@@ -0,0 +1,76 @@
+package android.media.midi;
+
+import android.media.midi.MidiTestUtils.RecordingReceiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static android.media.midi.MidiTestUtils.TIMESTAMP;
+import static android.media.midi.MidiTestUtils.bytes;
+import static org.junit.Assert.assertEquals;
+
+public class MidiOutputPortTest {
+    private SharedMidiDevice sharedDevice;
+    private MidiOutputPort outputPort;
+    // the input port looped back to the output port
+    private MidiReceiver inputPortReceiver;
+    private final RecordingReceiver receiver = new RecordingReceiver();
+
+    @Before
+    public void setUp() {
+        sharedDevice = new SharedMidiDevice(new LoopbackMidiTransportDevice("loopback", 1), 1, 1, null);
+        outputPort = MidiOutputPort.open(sharedDevice, 0);
+        inputPortReceiver = sharedDevice.acquireInputPortReceiver(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        outputPort.close();
+        sharedDevice.close();
+    }
+
+    private void send(final int... values) throws IOException {
+        inputPortReceiver.send(bytes(values), 0, values.length, TIMESTAMP);
+    }
+
+    @Test
+    public void directReceiverConnectedWithQueueIsCalledOnce() throws IOException, InterruptedException {
+        outputPort.connect(receiver);
+        outputPort.connect(receiver, 4, MidiOutputPort.OVERFLOW_BLOCK);
+        send(0x90, 0x3c, 0x40);
+        send(0x80, 0x3c, 0x00);
+
+        receiver.awaitCalls(2);
+        Thread.sleep(20);
+        receiver.assertCalls("90 3C 40", "80 3C 00");
+        assertEquals(0, outputPort.getDroppedCount(receiver));
+    }
+
+    @Test
+    public void queuedReceiverConnectedDirectlyIsCalledOnce() throws IOException, InterruptedException {
+        outputPort.connect(receiver, 4, MidiOutputPort.OVERFLOW_BLOCK);
+        outputPort.connect(receiver);
+        send(0x90, 0x3c, 0x40);
+
+        Thread.sleep(20);
+        receiver.assertCalls("90 3C 40");
+        assertEquals(-1, outputPort.getDroppedCount(receiver));
+    }
+
+    @Test
+    public void disconnectStopsTheQueue() throws IOException, InterruptedException {
+        outputPort.connect(receiver, 4, MidiOutputPort.OVERFLOW_DROP_NEWEST);
+        send(0x90, 0x3c, 0x40);
+        receiver.awaitCalls(1);
+
+        outputPort.disconnect(receiver);
+        send(0x80, 0x3c, 0x00);
+        Thread.sleep(20);
+        receiver.assertCalls("90 3C 40");
+        assertEquals(-1, outputPort.getDroppedCount(receiver));
+        assertEquals(-1, outputPort.getCoalescedCount(receiver));
+    }
+}
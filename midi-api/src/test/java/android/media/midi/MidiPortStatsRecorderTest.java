@@ -0,0 +1,113 @@
+package android.media.midi;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static android.media.midi.MidiTestUtils.TIMESTAMP;
+import static android.media.midi.MidiTestUtils.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MidiPortStatsRecorderTest {
+    private static final int PORT_NUMBER = 2;
+
+    private final MidiPortStatsRecorder recorder = new MidiPortStatsRecorder(MidiDeviceInfo.PortInfo.TYPE_OUTPUT, PORT_NUMBER);
+
+    @Test
+    public void bucketBoundaries() {
+        assertEquals(0, MidiPortStats.bucketOf(0));
+        assertEquals(1, MidiPortStats.bucketOf(1));
+        assertEquals(2, MidiPortStats.bucketOf(2));
+        assertEquals(2, MidiPortStats.bucketOf(3));
+        for (int k = 1; k < 62; k++) {
+            assertEquals("2^" + k + " - 1", k, MidiPortStats.bucketOf((1L << k) - 1));
+            assertEquals("2^" + k, k + 1, MidiPortStats.bucketOf(1L << k));
+        }
+        assertEquals(MidiPortStats.LATENCY_BUCKET_COUNT - 1, MidiPortStats.bucketOf(1L << 62));
+        assertEquals(MidiPortStats.LATENCY_BUCKET_COUNT - 1, MidiPortStats.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void latenciesAreCountedInTheirBuckets() {
+        recorder.record(3, 0);
+        recorder.record(3, 1);
+        recorder.record(2, 1024);
+        recorder.record(2, 1023);
+
+        final long[] histogram = recorder.snapshot().getLatencyHistogram();
+        assertEquals(MidiPortStats.LATENCY_BUCKET_COUNT, histogram.length);
+        assertEquals(1, histogram[0]);
+        assertEquals(1, histogram[1]);
+        assertEquals(1, histogram[10]);
+        assertEquals(1, histogram[11]);
+    }
+
+    @Test
+    public void negativeLatencyCountsTheMessageOnly() {
+        recorder.record(3, -1);
+        recorder.record(3, Long.MIN_VALUE);
+
+        final MidiPortStats stats = recorder.snapshot();
+        assertEquals(2, stats.getMessageCount());
+        assertEquals(6, stats.getByteCount());
+        for (final long count : stats.getLatencyHistogram()) {
+            assertEquals(0, count);
+        }
+        assertEquals(-1, stats.getLatencyPercentileNanos(50));
+    }
+
+    @Test
+    public void snapshotCopiesTheCounters() {
+        recorder.record(3, 10);
+        recorder.recordDropped();
+        recorder.recordFailed();
+        recorder.recordFailed();
+
+        final MidiPortStats stats = recorder.snapshot();
+        recorder.record(3, 10);
+        assertEquals(MidiDeviceInfo.PortInfo.TYPE_OUTPUT, stats.getPortType());
+        assertEquals(PORT_NUMBER, stats.getPortNumber());
+        assertEquals(1, stats.getMessageCount());
+        assertEquals(3, stats.getByteCount());
+        assertEquals(1, stats.getDroppedCount());
+        assertEquals(2, stats.getFailedCount());
+        assertEquals(1, stats.getLatencyHistogram()[4]);
+        assertEquals(2, recorder.snapshot().getMessageCount());
+    }
+
+    @Test
+    public void outputPortLatencyIncludesTheReceivers() {
+        final long delayNanos = 2000000;
+        final MidiReceiverList receivers = new MidiReceiverList();
+        receivers.setStatsRecorder(recorder);
+        receivers.add(new MidiReceiver() {
+            @Override
+            public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+                final long start = System.nanoTime();
+                while (System.nanoTime() - start < delayNanos) {
+                    Thread.yield();
+                }
+            }
+        });
+
+        // the timestamp of the sender doesn't matter, only the capture time does
+        final byte[] message = bytes(0x90, 0x3c, 0x40);
+        receivers.send(message, 0, 3, TIMESTAMP, System.nanoTime());
+
+        final MidiPortStats stats = recorder.snapshot();
+        assertEquals(1, stats.getMessageCount());
+        assertTrue(stats.getLatencyPercentileNanos(100) >= delayNanos);
+    }
+
+    @Test
+    public void messageWithoutReceiverIsDropped() {
+        final MidiReceiverList receivers = new MidiReceiverList();
+        receivers.setStatsRecorder(recorder);
+        receivers.send(bytes(0xf8), 0, 1, 0, System.nanoTime());
+
+        final MidiPortStats stats = recorder.snapshot();
+        assertEquals(0, stats.getMessageCount());
+        assertEquals(1, stats.getDroppedCount());
+    }
+}
@@ -0,0 +1,62 @@
+package android.media.midi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MidiPortStatsTest {
+    private static MidiPortStats stats(final long... bucketCounts) {
+        final long[] histogram = new long[MidiPortStats.LATENCY_BUCKET_COUNT];
+        System.arraycopy(bucketCounts, 0, histogram, 0, bucketCounts.length);
+        return new MidiPortStats(MidiDeviceInfo.PortInfo.TYPE_INPUT, 0, 0, 0, 0, 0, histogram);
+    }
+
+    @Test
+    public void emptyHistogramHasNoPercentile() {
+        assertEquals(-1, stats().getLatencyPercentileNanos(50));
+        assertEquals(-1, stats().getLatencyPercentileNanos(0));
+    }
+
+    @Test
+    public void percentileIsTheUpperBoundOfItsBucket() {
+        // 0 ns, 1 ns, 2..3 ns, 4..7 ns: 25 messages each
+        final MidiPortStats stats = stats(25, 25, 25, 25);
+        assertEquals(0, stats.getLatencyPercentileNanos(0));
+        assertEquals(0, stats.getLatencyPercentileNanos(25));
+        assertEquals(1, stats.getLatencyPercentileNanos(25.5));
+        assertEquals(1, stats.getLatencyPercentileNanos(50));
+        assertEquals(3, stats.getLatencyPercentileNanos(75));
+        assertEquals(7, stats.getLatencyPercentileNanos(99));
+        assertEquals(7, stats.getLatencyPercentileNanos(100));
+    }
+
+    @Test
+    public void singleBucket() {
+        final long[] counts = new long[11];
+        counts[10] = 3;
+        final MidiPortStats stats = stats(counts);
+        assertEquals(1023, stats.getLatencyPercentileNanos(0));
+        assertEquals(1023, stats.getLatencyPercentileNanos(50));
+        assertEquals(1023, stats.getLatencyPercentileNanos(100));
+    }
+
+    @Test
+    public void lastBucketIsUnbounded() {
+        final long[] counts = new long[MidiPortStats.LATENCY_BUCKET_COUNT];
+        counts[1] = 99;
+        counts[MidiPortStats.LATENCY_BUCKET_COUNT - 1] = 1;
+        final MidiPortStats stats = stats(counts);
+        assertEquals(1, stats.getLatencyPercentileNanos(99));
+        assertEquals(Long.MAX_VALUE, stats.getLatencyPercentileNanos(99.5));
+    }
+
+    @Test
+    public void histogramIsCopied() {
+        final long[] histogram = new long[MidiPortStats.LATENCY_BUCKET_COUNT];
+        histogram[3] = 1;
+        final MidiPortStats stats = new MidiPortStats(MidiDeviceInfo.PortInfo.TYPE_INPUT, 0, 0, 0, 0, 0, histogram);
+        histogram[3] = 0;
+        stats.getLatencyHistogram()[3] = 0;
+        assertEquals(1, stats.getLatencyHistogram()[3]);
+    }
+}
@@ -0,0 +1,187 @@
+package android.media.midi;
+
+import android.media.midi.MidiTestUtils.RecordingReceiver;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static android.media.midi.MidiTestUtils.TIMEOUT_MILLIS;
+import static android.media.midi.MidiTestUtils.TIMESTAMP;
+import static android.media.midi.MidiTestUtils.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MidiReceiverQueueTest {
+    /**
+     * Blocks the consumer thread in the first call, until released
+     */
+    private static final class BlockedReceiver extends RecordingReceiver {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+            super.onSend(msg, offset, count, timestamp);
+            entered.countDown();
+            try {
+                released.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertTrue("the consumer thread didn't take the first message", entered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+
+    private final BlockedReceiver receiver = new BlockedReceiver();
+    private MidiReceiverQueue queue;
+
+    @After
+    public void tearDown() {
+        receiver.release();
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    /**
+     * Creates the queue, and blocks its consumer thread on a Note On, so the next messages stay queued
+     */
+    private void createBlockedQueue(final int capacity, final int overflowPolicy) throws IOException, InterruptedException {
+        queue = new MidiReceiverQueue(receiver, capacity, overflowPolicy, "MidiReceiverQueueTest");
+        send(0x90, 0x3c, 0x40);
+        receiver.awaitBlocked();
+    }
+
+    private void send(final int... values) throws IOException {
+        queue.send(bytes(values), 0, values.length, TIMESTAMP);
+    }
+
+    @Test
+    public void dropNewest() throws IOException, InterruptedException {
+        createBlockedQueue(2, MidiOutputPort.OVERFLOW_DROP_NEWEST);
+        send(0xb0, 0x07, 0x01);
+        send(0xb0, 0x07, 0x02);
+        send(0xb0, 0x07, 0x03);
+        send(0xf8);
+        assertEquals(2, queue.getDroppedCount());
+
+        receiver.release();
+        receiver.awaitCalls(3);
+        Thread.sleep(20);
+        receiver.assertCalls("90 3C 40", "B0 07 01", "B0 07 02");
+        assertEquals(0, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void dropOldest() throws IOException, InterruptedException {
+        createBlockedQueue(2, MidiOutputPort.OVERFLOW_DROP_OLDEST);
+        send(0xb0, 0x07, 0x01);
+        send(0xb0, 0x07, 0x02);
+        send(0xb0, 0x07, 0x03);
+        send(0xf8);
+        assertEquals(2, queue.getDroppedCount());
+
+        receiver.release();
+        receiver.awaitCalls(3);
+        Thread.sleep(20);
+        receiver.assertCalls("90 3C 40", "B0 07 03", "F8");
+        assertEquals(0, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void coalesceControllers() throws IOException, InterruptedException {
+        createBlockedQueue(4, MidiOutputPort.OVERFLOW_COALESCE_CONTROLLERS);
+        send(0xb0, 0x07, 0x01);
+        send(0xe0, 0x00, 0x10);
+        send(0xb0, 0x0a, 0x05);
+        send(0xb0, 0x07, 0x7f);
+        // full: the queued controllers take the new values in place
+        send(0xb0, 0x07, 0x02);
+        send(0xe0, 0x00, 0x20);
+        send(0xd0, 0x30);
+        // a controller not queued, another channel, and a message which isn't a controller are dropped
+        send(0xb0, 0x0b, 0x09);
+        send(0xb1, 0x07, 0x09);
+        send(0x90, 0x3e, 0x40);
+        assertEquals(2, queue.getCoalescedCount());
+        assertEquals(4, queue.getDroppedCount());
+
+        receiver.release();
+        receiver.awaitCalls(5);
+        Thread.sleep(20);
+        // the latest queued message of the controller is the one replaced
+        receiver.assertCalls("90 3C 40", "B0 07 01", "E0 00 20", "B0 0A 05", "B0 07 02");
+    }
+
+    @Test
+    public void blockWaitsForTheConsumer() throws IOException, InterruptedException {
+        createBlockedQueue(1, MidiOutputPort.OVERFLOW_BLOCK);
+        send(0xb0, 0x07, 0x01);
+
+        final Thread sender = new Thread("MidiReceiverQueueTest.Sender") {
+            @Override
+            public void run() {
+                try {
+                    send(0xb0, 0x07, 0x02);
+                } catch (final IOException ignored) {
+                    // asserted by the calls
+                }
+            }
+        };
+        sender.start();
+        awaitWaiting(sender);
+        receiver.assertCalls("90 3C 40");
+
+        receiver.release();
+        sender.join(TIMEOUT_MILLIS);
+        assertFalse(sender.isAlive());
+        receiver.awaitCalls(3);
+        receiver.assertCalls("90 3C 40", "B0 07 01", "B0 07 02");
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void closeWakesTheBlockedSender() throws IOException, InterruptedException {
+        createBlockedQueue(1, MidiOutputPort.OVERFLOW_BLOCK);
+        send(0xb0, 0x07, 0x01);
+
+        final IOException[] thrown = new IOException[1];
+        final Thread sender = new Thread("MidiReceiverQueueTest.Sender") {
+            @Override
+            public void run() {
+                try {
+                    send(0xb0, 0x07, 0x02);
+                } catch (final IOException e) {
+                    thrown[0] = e;
+                }
+            }
+        };
+        sender.start();
+        awaitWaiting(sender);
+
+        queue.close();
+        sender.join(TIMEOUT_MILLIS);
+        assertFalse(sender.isAlive());
+        assertTrue(thrown[0] != null);
+    }
+
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue("the sender didn't block", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
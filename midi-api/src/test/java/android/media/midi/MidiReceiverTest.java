@@ -0,0 +1,71 @@
+package android.media.midi;
+
+import android.media.midi.MidiTestUtils.RecordingReceiver;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static android.media.midi.MidiTestUtils.TIMESTAMP;
+import static android.media.midi.MidiTestUtils.bytes;
+import static org.junit.Assert.assertEquals;
+
+public class MidiReceiverTest {
+    private static RecordingReceiver send(final int maxMessageSize, final int splitMode, final byte[] data) throws IOException {
+        final RecordingReceiver receiver = new RecordingReceiver(maxMessageSize, splitMode);
+        receiver.send(data, 0, data.length, TIMESTAMP);
+        return receiver;
+    }
+
+    @Test
+    public void defaultSplitModeIsBytes() {
+        assertEquals(MidiReceiver.SPLIT_MODE_BYTES, new RecordingReceiver(4, MidiReceiver.SPLIT_MODE_BYTES).getSplitMode());
+        assertEquals(MidiReceiver.SPLIT_MODE_BYTES, new MidiReceiver(4) {
+            @Override
+            public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) {
+            }
+        }.getSplitMode());
+    }
+
+    @Test
+    public void bytesModeSplitsAtAnyByte() throws IOException {
+        send(4, MidiReceiver.SPLIT_MODE_BYTES, bytes(0x90, 0x3c, 0x40, 0x80, 0x3c, 0x00))
+                .assertCalls("90 3C 40 80", "3C 00");
+    }
+
+    @Test
+    public void dataWithinMaxIsNotSplit() throws IOException {
+        send(8, MidiReceiver.SPLIT_MODE_MESSAGES, bytes(0x90, 0x3c, 0x40, 0x80, 0x3c, 0x00))
+                .assertCalls("90 3C 40 80 3C 00");
+    }
+
+    @Test
+    public void noteIsSplitAtBoundary() throws IOException {
+        send(4, MidiReceiver.SPLIT_MODE_MESSAGES, bytes(0x90, 0x3c, 0x40, 0x80, 0x3c, 0x00))
+                .assertCalls("90 3C 40", "80 3C 00");
+    }
+
+    @Test
+    public void runningStatusRunIsSplitBetweenMessages() throws IOException {
+        send(5, MidiReceiver.SPLIT_MODE_MESSAGES, bytes(0x90, 0x3c, 0x40, 0x3e, 0x40, 0x40, 0x40))
+                .assertCalls("90 3C 40 3E 40", "40 40");
+    }
+
+    @Test
+    public void realTimeInsideMessageStaysWithIt() throws IOException {
+        send(4, MidiReceiver.SPLIT_MODE_MESSAGES, bytes(0x90, 0x3c, 0xf8, 0x40, 0x80, 0x3c, 0x00))
+                .assertCalls("90 3C F8 40", "80 3C 00");
+    }
+
+    @Test
+    public void systemExclusiveLongerThanMaxIsSplitInside() throws IOException {
+        send(4, MidiReceiver.SPLIT_MODE_MESSAGES, bytes(0xf0, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0xf7, 0x90, 0x3c, 0x40))
+                .assertCalls("F0 01 02 03", "04 05 06 F7", "90 3C 40");
+    }
+
+    @Test
+    public void messageLongerThanMaxIsSplitAtAnyByte() throws IOException {
+        send(2, MidiReceiver.SPLIT_MODE_MESSAGES, bytes(0x90, 0x3c, 0x40, 0xc0, 0x05))
+                .assertCalls("90 3C", "40", "C0 05");
+    }
+}
@@ -0,0 +1,83 @@
+package android.media.midi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fixtures shared by the tests
+ */
+/* package */ final class MidiTestUtils {
+    /** The timestamp of the data sent by the tests */
+    static final long TIMESTAMP = 12345L;
+    /** How long the tests wait for the data passed by another thread */
+    static final long TIMEOUT_MILLIS = 2000;
+
+    private MidiTestUtils() {
+    }
+
+    /**
+     * @param values the bytes, as ints
+     * @return the byte array
+     */
+    static byte[] bytes(final int... values) {
+        final byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    /**
+     * @param data the data
+     * @param offset the offset of the first byte
+     * @param count the number of bytes
+     * @return the bytes as upper case hex, separated by spaces
+     */
+    static String hex(final byte[] data, final int offset, final int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = offset; i < offset + count; i++) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(String.format("%02X", data[i] & 0xff));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Records the data of each call to onSend, as a hex string
+     */
+    static class RecordingReceiver extends MidiReceiver {
+        private final List<String> calls = new ArrayList<String>();
+
+        RecordingReceiver() {
+        }
+
+        RecordingReceiver(final int maxMessageSize, final int splitMode) {
+            super(maxMessageSize, splitMode);
+        }
+
+        @Override
+        public synchronized void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+            calls.add(hex(msg, offset, count));
+            notifyAll();
+        }
+
+        synchronized void awaitCalls(final int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (calls.size() < count) {
+                final long millisToWait = deadline - System.currentTimeMillis();
+                assertTrue("timed out waiting for " + count + " calls, got " + calls, millisToWait > 0);
+                wait(millisToWait);
+            }
+        }
+
+        synchronized void assertCalls(final String... expected) {
+            assertArrayEquals(expected, calls.toArray(new String[calls.size()]));
+        }
+    }
+}
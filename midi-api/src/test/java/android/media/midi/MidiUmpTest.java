@@ -0,0 +1,166 @@
+package android.media.midi;
+
+import android.media.midi.MidiTestUtils.RecordingReceiver;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static android.media.midi.MidiTestUtils.TIMESTAMP;
+import static android.media.midi.MidiTestUtils.bytes;
+import static org.junit.Assert.assertEquals;
+
+public class MidiUmpTest {
+    private static byte[] words(final int... words) {
+        final byte[] result = new byte[words.length * 4];
+        for (int i = 0; i < words.length; i++) {
+            result[i * 4] = (byte) (words[i] >>> 24);
+            result[i * 4 + 1] = (byte) (words[i] >>> 16);
+            result[i * 4 + 2] = (byte) (words[i] >>> 8);
+            result[i * 4 + 3] = (byte) words[i];
+        }
+        return result;
+    }
+
+    private static void send(final MidiReceiver receiver, final byte[] data) throws IOException {
+        receiver.send(data, 0, data.length, TIMESTAMP);
+    }
+
+    @Test
+    public void getPacketWords() {
+        assertEquals(1, MidiUmpDecoder.getPacketWords(0x10000000));
+        assertEquals(1, MidiUmpDecoder.getPacketWords(0x20000000));
+        assertEquals(2, MidiUmpDecoder.getPacketWords(0x30000000));
+        assertEquals(2, MidiUmpDecoder.getPacketWords(0x40000000));
+        assertEquals(4, MidiUmpDecoder.getPacketWords(0x50000000));
+        assertEquals(4, MidiUmpDecoder.getPacketWords(0xf0000000));
+    }
+
+    @Test
+    public void encodeChannelVoiceAndSystem() throws IOException {
+        final RecordingReceiver packets = new RecordingReceiver();
+        send(new MidiUmpEncoder(3, packets), bytes(0x90, 0x3c, 0x40, 0x3e, 0x40, 0xf8, 0xf2, 0x01, 0x02));
+        packets.assertCalls("23 90 3C 40 23 90 3E 40 13 F8 00 00 13 F2 01 02");
+    }
+
+    @Test
+    public void encodeRealTimeInsideMessage() throws IOException {
+        final RecordingReceiver packets = new RecordingReceiver();
+        send(new MidiUmpEncoder(0, packets), bytes(0x90, 0x3c, 0xf8, 0x40));
+        packets.assertCalls("10 F8 00 00 20 90 3C 40");
+    }
+
+    @Test
+    public void encodeMessageSplitAcrossCalls() throws IOException {
+        final RecordingReceiver packets = new RecordingReceiver();
+        final MidiUmpEncoder encoder = new MidiUmpEncoder(0, packets);
+        send(encoder, bytes(0xb0, 0x07));
+        send(encoder, bytes(0x64));
+        packets.assertCalls("20 B0 07 64");
+    }
+
+    @Test
+    public void encodeSystemExclusiveComplete() throws IOException {
+        final RecordingReceiver packets = new RecordingReceiver();
+        send(new MidiUmpEncoder(0, packets), bytes(0xf0, 0x7e, 0x7f, 0x06, 0x01, 0xf7));
+        packets.assertCalls("30 04 7E 7F 06 01 00 00");
+    }
+
+    @Test
+    public void encodeSystemExclusiveStartContinueEnd() throws IOException {
+        final RecordingReceiver packets = new RecordingReceiver();
+        send(new MidiUmpEncoder(1, packets), bytes(0xf0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 0xf7));
+        packets.assertCalls("31 16 01 02 03 04 05 06"
+                + " 31 26 07 08 09 0A 0B 0C"
+                + " 31 31 0D 00 00 00 00 00");
+    }
+
+    @Test
+    public void encodePackedBatch() throws IOException {
+        final RecordingReceiver packets = new RecordingReceiver();
+        new MidiUmpEncoder(2, packets).sendBatch(
+                new int[] {MidiReceiver.packMessage(0x80, 0x3c, 0), MidiReceiver.packMessage(0xfa, 0, 0)},
+                new long[] {TIMESTAMP, TIMESTAMP}, 0, 2);
+        packets.assertCalls("22 80 3C 00", "12 FA 00 00");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encoderRejectsInvalidGroup() {
+        new MidiUmpEncoder(16, new RecordingReceiver());
+    }
+
+    @Test
+    public void decodeByGroup() throws IOException {
+        final RecordingReceiver group0 = new RecordingReceiver();
+        final RecordingReceiver group2 = new RecordingReceiver();
+        send(new MidiUmpDecoder(new MidiReceiver[] {group0, null, group2}),
+                words(0x20903c40, 0x21903c40, 0x22c00500, 0x1f000000 | 0xf8 << 16));
+        group0.assertCalls("90 3C 40");
+        group2.assertCalls("C0 05");
+    }
+
+    @Test
+    public void decodePacketSplitAcrossCalls() throws IOException {
+        final RecordingReceiver receiver = new RecordingReceiver();
+        final MidiUmpDecoder decoder = new MidiUmpDecoder(new MidiReceiver[] {receiver});
+        final byte[] data = words(0x30047e7f, 0x06010000, 0x20903c40);
+        decoder.send(data, 0, 3, TIMESTAMP);
+        decoder.send(data, 3, 6, TIMESTAMP);
+        decoder.send(data, 9, 3, TIMESTAMP);
+        receiver.assertCalls("F0 7E 7F 06 01 F7", "90 3C 40");
+    }
+
+    @Test
+    public void decodeSystemExclusiveStartContinueEnd() throws IOException {
+        final RecordingReceiver receiver = new RecordingReceiver();
+        send(new MidiUmpDecoder(new MidiReceiver[] {receiver}),
+                words(0x30160102, 0x03040506, 0x30260708, 0x090a0b0c, 0x30310d00, 0x00000000));
+        receiver.assertCalls("F0 01 02 03 04 05 06", "07 08 09 0A 0B 0C", "0D F7");
+    }
+
+    @Test
+    public void decodeMidi2ChannelVoice() throws IOException {
+        final RecordingReceiver receiver = new RecordingReceiver();
+        send(new MidiUmpDecoder(new MidiReceiver[] {receiver}), words(
+                // Note On, velocity 0x8000 scaled to 0x40
+                0x40913c00, 0x80000000,
+                // Note On, velocity too small for MIDI 1.0 becomes 1
+                0x40913c00, 0x00010000,
+                // Pitch Bend, center
+                0x40e10000, 0x80000000,
+                // Registered Controller 0/0, 0x02000000 scaled to 0x0080
+                0x40210000, 0x02000000,
+                // Program Change with bank 1/2
+                0x40c10001, 0x05000102));
+        receiver.assertCalls(
+                "91 3C 40",
+                "91 3C 01",
+                "E1 00 40",
+                "B1 65 00", "B1 64 00", "B1 06 01", "B1 26 00",
+                "B1 00 01", "B1 20 02", "C1 05");
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final byte[] stream = bytes(
+                0x90, 0x3c, 0x40, 0x3e, 0x40,
+                0xf8,
+                0xb1, 0x07, 0x64,
+                0xf0, 1, 2, 3, 4, 5, 6, 7, 8, 0xf7,
+                0xf2, 0x10, 0x20,
+                0xc2, 0x05,
+                0xe3, 0x00, 0x40);
+        final RecordingReceiver receiver = new RecordingReceiver();
+        final MidiUmpEncoder encoder = new MidiUmpEncoder(5, new MidiUmpDecoder(
+                new MidiReceiver[] {null, null, null, null, null, receiver}));
+        send(encoder, stream);
+        receiver.assertCalls(
+                "90 3C 40", "90 3E 40",
+                "F8",
+                "B1 07 64",
+                "F0 01 02 03 04 05 06", "07 08 F7",
+                "F2 10 20",
+                "C2 05",
+                "E3 00 40");
+    }
+}
@@ -0,0 +1,135 @@
+package android.media.midi;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SharedMidiDeviceTest {
+    private static final int PORT_COUNT = 2;
+
+    /**
+     * A device written through packet writers, recording the open count changes as "port:delta"
+     */
+    private static final class RecordingTransportDevice extends MidiTransportDevice {
+        private final List<String> inputPortChanges = new ArrayList<String>();
+        private final List<RecordingPacketWriter> packetWriters = new ArrayList<RecordingPacketWriter>();
+        private boolean closed;
+
+        @Override
+        int getType() {
+            return MidiDeviceInfo.TYPE_USB;
+        }
+
+        @Override
+        int getInputPortCount() {
+            return PORT_COUNT;
+        }
+
+        @Override
+        int getOutputPortCount() {
+            return 0;
+        }
+
+        @Override
+        MidiPacketWriter createPacketWriter(final int portNumber, final String threadName) {
+            final RecordingPacketWriter packetWriter = new RecordingPacketWriter();
+            packetWriters.add(packetWriter);
+            return packetWriter;
+        }
+
+        @Override
+        void onInputPortOpenCountChanged(final int portNumber, final int delta) {
+            inputPortChanges.add(portNumber + ":" + delta);
+        }
+
+        @Override
+        void close() {
+            closed = true;
+        }
+
+        void assertInputPortChanges(final String... expected) {
+            assertArrayEquals(expected, inputPortChanges.toArray(new String[inputPortChanges.size()]));
+        }
+    }
+
+    private static final class RecordingPacketWriter extends MidiPacketWriter {
+        private boolean closed;
+
+        @Override
+        void write(final byte[] message, final int count, final long timestamp) {
+            // nothing to record
+        }
+
+        @Override
+        void writeSystemExclusive(final byte[] systemExclusive) {
+            // nothing to record
+        }
+
+        @Override
+        void close() {
+            closed = true;
+        }
+    }
+
+    private final RecordingTransportDevice device = new RecordingTransportDevice();
+    private final List<String> reportedInputPortOpenCounts = new ArrayList<String>();
+    private final SharedMidiDevice sharedDevice = new SharedMidiDevice(device, PORT_COUNT, 0, new SharedMidiDevice.OnPortOpenCountChangedListener() {
+        @Override
+        public void onPortOpenCountChanged(final int[] inputPortOpenCounts, final int[] outputPortOpenCounts) {
+            reportedInputPortOpenCounts.add(inputPortOpenCounts[0] + "," + inputPortOpenCounts[1]);
+        }
+    });
+
+    @Test
+    public void packetWriterIsSharedByThePortsOfANumber() {
+        final MidiPacketWriter first = sharedDevice.acquirePacketWriter(0);
+        final MidiPacketWriter second = sharedDevice.acquirePacketWriter(0);
+        assertNotNull(first);
+        assertSame(first, second);
+        assertNull(sharedDevice.acquirePacketWriter(PORT_COUNT));
+
+        sharedDevice.releasePacketWriter(0);
+        assertFalse(device.packetWriters.get(0).closed);
+        sharedDevice.releasePacketWriter(0);
+        assertTrue(device.packetWriters.get(0).closed);
+    }
+
+    @Test
+    public void packetWriterPortsNotifyTheDevice() {
+        sharedDevice.acquirePacketWriter(0);
+        sharedDevice.acquirePacketWriter(1);
+        sharedDevice.acquirePacketWriter(0);
+        sharedDevice.releasePacketWriter(0);
+        sharedDevice.releasePacketWriter(1);
+
+        device.assertInputPortChanges("0:1", "1:1", "0:1", "0:-1", "1:-1");
+        assertEquals("[1,0, 1,1, 2,1, 1,1, 1,0]", reportedInputPortOpenCounts.toString());
+    }
+
+    @Test
+    public void closeNotifiesTheDeviceOfThePortsLeftOpen() {
+        sharedDevice.acquirePacketWriter(0);
+        sharedDevice.acquirePacketWriter(0);
+        sharedDevice.acquirePacketWriter(1);
+
+        sharedDevice.close();
+        device.assertInputPortChanges("0:1", "0:1", "1:1", "0:-2", "1:-1");
+        assertTrue(device.packetWriters.get(0).closed);
+        assertTrue(device.packetWriters.get(1).closed);
+        assertTrue(device.closed);
+
+        // the ports closed afterwards don't count again
+        sharedDevice.releasePacketWriter(0);
+        assertNull(sharedDevice.acquirePacketWriter(0));
+        device.assertInputPortChanges("0:1", "0:1", "1:1", "0:-2", "1:-1");
+    }
+}
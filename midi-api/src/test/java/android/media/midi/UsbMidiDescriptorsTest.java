@@ -0,0 +1,144 @@
+package android.media.midi;
+
+import org.junit.Test;
+
+import static android.media.midi.MidiTestUtils.bytes;
+import static org.junit.Assert.assertEquals;
+
+public class UsbMidiDescriptorsTest {
+    private static final int INTERFACE = 1;
+    private static final int ENDPOINT_OUT = 0x02;
+    private static final int ENDPOINT_IN = 0x81;
+
+    private static byte[] concat(final byte[]... arrays) {
+        int length = 0;
+        for (final byte[] array : arrays) {
+            length += array.length;
+        }
+        final byte[] result = new byte[length];
+        int offset = 0;
+        for (final byte[] array : arrays) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+        return result;
+    }
+
+    private static byte[] interfaceDescriptor(final int number) {
+        // bLength, bDescriptorType, bInterfaceNumber, bAlternateSetting, bNumEndpoints, class, subclass, protocol, iInterface
+        return bytes(9, 0x04, number, 0, 2, 0x01, 0x03, 0, 0);
+    }
+
+    private static byte[] endpointDescriptor(final int address) {
+        // USB MIDI uses the 9 byte Standard Endpoint Descriptor
+        return bytes(9, 0x05, address, 0x02, 64, 0, 0, 0, 0);
+    }
+
+    private static byte[] msGeneralDescriptor(final int jacks) {
+        final byte[] result = new byte[4 + jacks];
+        result[0] = (byte) result.length;
+        result[1] = 0x25;
+        result[2] = 0x01;
+        result[3] = (byte) jacks;
+        for (int i = 0; i < jacks; i++) {
+            result[4 + i] = (byte) (i + 1);
+        }
+        return result;
+    }
+
+    private static byte[] device() {
+        return concat(
+                // Configuration Descriptor
+                bytes(9, 0x02, 0, 0, 2, 1, 0, 0x80, 50),
+                // Audio Control interface
+                interfaceDescriptor(0),
+                // MIDI Streaming interface, with a Class-Specific MS Interface Header
+                interfaceDescriptor(INTERFACE),
+                bytes(7, 0x24, 0x01, 0x00, 0x01, 0, 0),
+                endpointDescriptor(ENDPOINT_OUT),
+                msGeneralDescriptor(3),
+                endpointDescriptor(ENDPOINT_IN),
+                msGeneralDescriptor(2));
+    }
+
+    @Test
+    public void cableCountOfEachEndpoint() {
+        assertEquals(3, UsbMidiDescriptors.findCableCount(device(), INTERFACE, ENDPOINT_OUT));
+        assertEquals(2, UsbMidiDescriptors.findCableCount(device(), INTERFACE, ENDPOINT_IN));
+    }
+
+    @Test
+    public void unknownEndpointOrInterface() {
+        assertEquals(0, UsbMidiDescriptors.findCableCount(device(), INTERFACE, 0x03));
+        assertEquals(0, UsbMidiDescriptors.findCableCount(device(), 0, ENDPOINT_OUT));
+    }
+
+    @Test
+    public void endpointOfAnotherInterfaceIsNotMatched() {
+        final byte[] descriptors = concat(
+                interfaceDescriptor(2),
+                endpointDescriptor(ENDPOINT_OUT),
+                msGeneralDescriptor(4),
+                interfaceDescriptor(INTERFACE),
+                endpointDescriptor(ENDPOINT_OUT),
+                msGeneralDescriptor(1));
+        assertEquals(1, UsbMidiDescriptors.findCableCount(descriptors, INTERFACE, ENDPOINT_OUT));
+    }
+
+    @Test
+    public void classSpecificEndpointBeforeEndpointIsIgnored() {
+        final byte[] descriptors = concat(
+                interfaceDescriptor(INTERFACE),
+                msGeneralDescriptor(4),
+                endpointDescriptor(ENDPOINT_OUT));
+        assertEquals(0, UsbMidiDescriptors.findCableCount(descriptors, INTERFACE, ENDPOINT_OUT));
+    }
+
+    @Test
+    public void emptyDescriptors() {
+        assertEquals(0, UsbMidiDescriptors.findCableCount(new byte[0], INTERFACE, ENDPOINT_OUT));
+        assertEquals(0, UsbMidiDescriptors.findCableCount(bytes(9), INTERFACE, ENDPOINT_OUT));
+    }
+
+    @Test
+    public void zeroLengthDescriptorStopsParsing() {
+        // a bLength of 0 would loop forever if it was not rejected
+        final byte[] descriptors = concat(
+                interfaceDescriptor(INTERFACE),
+                bytes(0, 0x05, ENDPOINT_OUT),
+                endpointDescriptor(ENDPOINT_OUT),
+                msGeneralDescriptor(3));
+        assertEquals(0, UsbMidiDescriptors.findCableCount(descriptors, INTERFACE, ENDPOINT_OUT));
+    }
+
+    @Test
+    public void truncatedDescriptorStopsParsing() {
+        final byte[] descriptors = concat(
+                interfaceDescriptor(INTERFACE),
+                endpointDescriptor(ENDPOINT_OUT),
+                bytes(6, 0x25, 0x01, 3));
+        assertEquals(0, UsbMidiDescriptors.findCableCount(descriptors, INTERFACE, ENDPOINT_OUT));
+    }
+
+    @Test
+    public void shortDescriptorsAreSkipped() {
+        final byte[] descriptors = concat(
+                interfaceDescriptor(INTERFACE),
+                // too short to hold the address, clears the current endpoint
+                bytes(2, 0x05),
+                bytes(3, 0x25, 0x01),
+                endpointDescriptor(ENDPOINT_OUT),
+                msGeneralDescriptor(3));
+        assertEquals(3, UsbMidiDescriptors.findCableCount(descriptors, INTERFACE, ENDPOINT_OUT));
+    }
+
+    @Test
+    public void otherClassSpecificSubtypeIsIgnored() {
+        final byte[] descriptors = concat(
+                interfaceDescriptor(INTERFACE),
+                endpointDescriptor(ENDPOINT_OUT),
+                bytes(5, 0x25, 0x02, 7, 1),
+                msGeneralDescriptor(2));
+        assertEquals(2, UsbMidiDescriptors.findCableCount(descriptors, INTERFACE, ENDPOINT_OUT));
+    }
+}
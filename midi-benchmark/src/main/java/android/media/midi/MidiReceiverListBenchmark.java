@@ -0,0 +1,100 @@
+package android.media.midi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jp.kshoji.lib.midi.benchmark.Benchmark;
+
+/**
+ * Measures the cost of fanning out one short message to the receivers connected to a {@link MidiOutputPort},
+ * compared with the synchronized {@link HashSet} the port used before, and the cost of the port statistics.
+ */
+public final class MidiReceiverListBenchmark {
+    private static final int[] RECEIVER_COUNTS = {1, 4, 16};
+
+    private MidiReceiverListBenchmark() {
+    }
+
+    /**
+     * Creates the benchmarks for 1, 4 and 16 receivers
+     *
+     * @return the benchmarks
+     */
+    public static List<Benchmark> createBenchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (final int receiverCount : RECEIVER_COUNTS) {
+            benchmarks.add(new CopyOnWriteFanOut(receiverCount, false));
+            benchmarks.add(new CopyOnWriteFanOut(receiverCount, true));
+            benchmarks.add(new SynchronizedSetFanOut(receiverCount));
+        }
+        return benchmarks;
+    }
+
+    private static final class CountingReceiver extends MidiReceiver {
+        long count;
+
+        @Override
+        public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+            this.count += msg[offset] + count;
+        }
+    }
+
+    private static final class CopyOnWriteFanOut extends Benchmark {
+        private final MidiReceiverList receivers = new MidiReceiverList();
+        private final byte[] message = {(byte) 0x90, 60, 100};
+
+        CopyOnWriteFanOut(final int receiverCount, final boolean statsEnabled) {
+            super("MidiReceiverList.send, receivers=" + receiverCount + (statsEnabled ? ", stats" : ""));
+            for (int i = 0; i < receiverCount; i++) {
+                receivers.add(new CountingReceiver());
+            }
+            if (statsEnabled) {
+                receivers.setStatsRecorder(new MidiPortStatsRecorder(MidiDeviceInfo.PortInfo.TYPE_OUTPUT, 0));
+            }
+        }
+
+        @Override
+        public long run(final int operations) {
+            for (int i = 0; i < operations; i++) {
+                message[1] = (byte) (i & 0x7f);
+                final long timestamp = System.nanoTime();
+                receivers.send(message, 0, message.length, timestamp, timestamp);
+            }
+            return message[1];
+        }
+    }
+
+    private static final class SynchronizedSetFanOut extends Benchmark {
+        private final Set<MidiReceiver> receivers = new HashSet<MidiReceiver>();
+        private final byte[] message = {(byte) 0x90, 60, 100};
+
+        SynchronizedSetFanOut(final int receiverCount) {
+            super("synchronized HashSet (previous), receivers=" + receiverCount);
+            for (int i = 0; i < receiverCount; i++) {
+                receivers.add(new CountingReceiver());
+            }
+        }
+
+        private synchronized void send(final byte[] msg, final int count) {
+            for (final MidiReceiver receiver : receivers) {
+                try {
+                    receiver.send(msg, 0, count);
+                } catch (final IOException ignored) {
+                    // do nothing
+                }
+            }
+        }
+
+        @Override
+        public long run(final int operations) {
+            for (int i = 0; i < operations; i++) {
+                message[1] = (byte) (i & 0x7f);
+                send(message, message.length);
+            }
+            return message[1];
+        }
+    }
+}
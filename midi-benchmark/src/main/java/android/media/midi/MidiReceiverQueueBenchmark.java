@@ -0,0 +1,83 @@
+package android.media.midi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.kshoji.lib.midi.benchmark.Benchmark;
+
+/**
+ * Measures the time the driver thread spends passing one message to a slow receiver,
+ * called directly or through a {@link MidiReceiverQueue} with each overflow policy.
+ */
+public final class MidiReceiverQueueBenchmark {
+    // the time the slow receiver takes for each message
+    private static final long RECEIVER_NANOS = 2000;
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int[] OVERFLOW_POLICIES = {
+            MidiOutputPort.OVERFLOW_DROP_OLDEST,
+            MidiOutputPort.OVERFLOW_DROP_NEWEST,
+            MidiOutputPort.OVERFLOW_COALESCE_CONTROLLERS,
+    };
+
+    private MidiReceiverQueueBenchmark() {
+    }
+
+    /**
+     * Creates the benchmarks of the direct call, and of the queue with each policy which never blocks
+     *
+     * @return the benchmarks
+     */
+    public static List<Benchmark> createBenchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new SlowReceiverSend(-1));
+        for (final int overflowPolicy : OVERFLOW_POLICIES) {
+            benchmarks.add(new SlowReceiverSend(overflowPolicy));
+        }
+        return benchmarks;
+    }
+
+    private static final class SlowReceiver extends MidiReceiver {
+        volatile long count;
+
+        @Override
+        public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+            final long deadline = System.nanoTime() + RECEIVER_NANOS;
+            while (System.nanoTime() < deadline) {
+                // busy
+            }
+            this.count += msg[offset] + count;
+        }
+    }
+
+    private static final class SlowReceiverSend extends Benchmark {
+        private final MidiReceiverList receivers = new MidiReceiverList();
+        private final SlowReceiver receiver = new SlowReceiver();
+        private final MidiReceiverQueue queue;
+        // Control Changes of a few controllers, as a fader sweep
+        private final byte[] message = {(byte) 0xb0, 7, 0};
+
+        SlowReceiverSend(final int overflowPolicy) {
+            super("slow receiver, " + (overflowPolicy < 0 ? "direct" : "queued, policy=" + overflowPolicy));
+            queue = overflowPolicy < 0 ? null : new MidiReceiverQueue(receiver, QUEUE_CAPACITY, overflowPolicy, "MidiReceiverQueueBenchmark");
+            receivers.add(queue == null ? receiver : queue);
+        }
+
+        @Override
+        public void tearDown() throws Exception {
+            if (queue != null) {
+                queue.close();
+            }
+        }
+
+        @Override
+        public long run(final int operations) {
+            for (int i = 0; i < operations; i++) {
+                message[1] = (byte) (7 + (i & 3));
+                message[2] = (byte) (i & 0x7f);
+                receivers.send(message, 0, message.length, 0L, System.nanoTime());
+            }
+            return receiver.count;
+        }
+    }
+}
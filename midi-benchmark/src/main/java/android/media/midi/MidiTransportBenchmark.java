@@ -0,0 +1,79 @@
+package android.media.midi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.kshoji.lib.midi.benchmark.Benchmark;
+
+/**
+ * Measures sending one short message through a {@link MidiInputPort}, looped back by a {@link LoopbackMidiTransportDevice}
+ * to the receivers connected to a {@link MidiOutputPort}: the whole path of the ports, without the hardware.
+ */
+public final class MidiTransportBenchmark {
+    private static final int[] RECEIVER_COUNTS = {1, 4, 16};
+
+    private MidiTransportBenchmark() {
+    }
+
+    /**
+     * Creates the benchmarks for 1, 4 and 16 receivers
+     *
+     * @return the benchmarks
+     */
+    public static List<Benchmark> createBenchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (final int receiverCount : RECEIVER_COUNTS) {
+            benchmarks.add(new LoopbackRoundTrip(receiverCount));
+        }
+        return benchmarks;
+    }
+
+    private static final class CountingReceiver extends MidiReceiver {
+        long count;
+
+        @Override
+        public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+            this.count += msg[offset] + count;
+        }
+    }
+
+    private static final class LoopbackRoundTrip extends Benchmark {
+        private final int receiverCount;
+        private final byte[] message = {(byte) 0x90, 60, 100};
+        private SharedMidiDevice sharedDevice;
+        private MidiInputPort inputPort;
+        private MidiOutputPort outputPort;
+
+        LoopbackRoundTrip(final int receiverCount) {
+            super("loopback MidiInputPort -> MidiOutputPort, receivers=" + receiverCount);
+            this.receiverCount = receiverCount;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            sharedDevice = new SharedMidiDevice(new LoopbackMidiTransportDevice("loopback", 1), 1, 1, null);
+            inputPort = MidiInputPort.open(sharedDevice, 0);
+            outputPort = MidiOutputPort.open(sharedDevice, 0);
+            for (int i = 0; i < receiverCount; i++) {
+                outputPort.connect(new CountingReceiver());
+            }
+        }
+
+        @Override
+        public void tearDown() throws Exception {
+            inputPort.close();
+            outputPort.close();
+            sharedDevice.close();
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            for (int i = 0; i < operations; i++) {
+                message[1] = (byte) (i & 0x7f);
+                inputPort.send(message, 0, message.length, 0L);
+            }
+            return message[1];
+        }
+    }
+}
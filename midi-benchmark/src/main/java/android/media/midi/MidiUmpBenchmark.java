@@ -0,0 +1,111 @@
+package android.media.midi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.kshoji.lib.midi.benchmark.Benchmark;
+import jp.kshoji.lib.midi.benchmark.MidiMessageMix;
+
+/**
+ * Measures the conversions between MIDI 1.0 byte streams and Universal MIDI Packets, for each message mix.
+ * One operation is one packet of the mix.
+ */
+public final class MidiUmpBenchmark {
+
+    private MidiUmpBenchmark() {
+    }
+
+    /**
+     * Creates the benchmarks of the encoder and the decoder for each message mix
+     *
+     * @return the benchmarks
+     */
+    public static List<Benchmark> createBenchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (final int mix : MidiMessageMix.MIXES) {
+            benchmarks.add(new Encode(MidiMessageMix.create(mix)));
+        }
+        for (final int mix : MidiMessageMix.MIXES) {
+            benchmarks.add(new Decode(MidiMessageMix.create(mix)));
+        }
+        return benchmarks;
+    }
+
+    private static final class CountingReceiver extends MidiReceiver {
+        long count;
+
+        @Override
+        public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+            this.count += msg[offset] + count;
+        }
+    }
+
+    private static final class Encode extends Benchmark {
+        private final MidiMessageMix mix;
+        private final CountingReceiver receiver = new CountingReceiver();
+        private final MidiUmpEncoder encoder = new MidiUmpEncoder(0, receiver);
+        private int index;
+
+        Encode(final MidiMessageMix mix) {
+            super("MidiUmpEncoder.onSend, " + mix.getName());
+            this.mix = mix;
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            final byte[] data = mix.getData();
+            for (int i = 0; i < operations; i++) {
+                encoder.send(data, mix.getOffset(index), mix.getCount(index), 0L);
+                if (++index == mix.getPacketCount()) {
+                    index = 0;
+                }
+            }
+            return receiver.count;
+        }
+    }
+
+    private static final class Decode extends Benchmark {
+        private final MidiMessageMix mix;
+        private final CountingReceiver receiver = new CountingReceiver();
+        private final MidiUmpDecoder decoder = new MidiUmpDecoder(new MidiReceiver[] {receiver});
+        // the packets encoded from each packet of the mix
+        private final byte[][] packets;
+        private int index;
+
+        Decode(final MidiMessageMix mix) {
+            super("MidiUmpDecoder.onSend, " + mix.getName());
+            this.mix = mix;
+            packets = new byte[mix.getPacketCount()][];
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final MidiUmpEncoder encoder = new MidiUmpEncoder(0, new MidiReceiver() {
+                @Override
+                public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+                    output.write(msg, offset, count);
+                }
+            });
+            for (int i = 0; i < packets.length; i++) {
+                output.reset();
+                encoder.send(mix.getData(), mix.getOffset(i), mix.getCount(i), 0L);
+                packets[i] = output.toByteArray();
+            }
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            for (int i = 0; i < operations; i++) {
+                final byte[] packet = packets[index];
+                decoder.send(packet, 0, packet.length, 0L);
+                if (++index == packets.length) {
+                    index = 0;
+                }
+            }
+            return receiver.count;
+        }
+    }
+}
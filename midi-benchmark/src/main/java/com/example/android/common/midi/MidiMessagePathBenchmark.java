@@ -0,0 +1,352 @@
+package com.example.android.common.midi;
+
+import android.media.midi.MidiReceiver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.kshoji.lib.midi.benchmark.Benchmark;
+import jp.kshoji.lib.midi.benchmark.MidiMessageMix;
+
+/**
+ * Measures the hot classes of the sample's message path: {@link MidiFramer}, {@link MidiDispatcher}
+ * per message and per batch, {@link MidiEventScheduler} with and without its event pool,
+ * {@link PackedMidiEventScheduler}, and {@link MidiParameterAggregator}.
+ */
+public final class MidiMessagePathBenchmark {
+    private static final int[] RECEIVER_COUNTS = {1, 4, 16};
+    // the events pending in the scheduler, as while a sequence is played ahead
+    private static final int SCHEDULER_BACKLOG = 1024;
+    // the short messages of a full 64 bytes USB MIDI transfer
+    private static final int BATCH_SIZE = 16;
+
+    private MidiMessagePathBenchmark() {
+    }
+
+    /**
+     * Creates the benchmarks of the framer for each message mix, of the dispatcher, and of the scheduler
+     *
+     * @return the benchmarks
+     */
+    public static List<Benchmark> createBenchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (final int mix : MidiMessageMix.MIXES) {
+            benchmarks.add(new FramerSend(MidiMessageMix.create(mix)));
+        }
+        for (final int receiverCount : RECEIVER_COUNTS) {
+            benchmarks.add(new DispatcherSend(MidiMessageMix.create(MidiMessageMix.MIX_NOTES), receiverCount));
+            benchmarks.add(new DispatcherSendBatch(receiverCount));
+        }
+        benchmarks.add(new SchedulerAddAndGet(true, 0));
+        benchmarks.add(new SchedulerAddAndGet(false, 0));
+        benchmarks.add(new SchedulerAddAndGet(true, SCHEDULER_BACKLOG));
+        benchmarks.add(new SchedulerAddAndGet(false, SCHEDULER_BACKLOG));
+        benchmarks.add(new PackedSchedulerAddAndProcess(0));
+        benchmarks.add(new PackedSchedulerAddAndProcess(SCHEDULER_BACKLOG));
+        benchmarks.add(new SchedulerWaitNextEvent());
+        benchmarks.add(new ParameterSweep(false));
+        benchmarks.add(new ParameterSweep(true));
+        return benchmarks;
+    }
+
+    private static final class CountingReceiver extends MidiReceiver {
+        volatile long received;
+        long count;
+
+        @Override
+        public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+            this.count += msg[offset] + count;
+            received++;
+        }
+
+        @Override
+        public void onSendBatch(final int[] messages, final long[] timestamps, final int offset, final int count) throws IOException {
+            for (int i = offset; i < offset + count; i++) {
+                this.count += (byte) (messages[i] >> 16) + 3;
+            }
+            received += count;
+        }
+    }
+
+    /**
+     * A scheduler which always allocates a new event, as without the pool
+     */
+    private static final class UnpooledMidiEventScheduler extends MidiEventScheduler {
+        @Override
+        public SchedulableEvent removeEventfromPool() {
+            return null;
+        }
+    }
+
+    private static final class FramerSend extends Benchmark {
+        private final MidiMessageMix mix;
+        private final CountingReceiver receiver = new CountingReceiver();
+        private final MidiFramer framer = new MidiFramer(receiver);
+        private int index;
+
+        FramerSend(final MidiMessageMix mix) {
+            super("MidiFramer.onSend, " + mix.getName());
+            this.mix = mix;
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            final byte[] data = mix.getData();
+            for (int i = 0; i < operations; i++) {
+                framer.send(data, mix.getOffset(index), mix.getCount(index), 0L);
+                if (++index == mix.getPacketCount()) {
+                    index = 0;
+                }
+            }
+            return receiver.count;
+        }
+    }
+
+    private static final class DispatcherSend extends Benchmark {
+        private final MidiMessageMix mix;
+        private final MidiDispatcher dispatcher = new MidiDispatcher();
+        private final CountingReceiver receiver = new CountingReceiver();
+        private int index;
+
+        DispatcherSend(final MidiMessageMix mix, final int receiverCount) {
+            super("MidiDispatcher.onSend, " + mix.getName() + ", receivers=" + receiverCount);
+            this.mix = mix;
+            dispatcher.getSender().connect(receiver);
+            for (int i = 1; i < receiverCount; i++) {
+                dispatcher.getSender().connect(new CountingReceiver());
+            }
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            final byte[] data = mix.getData();
+            for (int i = 0; i < operations; i++) {
+                dispatcher.send(data, mix.getOffset(index), mix.getCount(index), 0L);
+                if (++index == mix.getPacketCount()) {
+                    index = 0;
+                }
+            }
+            return receiver.count;
+        }
+    }
+
+    /**
+     * Sends Note On and Note Off messages in batches of {@link #BATCH_SIZE}; one operation is one message
+     */
+    private static final class DispatcherSendBatch extends Benchmark {
+        private final MidiDispatcher dispatcher = new MidiDispatcher();
+        private final CountingReceiver receiver = new CountingReceiver();
+        private final int[] messages = new int[BATCH_SIZE];
+        private final long[] timestamps = new long[BATCH_SIZE];
+
+        DispatcherSendBatch(final int receiverCount) {
+            super("MidiDispatcher.onSendBatch, notes, receivers=" + receiverCount);
+            dispatcher.getSender().connect(receiver);
+            for (int i = 1; i < receiverCount; i++) {
+                dispatcher.getSender().connect(new CountingReceiver());
+            }
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                messages[i] = MidiReceiver.packMessage((i & 1) == 0 ? 0x90 : 0x80, 60 + i / 2, 100);
+            }
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            for (int i = 0; i < operations; i += BATCH_SIZE) {
+                dispatcher.sendBatch(messages, timestamps, 0, Math.min(BATCH_SIZE, operations - i));
+            }
+            return receiver.count;
+        }
+    }
+
+    /**
+     * Schedules one event and takes the earliest one back, returning it to the pool, as {@link MidiEventThread} does
+     */
+    private static final class SchedulerAddAndGet extends Benchmark {
+        private final MidiMessageMix mix = MidiMessageMix.create(MidiMessageMix.MIX_NOTES);
+        private final MidiEventScheduler scheduler;
+        private final MidiReceiver schedulingReceiver;
+        private final int backlog;
+        private long timestamp;
+        private int index;
+
+        SchedulerAddAndGet(final boolean pooled, final int backlog) {
+            super("MidiEventScheduler add+getNextEvent, " + (pooled ? "pooled" : "no pool") + ", backlog=" + backlog);
+            scheduler = pooled ? new MidiEventScheduler() : new UnpooledMidiEventScheduler();
+            schedulingReceiver = scheduler.getReceiver();
+            this.backlog = backlog;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            for (int i = 0; i < backlog; i++) {
+                schedule();
+            }
+        }
+
+        private void schedule() throws IOException {
+            schedulingReceiver.send(mix.getData(), mix.getOffset(index), mix.getCount(index), timestamp++);
+            if (++index == mix.getPacketCount()) {
+                index = 0;
+            }
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            long result = 0;
+            for (int i = 0; i < operations; i++) {
+                schedule();
+                final EventScheduler.SchedulableEvent event = scheduler.getNextEvent(Long.MAX_VALUE);
+                result += event.getTimestamp();
+                scheduler.addEventToPool(event);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Schedules one message and processes the earliest one, as {@link SchedulerAddAndGet} does
+     */
+    private static final class PackedSchedulerAddAndProcess extends Benchmark {
+        private final MidiMessageMix mix = MidiMessageMix.create(MidiMessageMix.MIX_NOTES);
+        private final PackedMidiEventScheduler scheduler = new PackedMidiEventScheduler();
+        private final MidiReceiver schedulingReceiver = scheduler.getReceiver();
+        private final CountingReceiver receiver = new CountingReceiver();
+        private final int backlog;
+        private long timestamp;
+        private int index;
+
+        PackedSchedulerAddAndProcess(final int backlog) {
+            super("PackedMidiEventScheduler add+processEvents, backlog=" + backlog);
+            this.backlog = backlog;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            for (int i = 0; i < backlog; i++) {
+                schedule();
+            }
+        }
+
+        private void schedule() throws IOException {
+            schedulingReceiver.send(mix.getData(), mix.getOffset(index), mix.getCount(index), timestamp++);
+            if (++index == mix.getPacketCount()) {
+                index = 0;
+            }
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            for (int i = 0; i < operations; i++) {
+                schedule();
+                // only the earliest event is due
+                scheduler.processEvents(timestamp - backlog - 1, receiver);
+            }
+            return receiver.count;
+        }
+    }
+
+    /**
+     * Sends an NRPN sweep in batches of {@link #BATCH_SIZE} Control Changes, selecting the parameter and then
+     * changing its value with Data Entry MSB and LSB; one operation is one Control Change.
+     * Without the aggregator every Control Change is dispatched to the synthesizer.
+     */
+    private static final class ParameterSweep extends Benchmark {
+        private final CountingReceiver receiver = new CountingReceiver();
+        private final MidiReceiver target;
+        private final int[] messages = new int[BATCH_SIZE];
+        private final long[] timestamps = new long[BATCH_SIZE];
+        private long changes;
+
+        ParameterSweep(final boolean aggregated) {
+            super("NRPN sweep, " + (aggregated ? "MidiParameterAggregator" : "raw Control Changes"));
+            target = aggregated ? new MidiParameterAggregator(receiver, new MidiParameterAggregator.OnParameterChangeListener() {
+                @Override
+                public void onParameterChanged(final int channel, final boolean registered, final int parameter, final int value, final long timestamp) {
+                    changes += value;
+                }
+            }) : new MidiReceiver() {
+                // as the synthesizer's receiver, dispatched once per Control Change
+                @Override
+                public void onSend(final byte[] msg, final int offset, final int count, final long timestamp) throws IOException {
+                    receiver.send(msg, offset, count, timestamp);
+                }
+            };
+            messages[0] = MidiReceiver.packMessage(0xb0, 99, 1);
+            messages[1] = MidiReceiver.packMessage(0xb0, 98, 8);
+            for (int i = 2; i < BATCH_SIZE; i += 2) {
+                messages[i] = MidiReceiver.packMessage(0xb0, 6, i);
+                messages[i + 1] = MidiReceiver.packMessage(0xb0, 38, i);
+            }
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            for (int i = 0; i < operations; i += BATCH_SIZE) {
+                target.sendBatch(messages, timestamps, 0, Math.min(BATCH_SIZE, operations - i));
+            }
+            return receiver.count + changes;
+        }
+    }
+
+    /**
+     * Schedules due events, taken by a thread waiting in {@link EventScheduler#waitNextEvent}
+     */
+    private static final class SchedulerWaitNextEvent extends Benchmark {
+        private final MidiMessageMix mix = MidiMessageMix.create(MidiMessageMix.MIX_NOTES);
+        private final MidiEventScheduler scheduler = new MidiEventScheduler();
+        private final CountingReceiver receiver = new CountingReceiver();
+        private Thread eventThread;
+        private long sent;
+        private int index;
+
+        SchedulerWaitNextEvent() {
+            super("MidiEventScheduler.waitNextEvent, other thread");
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            eventThread = new Thread("MidiMessagePathBenchmark") {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            final MidiEventScheduler.MidiEvent event = (MidiEventScheduler.MidiEvent) scheduler.waitNextEvent();
+                            receiver.send(event.data, 0, event.count, event.getTimestamp());
+                            scheduler.addEventToPool(event);
+                        }
+                    } catch (final InterruptedException ignored) {
+                        // stopped
+                    } catch (final IOException ignored) {
+                        // stopped
+                    }
+                }
+            };
+            eventThread.setDaemon(true);
+            eventThread.start();
+        }
+
+        @Override
+        public void tearDown() throws Exception {
+            eventThread.interrupt();
+            eventThread.join(1000);
+        }
+
+        @Override
+        public long run(final int operations) throws Exception {
+            final MidiReceiver schedulingReceiver = scheduler.getReceiver();
+            for (int i = 0; i < operations; i++) {
+                schedulingReceiver.send(mix.getData(), mix.getOffset(index), mix.getCount(index), System.nanoTime());
+                if (++index == mix.getPacketCount()) {
+                    index = 0;
+                }
+            }
+            sent += operations;
+            while (receiver.received < sent) {
+                Thread.yield();
+            }
+            return sent;
+        }
+    }
+}
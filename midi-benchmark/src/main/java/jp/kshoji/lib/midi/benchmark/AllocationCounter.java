@@ -0,0 +1,51 @@
+package jp.kshoji.lib.midi.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Counts the bytes allocated by the current thread, with the HotSpot extension of {@link ThreadMXBean}.
+ * Allocations of the other threads, such as the consumer thread of a benchmark, are not counted.
+ */
+final class AllocationCounter {
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private static final Method getThreadAllocatedBytes = findGetThreadAllocatedBytes();
+
+    private AllocationCounter() {
+    }
+
+    private static Method findGetThreadAllocatedBytes() {
+        try {
+            // looked up on the exported interface, as the implementation class isn't accessible
+            final Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            method.invoke(threadMXBean, Thread.currentThread().getId());
+            return method;
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the allocated bytes can be counted on this JVM
+     */
+    static boolean isSupported() {
+        return getThreadAllocatedBytes != null;
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread since it started
+     *
+     * @return the bytes, 0 if not supported
+     */
+    static long getAllocatedBytes() {
+        if (getThreadAllocatedBytes == null) {
+            return 0;
+        }
+        try {
+            return (Long) getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread().getId());
+        } catch (final Exception e) {
+            return 0;
+        }
+    }
+}
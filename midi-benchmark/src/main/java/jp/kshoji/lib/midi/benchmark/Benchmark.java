@@ -0,0 +1,46 @@
+package jp.kshoji.lib.midi.benchmark;
+
+/**
+ * A benchmark case run by {@link BenchmarkRunner}
+ */
+public abstract class Benchmark {
+    private final String name;
+
+    protected Benchmark(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of this benchmark, printed in the report
+     *
+     * @return the name
+     */
+    public final String getName() {
+        return name;
+    }
+
+    /**
+     * Called once before the warm up
+     *
+     * @throws Exception
+     */
+    public void setUp() throws Exception {
+    }
+
+    /**
+     * Called once after the measurement
+     *
+     * @throws Exception
+     */
+    public void tearDown() throws Exception {
+    }
+
+    /**
+     * Runs the measured operation
+     *
+     * @param operations the number of operations to run
+     * @return any value depending on the work done, so that the JIT can't eliminate it
+     * @throws Exception
+     */
+    public abstract long run(int operations) throws Exception;
+}
@@ -0,0 +1,156 @@
+package jp.kshoji.lib.midi.benchmark;
+
+import android.media.midi.MidiReceiverListBenchmark;
+import android.media.midi.MidiReceiverQueueBenchmark;
+import android.media.midi.MidiTransportBenchmark;
+import android.media.midi.MidiUmpBenchmark;
+
+import com.example.android.common.midi.MidiMessagePathBenchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks on a plain JVM and prints the results
+ *
+ * For each benchmark, prints the average time and throughput, the bytes allocated by the benchmark thread per operation,
+ * and the percentiles of the time taken by single operations, measured after the throughput.
+ */
+public final class BenchmarkRunner {
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+    private static final long ROUND_NANOS = 200 * NANOS_PER_MILLI;
+    private static final int LATENCY_SAMPLES = 100000;
+    private static final long LATENCY_NANOS = 200 * NANOS_PER_MILLI;
+
+    // keeps the results of the benchmarks alive
+    private static volatile long sink;
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.addAll(MidiReceiverListBenchmark.createBenchmarks());
+        benchmarks.addAll(MidiReceiverQueueBenchmark.createBenchmarks());
+        benchmarks.addAll(MidiTransportBenchmark.createBenchmarks());
+        benchmarks.addAll(MidiUmpBenchmark.createBenchmarks());
+        benchmarks.addAll(MidiMessagePathBenchmark.createBenchmarks());
+
+        System.out.println(String.format("%-56s %14s %16s %10s %10s %10s %10s", "benchmark", "ns/op", "ops/s", "B/op", "p50 ns", "p99 ns", "p99.9 ns"));
+        for (final Benchmark benchmark : benchmarks) {
+            if (args.length > 0 && !benchmark.getName().contains(args[0])) {
+                continue;
+            }
+
+            final Result result = measure(benchmark);
+            System.out.println(String.format("%-56s %14.2f %16.0f %10s %10d %10d %10d", benchmark.getName(),
+                    result.nanosPerOperation, NANOS_PER_SECOND / result.nanosPerOperation,
+                    AllocationCounter.isSupported() ? String.format("%.1f", result.bytesPerOperation) : "n/a",
+                    result.latencyNanos[0], result.latencyNanos[1], result.latencyNanos[2]));
+        }
+    }
+
+    /**
+     * The measurements of a benchmark
+     */
+    private static final class Result {
+        final double nanosPerOperation;
+        final double bytesPerOperation;
+        // 50th, 99th and 99.9th percentiles
+        final long[] latencyNanos;
+
+        Result(final double nanosPerOperation, final double bytesPerOperation, final long[] latencyNanos) {
+            this.nanosPerOperation = nanosPerOperation;
+            this.bytesPerOperation = bytesPerOperation;
+            this.latencyNanos = latencyNanos;
+        }
+    }
+
+    /**
+     * Warms up and measures the benchmark
+     *
+     * @param benchmark the benchmark
+     * @return the measurements
+     * @throws Exception
+     */
+    private static Result measure(final Benchmark benchmark) throws Exception {
+        benchmark.setUp();
+        try {
+            // find the batch size which takes about 1 millisecond
+            int operations = 1;
+            while (true) {
+                final long start = System.nanoTime();
+                sink += benchmark.run(operations);
+                if (System.nanoTime() - start >= NANOS_PER_MILLI || operations >= Integer.MAX_VALUE / 2) {
+                    break;
+                }
+                operations *= 2;
+            }
+
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                runRound(benchmark, operations);
+            }
+
+            long totalOperations = 0;
+            long totalNanos = 0;
+            final long allocatedBytes = AllocationCounter.getAllocatedBytes();
+            for (int round = 0; round < MEASURE_ROUNDS; round++) {
+                final long start = System.nanoTime();
+                totalOperations += runRound(benchmark, operations);
+                totalNanos += System.nanoTime() - start;
+            }
+            final double bytesPerOperation = (double) (AllocationCounter.getAllocatedBytes() - allocatedBytes) / totalOperations;
+
+            return new Result((double) totalNanos / totalOperations, bytesPerOperation, measureLatency(benchmark));
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Measures the time of single operations
+     *
+     * @param benchmark the benchmark
+     * @return the 50th, 99th and 99.9th percentiles in nanoseconds
+     * @throws Exception
+     */
+    private static long[] measureLatency(final Benchmark benchmark) throws Exception {
+        final long[] samples = new long[LATENCY_SAMPLES];
+        int count = 0;
+        final long end = System.nanoTime() + LATENCY_NANOS;
+        while (count < samples.length && System.nanoTime() < end) {
+            final long start = System.nanoTime();
+            sink += benchmark.run(1);
+            samples[count++] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(samples, 0, count);
+        return new long[] {
+                percentile(samples, count, 0.5),
+                percentile(samples, count, 0.99),
+                percentile(samples, count, 0.999),
+        };
+    }
+
+    private static long percentile(final long[] sortedSamples, final int count, final double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        return sortedSamples[Math.min(count - 1, (int) (count * percentile))];
+    }
+
+    private static long runRound(final Benchmark benchmark, final int operations) throws Exception {
+        long count = 0;
+        final long end = System.nanoTime() + ROUND_NANOS;
+        while (System.nanoTime() < end) {
+            sink += benchmark.run(operations);
+            count += operations;
+        }
+        return count;
+    }
+}
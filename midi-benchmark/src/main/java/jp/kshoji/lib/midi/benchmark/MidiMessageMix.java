@@ -0,0 +1,161 @@
+package jp.kshoji.lib.midi.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stream of MIDI bytes cut into packets, as a receiver gets them from a port.
+ * The benchmarks send the packets one by one, cycling through the stream.
+ */
+public final class MidiMessageMix {
+    /** Note on and note off messages, with a control change now and then */
+    public static final int MIX_NOTES = 0;
+    /** Timing clocks, some of them interleaved in the middle of a note message */
+    public static final int MIX_CLOCK = 1;
+    /** Note messages, with a 32 bytes System Exclusive message for every 3 of them */
+    public static final int MIX_SYSEX = 2;
+    /** Note messages sharing one status byte, each packet holding the data bytes only */
+    public static final int MIX_RUNNING_STATUS = 3;
+
+    /** All the mixes */
+    public static final int[] MIXES = {MIX_NOTES, MIX_CLOCK, MIX_SYSEX, MIX_RUNNING_STATUS};
+
+    private static final int MESSAGE_COUNT = 1024;
+    private static final int SYSEX_LENGTH = 32;
+
+    private final String name;
+    private final byte[] data;
+    private final int[] offsets;
+    private final int[] counts;
+
+    private MidiMessageMix(final String name, final byte[] data, final int[] offsets, final int[] counts) {
+        this.name = name;
+        this.data = data;
+        this.offsets = offsets;
+        this.counts = counts;
+    }
+
+    /**
+     * Creates the stream of the mix
+     *
+     * @param mix one of MIX_* values
+     * @return the stream
+     */
+    public static MidiMessageMix create(final int mix) {
+        final Builder builder = new Builder();
+        switch (mix) {
+            case MIX_NOTES:
+                for (int i = 0; i < MESSAGE_COUNT; i++) {
+                    final int channel = i & 0x0f;
+                    final int note = 36 + (i % 48);
+                    if (i % 8 == 7) {
+                        builder.packet(0xb0 | channel, 1, i & 0x7f);
+                    } else if ((i & 1) == 0) {
+                        builder.packet(0x90 | channel, note, 100);
+                    } else {
+                        builder.packet(0x80 | channel, note, 0);
+                    }
+                }
+                return builder.build("notes");
+
+            case MIX_CLOCK:
+                for (int i = 0; i < MESSAGE_COUNT; i++) {
+                    if (i % 6 != 5) {
+                        builder.packet(0xf8);
+                    } else if ((i & 1) == 0) {
+                        // a real-time message may come in the middle of another message
+                        builder.packet(0x90, 0xf8, 60, 100);
+                    } else {
+                        builder.packet(0x80, 60, 0);
+                    }
+                }
+                return builder.build("clock");
+
+            case MIX_SYSEX:
+                for (int i = 0; i < MESSAGE_COUNT; i++) {
+                    if (i % 4 == 3) {
+                        final int[] sysex = new int[SYSEX_LENGTH];
+                        sysex[0] = 0xf0;
+                        for (int j = 1; j < SYSEX_LENGTH - 1; j++) {
+                            sysex[j] = (i + j) & 0x7f;
+                        }
+                        sysex[SYSEX_LENGTH - 1] = 0xf7;
+                        builder.packet(sysex);
+                    } else {
+                        builder.packet(0x90, 36 + (i % 48), 100);
+                    }
+                }
+                return builder.build("sysex");
+
+            case MIX_RUNNING_STATUS:
+                builder.packet(0x90, 60, 100);
+                for (int i = 1; i < MESSAGE_COUNT; i++) {
+                    builder.packet(36 + (i % 48), (i & 1) == 0 ? 100 : 0);
+                }
+                return builder.build("running status");
+
+            default:
+                throw new IllegalArgumentException("unknown mix: " + mix);
+        }
+    }
+
+    /**
+     * @return the name of the mix
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the bytes of the stream, which must not be modified
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the number of packets
+     */
+    public int getPacketCount() {
+        return offsets.length;
+    }
+
+    /**
+     * @param index the packet index
+     * @return the offset of the packet in {@link #getData()}
+     */
+    public int getOffset(final int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @param index the packet index
+     * @return the length of the packet
+     */
+    public int getCount(final int index) {
+        return counts[index];
+    }
+
+    private static final class Builder {
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private final List<int[]> packets = new ArrayList<int[]>();
+
+        void packet(final int... bytes) {
+            packets.add(new int[] {data.size(), bytes.length});
+            for (final int b : bytes) {
+                data.write(b);
+            }
+        }
+
+        MidiMessageMix build(final String name) {
+            final int[] offsets = new int[packets.size()];
+            final int[] counts = new int[packets.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = packets.get(i)[0];
+                counts[i] = packets.get(i)[1];
+            }
+            return new MidiMessageMix(name, data.toByteArray(), offsets, counts);
+        }
+    }
+}